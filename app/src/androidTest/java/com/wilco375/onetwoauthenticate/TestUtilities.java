@@ -171,6 +171,33 @@ public class TestUtilities {
         }
     }
 
+    /**
+     * Condition polled by {@link #waitUntil(Instrumentation, Condition)}.
+     */
+    public interface Condition {
+        boolean isMet();
+    }
+
+    /**
+     * Waits until the condition is met, letting the main thread go idle before every check, for
+     * at most {@link #UI_ACTION_EFFECT_TIMEOUT_MILLIS}.
+     *
+     * @return whether the condition was met.
+     */
+    public static boolean waitUntil(Instrumentation instr, Condition condition) {
+        long deadline = SystemClock.uptimeMillis() + UI_ACTION_EFFECT_TIMEOUT_MILLIS;
+        while (true) {
+            instr.waitForIdleSync();
+            if (condition.isMet()) {
+                return true;
+            }
+            if (SystemClock.uptimeMillis() >= deadline) {
+                return false;
+            }
+            SystemClock.sleep(10);
+        }
+    }
+
     /**
      * Waits until the window which contains the provided view has focus.
      */
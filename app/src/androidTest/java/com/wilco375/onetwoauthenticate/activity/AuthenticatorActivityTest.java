@@ -23,6 +23,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.test.ActivityInstrumentationTestCase2;
 import android.test.ViewAsserts;
+import android.util.Log;
 import android.content.ClipboardManager;
 import android.view.KeyEvent;
 import android.view.View;
@@ -116,7 +117,7 @@ public class AuthenticatorActivityTest extends
     public void testGetOtpWithOneTotpAccount() {
         mAccountDb.update(
                 "johndoeTotp@gmail.com", "7777777777777777", "johndoeTotp@gmail.com", OtpType.TOTP, null);
-        ListView userList = getActivity().findViewById(R.id.user_list);
+        ListView userList = waitForUserList(1);
         assertEquals(1, userList.getChildCount());
         View listEntry = userList.getChildAt(0);
         String user = ((TextView) listEntry.findViewById(R.id.current_user)).getText().toString();
@@ -131,7 +132,7 @@ public class AuthenticatorActivityTest extends
     public void testGetOtpWithOneHotpAccount() {
         mAccountDb.update(
                 "johndoeHotp@gmail.com", "7777777777777777", "johndoeHotp@gmail.com", OtpType.HOTP, null);
-        ListView userList = getActivity().findViewById(R.id.user_list);
+        ListView userList = waitForUserList(1);
         assertEquals(1, userList.getChildCount());
         View listEntry = userList.getChildAt(0);
         String user = ((TextView) listEntry.findViewById(R.id.current_user)).getText().toString();
@@ -143,8 +144,7 @@ public class AuthenticatorActivityTest extends
         assertTrue(buttonView.isShown());
         // get next Otp value by clicking icon
         TestUtilities.clickView(getInstrumentation(), buttonView);
-        pin = ((TextView) listEntry.findViewById(R.id.pin_value)).getText().toString();
-        assertEquals("683298", pin);
+        assertEquals("683298", waitForPin(userList, 0));
     }
 
     public void testGetOtpWithMultipleAccounts() {
@@ -154,7 +154,7 @@ public class AuthenticatorActivityTest extends
                 "johndoeTotp1@gmail.com", "2222222222222222", "johndoeTotp1@gmail.com", OtpType.TOTP, null);
         mAccountDb.update(
                 "johndoeTotp2@gmail.com", "3333333333333333", "johndoeTotp2@gmail.com", OtpType.TOTP, null);
-        ListView userList = getActivity().findViewById(R.id.user_list);
+        ListView userList = waitForUserList(3);
         assertEquals(3, userList.getChildCount());
 
         // check hotp account
@@ -168,9 +168,7 @@ public class AuthenticatorActivityTest extends
         assertTrue(buttonView.isShown());
         // get next Otp value by clicking icon
         TestUtilities.clickView(getInstrumentation(), buttonView);
-        listEntry0 = userList.getChildAt(0); // get refreshed value after clicking nextOtp button.
-        pin = ((TextView) listEntry0.findViewById(R.id.pin_value)).getText().toString();
-        assertEquals("683298", pin);
+        assertEquals("683298", waitForPin(userList, 0));
 
         // check first totp account
         View listEntry1 = userList.getChildAt(1);
@@ -191,12 +189,61 @@ public class AuthenticatorActivityTest extends
         assertTrue(listEntry1.findViewById(R.id.countdown_icon).isShown());
     }
 
+    public void testRenameAccount_rebindsRowInPlace() {
+        mAccountDb.update(
+                "johndoeTotp1@gmail.com", "2222222222222222", "johndoeTotp1@gmail.com", OtpType.TOTP, null);
+        mAccountDb.update(
+                "johndoeTotp2@gmail.com", "3333333333333333", "johndoeTotp2@gmail.com", OtpType.TOTP, null);
+        ListView userList = waitForUserList(2);
+        Object adapter = userList.getAdapter();
+        View listEntry0 = userList.getChildAt(0);
+        TextView userView1 = userList.getChildAt(1).findViewById(R.id.current_user);
+
+        mAccountDb.update(
+                "janedoe@gmail.com", "3333333333333333", "johndoeTotp2@gmail.com", OtpType.TOTP, null);
+        TestUtilities.waitUntil(getInstrumentation(),
+                () -> "janedoe@gmail.com".equals(userView1.getText().toString()));
+
+        // The row of the account has been bound again, the list hasn't been replaced
+        assertEquals("janedoe@gmail.com", userView1.getText().toString());
+        assertSame(adapter, userList.getAdapter());
+        assertSame(listEntry0, userList.getChildAt(0));
+        assertEquals("johndoeTotp1@gmail.com",
+                ((TextView) listEntry0.findViewById(R.id.current_user)).getText().toString());
+    }
+
+    /**
+     * Gets the list once it shows the number of rows. The codes are computed on a background
+     * thread, so the list is only filled some time after the activity started.
+     */
+    private ListView waitForUserList(int rows) {
+        ListView userList = getActivity().findViewById(R.id.user_list);
+        TestUtilities.waitUntil(getInstrumentation(), () -> userList.getChildCount() >= rows);
+        assertEquals(rows, userList.getChildCount());
+        return userList;
+    }
+
+    /**
+     * Gets the code shown by a HOTP row once it has been computed on the background thread.
+     */
+    private String waitForPin(ListView userList, int position) {
+        String emptyPin = getActivity().getString(R.string.empty_pin);
+        TestUtilities.waitUntil(getInstrumentation(),
+                () -> !getPin(userList, position).equals(emptyPin));
+        return getPin(userList, position);
+    }
+
+    private static String getPin(ListView userList, int position) {
+        View listEntry = userList.getChildAt(position);
+        return ((TextView) listEntry.findViewById(R.id.pin_value)).getText().toString();
+    }
+
     //////////////////////////   Context Menu Tests  ////////////////////////////
 
     public void testContextMenuCheckCode() {
         mAccountDb.update(
                 "johndoeHotp@gmail.com", "7777777777777777", "johndoeHotp@gmail.com", OtpType.HOTP, null);
-        ListView userList = getActivity().findViewById(R.id.user_list);
+        ListView userList = waitForUserList(1);
         View listEntry0 = userList.getChildAt(0);
         TestUtilities.openContextMenuAndInvokeItem(
                 getInstrumentation(),
@@ -214,7 +261,7 @@ public class AuthenticatorActivityTest extends
     public void testContextMenuRemove() throws Exception {
         mAccountDb.update(
                 "johndoeHotp@gmail.com", "7777777777777777", "johndoeHotp@gmail.com", OtpType.HOTP, null);
-        ListView userList = getActivity().findViewById(R.id.user_list);
+        ListView userList = waitForUserList(1);
         View listEntry0 = userList.getChildAt(0);
         TestUtilities.openContextMenuAndInvokeItem(
                 getInstrumentation(),
@@ -235,7 +282,7 @@ public class AuthenticatorActivityTest extends
     public void testContextMenuRename() throws Exception {
         mAccountDb.update(
                 "johndoeHotp@gmail.com", "7777777777777777", "johndoeHotp@gmail.com", OtpType.HOTP, null);
-        ListView userList = getActivity().findViewById(R.id.user_list);
+        ListView userList = waitForUserList(1);
         View listEntry0 = userList.getChildAt(0);
         TestUtilities.openContextMenuAndInvokeItem(
                 getInstrumentation(),
@@ -261,13 +308,13 @@ public class AuthenticatorActivityTest extends
         // use HOTP to avoid any timing issues when "current" pin is compared with clip board text.
         mAccountDb.update(
                 "johndoeHotp@gmail.com", "7777777777777777", "johndoeHotp@gmail.com", OtpType.HOTP, null);
-        ListView userList = getActivity().findViewById(R.id.user_list);
+        ListView userList = waitForUserList(1);
         // find and click next otp button.
         View buttonView = getActivity().findViewById(R.id.next_otp);
         TestUtilities.clickView(getInstrumentation(), buttonView);
         // get the pin being displayed
+        String pin = waitForPin(userList, 0);
         View listEntry0 = userList.getChildAt(0);
-        String pin = ((TextView) listEntry0.findViewById(R.id.pin_value)).getText().toString();
         TestUtilities.openContextMenuAndInvokeItem(
                 getInstrumentation(),
                 getActivity(),
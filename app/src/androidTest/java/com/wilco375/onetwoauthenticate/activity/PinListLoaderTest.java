@@ -0,0 +1,158 @@
+package com.wilco375.onetwoauthenticate.activity;
+
+import android.os.Looper;
+import android.test.AndroidTestCase;
+
+import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.otp.OtpCodeSnapshot;
+import com.wilco375.onetwoauthenticate.otp.OtpSource;
+import com.wilco375.onetwoauthenticate.otp.OtpSourceException;
+import com.wilco375.onetwoauthenticate.otp.totp.TotpClock;
+import com.wilco375.onetwoauthenticate.otp.totp.TotpCounter;
+import com.wilco375.onetwoauthenticate.util.IconCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link PinListLoader}.
+ */
+public class PinListLoaderTest extends AndroidTestCase {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private final BlockingQueue<PinListLoader.PinList> mLoaded = new LinkedBlockingQueue<>();
+    private final List<Thread> mDeliveryThreads = Collections.synchronizedList(new ArrayList<>());
+    private FakeOtpSource mOtpSource;
+    private PinListLoader mLoader;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mOtpSource = new FakeOtpSource();
+        mLoader = new PinListLoader(getContext(), mOtpSource, new IconCache(getContext()),
+                list -> {
+                    mDeliveryThreads.add(Thread.currentThread());
+                    mLoaded.add(list);
+                });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mLoader.close();
+        super.tearDown();
+    }
+
+    public void testLoad_computesOffTheUiThread() throws Exception {
+        mLoader.requestLoad();
+        PinListLoader.PinList list = mLoaded.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(list);
+        assertEquals(1, list.totpCounterValue);
+        assertEquals(1, list.rows.size());
+        assertEquals("a@b.c", list.rows.get(0).user);
+        assertEquals("000001", list.rows.get(0).code);
+
+        Thread mainThread = Looper.getMainLooper().getThread();
+        assertNotSame(mainThread, mOtpSource.mComputeThreads.get(0));
+        assertEquals(Collections.singletonList(mainThread), mDeliveryThreads);
+    }
+
+    public void testLoad_dropsStaleResults() throws Exception {
+        mOtpSource.mBlockFirstLoad = new CountDownLatch(1);
+        mLoader.requestLoad();
+        assertTrue(mOtpSource.mFirstLoadStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // Both requests while the first load runs are served by one more load
+        mLoader.requestLoad();
+        mLoader.requestLoad();
+        mOtpSource.mBlockFirstLoad.countDown();
+
+        PinListLoader.PinList list = mLoaded.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(list);
+        assertEquals(2, list.totpCounterValue);
+        assertNull(mLoaded.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(2, mOtpSource.mComputeThreads.size());
+    }
+
+    public void testLoadNextHotpCode_computesOffTheUiThread() throws Exception {
+        BlockingQueue<String> codes = new LinkedBlockingQueue<>();
+        List<Thread> deliveryThreads = Collections.synchronizedList(new ArrayList<>());
+        mLoader.loadNextHotpCode("a@b.c", new PinListLoader.HotpCodeListener() {
+            @Override
+            public void onHotpCodeLoaded(String code) {
+                deliveryThreads.add(Thread.currentThread());
+                codes.add(code);
+            }
+
+            @Override
+            public void onHotpCodeFailed(OtpSourceException e) {
+                fail(e.getMessage());
+            }
+        });
+        assertEquals("123456", codes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        Thread mainThread = Looper.getMainLooper().getThread();
+        assertNotSame(mainThread, mOtpSource.mComputeThreads.get(0));
+        assertEquals(Collections.singletonList(mainThread), deliveryThreads);
+    }
+
+    /**
+     * Returns a TOTP code per load, numbered by the load, and records the threads it is called on.
+     */
+    private static class FakeOtpSource implements OtpSource {
+        final List<Thread> mComputeThreads = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch mFirstLoadStarted = new CountDownLatch(1);
+        volatile CountDownLatch mBlockFirstLoad;
+        private final AtomicInteger mLoads = new AtomicInteger();
+
+        @Override
+        public OtpCodeSnapshot getCurrentCodes() {
+            mComputeThreads.add(Thread.currentThread());
+            int load = mLoads.incrementAndGet();
+            if (load == 1) {
+                mFirstLoadStarted.countDown();
+                if (mBlockFirstLoad != null) {
+                    try {
+                        mBlockFirstLoad.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            return new OtpCodeSnapshot(load, Collections.singletonList(new OtpCodeSnapshot.Entry(
+                    1, "a@b.c", OtpType.TOTP, null, String.format("%06d", load))));
+        }
+
+        @Override
+        public String getNextCode(String accountName) {
+            mComputeThreads.add(Thread.currentThread());
+            return "123456";
+        }
+
+        @Override
+        public int enumerateAccounts(Collection<String> result) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String respondToChallenge(String accountName, String challenge) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public TotpCounter getTotpCounter() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public TotpClock getTotpClock() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
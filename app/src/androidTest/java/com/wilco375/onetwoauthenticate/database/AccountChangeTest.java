@@ -0,0 +1,65 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link AccountChange}.
+ */
+public class AccountChangeTest extends TestCase {
+    private static final String SECRET = "7777777777777777";
+    private static final String SECRET2 = "2222222222222222";
+
+    public void testBetween_sameAccounts() {
+        AccountSnapshot snapshot = snapshot(account(1, "a@b.c", SECRET), account(2, "b@b.c", SECRET));
+        AccountChange change = AccountChange.between(snapshot,
+                snapshot(account(1, "a@b.c", SECRET), account(2, "b@b.c", SECRET)));
+        assertTrue(change.isEmpty());
+    }
+
+    public void testBetween_insertedUpdatedDeleted() {
+        AccountChange change = AccountChange.between(
+                snapshot(account(1, "a@b.c", SECRET), account(2, "b@b.c", SECRET),
+                        account(3, "c@b.c", SECRET)),
+                snapshot(account(1, "a@b.c", SECRET), account(3, "d@b.c", SECRET2),
+                        account(4, "e@b.c", SECRET)));
+        assertEquals(Arrays.asList(4L), Arrays.asList(change.insertedIds.toArray()));
+        assertEquals(Arrays.asList(3L), Arrays.asList(change.updatedIds.toArray()));
+        assertEquals(Arrays.asList(2L), Arrays.asList(change.deletedIds.toArray()));
+        assertFalse(change.reordered);
+        assertFalse(change.isEmpty());
+    }
+
+    public void testBetween_reordered() {
+        Account a = account(1, "a@b.c", SECRET);
+        Account b = account(2, "b@b.c", SECRET);
+        AccountChange change = AccountChange.between(snapshot(a, b), snapshot(b, a));
+        assertTrue(change.reordered);
+        assertTrue(change.updatedIds.isEmpty());
+
+        // Positions shifted by an insert are not a reorder
+        change = AccountChange.between(snapshot(a, b),
+                snapshot(account(3, "c@b.c", SECRET), a, b));
+        assertFalse(change.reordered);
+    }
+
+    public void testBetween_counterIsUpdate() {
+        Account hotp = new Account(1, "a@b.c", SECRET, OtpType.HOTP, 0, 0, null, null);
+        Account advanced = new Account(1, "a@b.c", SECRET, OtpType.HOTP, 1, 0, null, null);
+        AccountChange change = AccountChange.between(snapshot(hotp), snapshot(advanced));
+        assertEquals(Arrays.asList(1L), Arrays.asList(change.updatedIds.toArray()));
+        assertSame(hotp, change.before.getById(1));
+        assertSame(advanced, change.after.getById(1));
+    }
+
+    private static Account account(long id, String email, String secret) {
+        return new Account(id, email, secret, OtpType.TOTP, 0, 0, null, null);
+    }
+
+    private static AccountSnapshot snapshot(Account... accounts) {
+        return new AccountSnapshot(Arrays.asList(accounts));
+    }
+}
@@ -18,6 +18,8 @@
 package com.wilco375.onetwoauthenticate.database;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 import android.test.MoreAsserts;
@@ -27,8 +29,18 @@ import com.wilco375.onetwoauthenticate.util.Base32String;
 import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.Signer;
 import com.wilco375.onetwoauthenticate.testability.DependencyInjector;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Unit tests for {@link AccountDb}.
@@ -89,6 +101,179 @@ public class AccountDbTest extends AndroidTestCase {
         assertFalse(accountDb.nameExists("marywinehouse@aol.com")); // non-existent email.
     }
 
+    public void testGetAccounts() {
+        assertEquals(0, accountDb.getAccounts(new ArrayList<>()));
+
+        addSomeRecords();
+        accountDb.update("maryweiss@yahoo.com", SECRET, "maryweiss@yahoo.com", OtpType.HOTP, 7,
+                null, 0xff0000);
+        List<Account> accounts = new ArrayList<>();
+        assertEquals(3, accountDb.getAccounts(accounts));
+        assertEquals(3, accounts.size());
+        for (Account account : accounts) {
+            assertEquals(accountDb.getSecret(account.email), account.secret);
+            assertEquals(accountDb.getType(account.email), account.type);
+            assertEquals(accountDb.getCounter(account.email), account.counter);
+            assertEquals(accountDb.getColor(account.email), account.color);
+        }
+    }
+
+    public void testForEachAccount() {
+        addSomeRecords();
+        accountDb.reorder(new String[]{
+                "maryweiss@yahoo.com", "johndoe@gmail.com", "amywinehouse@aol.com"});
+        final List<Account> accounts = new ArrayList<>();
+        accountDb.forEachAccount(accounts::add);
+        assertEquals(3, accounts.size());
+        for (int i = 0; i < accounts.size(); i++) {
+            assertEquals(i, (int) accounts.get(i).sort);
+        }
+        assertEquals("maryweiss@yahoo.com", accounts.get(0).email);
+        assertEquals(OtpType.HOTP, accounts.get(0).type);
+        assertFalse(accounts.get(0).id == accounts.get(1).id);
+        assertTrue(accounts.get(1).googleAccount);
+        assertFalse(accounts.get(2).googleAccount);
+    }
+
+    public void testReorder() {
+        addSomeRecords();
+        String[] order = {"maryweiss@yahoo.com", "johndoe@gmail.com", "amywinehouse@aol.com"};
+        accountDb.reorder(order);
+        List<String> names = new ArrayList<>();
+        accountDb.getNames(names);
+        MoreAsserts.assertEquals(order, names.toArray());
+
+        // An unchanged order doesn't replace the snapshot
+        AccountSnapshot snapshot = accountDb.getSnapshot();
+        accountDb.reorder(order);
+        assertSame(snapshot, accountDb.getSnapshot());
+    }
+
+    public void testReorderAsync() throws Exception {
+        addSomeRecords();
+        String[][] orders = {
+                {"maryweiss@yahoo.com", "johndoe@gmail.com", "amywinehouse@aol.com"},
+                {"johndoe@gmail.com", "maryweiss@yahoo.com", "amywinehouse@aol.com"},
+                {"amywinehouse@aol.com", "johndoe@gmail.com", "maryweiss@yahoo.com"}};
+        final CountDownLatch reordered = new CountDownLatch(orders.length);
+        for (String[] order : orders) {
+            accountDb.reorderAsync(order, reordered::countDown);
+        }
+        assertTrue(reordered.await(5, TimeUnit.SECONDS));
+
+        List<String> names = new ArrayList<>();
+        accountDb.getNames(names);
+        MoreAsserts.assertEquals(orders[orders.length - 1], names.toArray());
+    }
+
+    public void testAsyncWrites() throws Exception {
+        accountDb.updateAsync("maryweiss@yahoo.com", SECRET, "maryweiss@yahoo.com", OtpType.HOTP,
+                0, null, null).get();
+        assertTrue(accountDb.nameExists("maryweiss@yahoo.com"));
+        accountDb.incrementCounterAsync("maryweiss@yahoo.com").get();
+        assertEquals(2, (int) accountDb.advanceCounterAsync("maryweiss@yahoo.com").get().counter);
+        accountDb.setCounterAsync("maryweiss@yahoo.com", 7).get();
+        assertEquals(7, (int) accountDb.getCounter("maryweiss@yahoo.com"));
+        accountDb.deleteAsync("maryweiss@yahoo.com").get();
+        assertFalse(accountDb.nameExists("maryweiss@yahoo.com"));
+    }
+
+    public void testSyncWriteFromWriterThread() throws Exception {
+        addSomeRecords();
+        final CountDownLatch deleted = new CountDownLatch(1);
+        accountDb.reorderAsync(new String[]{"johndoe@gmail.com"}, () -> {
+            // Runs on the writer thread, so it must not wait for the writer
+            accountDb.delete("johndoe@gmail.com");
+            deleted.countDown();
+        });
+        assertTrue(deleted.await(5, TimeUnit.SECONDS));
+        assertFalse(accountDb.nameExists("johndoe@gmail.com"));
+    }
+
+    public void testWriteAheadLogging() {
+        assertEquals("wal", DatabaseUtils.stringForQuery(
+                accountDb.mDatabase, "PRAGMA journal_mode", null).toLowerCase());
+    }
+
+    public void testSnapshotIsWrittenThrough() throws Exception {
+        AccountSnapshot empty = accountDb.getSnapshot();
+        assertEquals(0, empty.size());
+
+        addSomeRecords();
+        AccountSnapshot snapshot = accountDb.getSnapshot();
+        assertEquals(0, empty.size());
+        assertEquals(3, snapshot.size());
+        assertSame(snapshot, accountDb.getSnapshot());
+
+        accountDb.reorder(new String[]{
+                "maryweiss@yahoo.com", "johndoe@gmail.com", "amywinehouse@aol.com"});
+        accountDb.advanceCounter("maryweiss@yahoo.com");
+        accountDb.delete("amywinehouse@aol.com");
+        snapshot = accountDb.getSnapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals("maryweiss@yahoo.com", snapshot.get(0).email);
+        assertEquals(1, snapshot.indexOf("johndoe@gmail.com"));
+        assertEquals(-1, snapshot.indexOf("amywinehouse@aol.com"));
+        assertEquals(1, (int) snapshot.get("maryweiss@yahoo.com").counter);
+        assertTrue(snapshot.get("johndoe@gmail.com").googleAccount);
+
+        // A new instance reads the same accounts from the database
+        AccountDb other = new AccountDb(DependencyInjector.getContext());
+        try {
+            AccountSnapshot stored = other.getSnapshot();
+            assertEquals(snapshot.size(), stored.size());
+            for (int i = 0; i < snapshot.size(); i++) {
+                assertEquals(snapshot.get(i).email, stored.get(i).email);
+                assertEquals(snapshot.get(i).secret, stored.get(i).secret);
+                assertEquals(snapshot.get(i).counter, stored.get(i).counter);
+            }
+        } finally {
+            other.close();
+        }
+    }
+
+    public void testWritesPatchSnapshot() throws Exception {
+        addSomeRecords();
+        accountDb.reorder(new String[]{
+                "maryweiss@yahoo.com", "johndoe@gmail.com", "amywinehouse@aol.com"});
+        long johnId = accountDb.getAccount("johndoe@gmail.com").id;
+
+        // A new account goes first, as it has never been reordered
+        accountDb.update("new@example.com", SECRET2, "new@example.com", OtpType.TOTP, null);
+        Account added = accountDb.getAccount("new@example.com");
+        accountDb.update(johnId, "john@example.com", SECRET, OtpType.TOTP, null, null, 0xff00ff00);
+        accountDb.setCounter("maryweiss@yahoo.com", 5);
+        accountDb.delete("amywinehouse@aol.com");
+
+        AccountSnapshot snapshot = accountDb.getSnapshot();
+        assertEquals(3, snapshot.size());
+        assertEquals("new@example.com", snapshot.get(0).email);
+        assertEquals(1, snapshot.indexOf("maryweiss@yahoo.com"));
+        assertEquals(2, snapshot.indexOfId(johnId));
+        assertEquals("john@example.com", snapshot.getById(johnId).email);
+        assertEquals(0xff00ff00, (int) snapshot.getById(johnId).color);
+        assertEquals(5, (int) snapshot.get("maryweiss@yahoo.com").counter);
+        // Rows that weren't written are kept rather than read again
+        assertSame(added, snapshot.get(0));
+
+        // A new instance reads the same accounts from the database
+        AccountDb other = new AccountDb(DependencyInjector.getContext());
+        try {
+            AccountSnapshot stored = other.getSnapshot();
+            assertEquals(snapshot.size(), stored.size());
+            for (int i = 0; i < snapshot.size(); i++) {
+                assertEquals(snapshot.get(i).id, stored.get(i).id);
+                assertEquals(snapshot.get(i).email, stored.get(i).email);
+                assertEquals(snapshot.get(i).secret, stored.get(i).secret);
+                assertEquals(snapshot.get(i).counter, stored.get(i).counter);
+                assertEquals(snapshot.get(i).color, stored.get(i).color);
+                assertEquals(snapshot.get(i).sort, stored.get(i).sort);
+            }
+        } finally {
+            other.close();
+        }
+    }
+
     public void testGetSecret() {
         addSomeRecords();
         assertEquals(SECRET, accountDb.getSecret("johndoe@gmail.com"));
@@ -105,6 +290,51 @@ public class AccountDbTest extends AndroidTestCase {
         assertEquals(0, (int) accountDb.getCounter("amywinehouse@aol.com"));  // TOTP record
     }
 
+    public void testAdvanceCounter() {
+        addSomeRecords();
+        Account account = accountDb.advanceCounter("maryweiss@yahoo.com");
+        assertEquals("maryweiss@yahoo.com", account.email);
+        assertEquals(SECRET, account.secret);
+        assertEquals(OtpType.HOTP, account.type);
+        assertEquals(1, (int) account.counter);
+        assertEquals(2, (int) accountDb.advanceCounter("maryweiss@yahoo.com").counter);
+        assertEquals(2, (int) accountDb.getCounter("maryweiss@yahoo.com"));
+        assertNull(accountDb.advanceCounter("marywinehouse@yahoo.com")); // non-existent record.
+    }
+
+    public void testAdvanceCounterConcurrently() throws Exception {
+        addSomeRecords();
+        final int threads = 4;
+        final int advancesPerThread = 25;
+        final Set<Integer> counters = Collections.synchronizedSet(new HashSet<Integer>());
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                for (int j = 0; j < advancesPerThread; j++) {
+                    counters.add(accountDb.advanceCounter("maryweiss@yahoo.com").counter);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        // Every caller got a different counter value
+        assertEquals(threads * advancesPerThread, counters.size());
+        assertEquals(threads * advancesPerThread,
+                (int) accountDb.getCounter("maryweiss@yahoo.com"));
+    }
+
+    public void testSetCounter() {
+        addSomeRecords();
+        accountDb.setCounter("maryweiss@yahoo.com", 1234);
+        assertEquals(1234, (int) accountDb.getCounter("maryweiss@yahoo.com"));
+        assertEquals(0, (int) accountDb.getCounter("johndoe@gmail.com"));
+        accountDb.setCounter("marywinehouse@yahoo.com", 1); // non-existent record.
+        assertEquals(null, accountDb.getCounter("marywinehouse@yahoo.com"));
+    }
+
     public void testGetAndSetType() {
         addSomeRecords();
         assertTrue(accountDb.getType("johndoe@gmail.com").equals(OtpType.TOTP));
@@ -164,6 +394,82 @@ public class AccountDbTest extends AndroidTestCase {
                 "johndoe@gmail.com", "amywinehouse@aol.com", "maryweiss@yahoo.com");
     }
 
+    public void testGetAccountById() {
+        addSomeRecords();
+        Account account = accountDb.getSnapshot().get("amywinehouse@aol.com");
+        assertSame(account, accountDb.getAccount(account.id));
+        assertEquals(1, accountDb.getSnapshot().indexOfId(account.id));
+        assertNull(accountDb.getAccount(-1));
+    }
+
+    public void testUpdateById_renameKeepsId() {
+        addSomeRecords();
+        long id = accountDb.getSnapshot().get("johndoe@gmail.com").id;
+        accountDb.update(id, "johndoenew@gmail.com", SECRET2, OtpType.HOTP, 5, null, 0xff0000);
+        assertFalse(accountDb.nameExists("johndoe@gmail.com"));
+        Account account = accountDb.getAccount(id);
+        assertEquals("johndoenew@gmail.com", account.email);
+        assertEquals(SECRET2, account.secret);
+        assertEquals(OtpType.HOTP, account.type);
+        assertEquals(5, (int) account.counter);
+        assertEquals(0xff0000, (int) account.color);
+        assertEquals(3, accountDb.getSnapshot().size());
+
+        // Never adds an account
+        accountDb.update(-1, "new@gmail.com", SECRET, OtpType.TOTP, null, null, null);
+        assertFalse(accountDb.nameExists("new@gmail.com"));
+    }
+
+    public void testAdvanceCounterById() {
+        addSomeRecords();
+        long id = accountDb.getSnapshot().get("maryweiss@yahoo.com").id;
+        assertEquals(1, (int) accountDb.advanceCounter(id).counter);
+        assertEquals(2, (int) accountDb.advanceCounter(id).counter);
+        assertEquals(2, (int) accountDb.getCounter("maryweiss@yahoo.com"));
+        assertNull(accountDb.advanceCounter(-1));
+    }
+
+    public void testDeleteById() {
+        addSomeRecords();
+        long id = accountDb.getSnapshot().get("johndoe@gmail.com").id;
+        accountDb.delete(id);
+        assertNull(accountDb.getAccount(id));
+        assertFalse(accountDb.nameExists("johndoe@gmail.com"));
+        assertEquals(2, accountDb.getNames(result));
+    }
+
+    public void testChangeListener() {
+        addSomeRecords();
+        long id = accountDb.getSnapshot().get("maryweiss@yahoo.com").id;
+        List<AccountChange> changes = Collections.synchronizedList(new ArrayList<>());
+        AccountStore.AccountChangeListener listener = changes::add;
+        accountDb.addChangeListener(listener);
+
+        accountDb.advanceCounter(id);
+        assertEquals(1, changes.size());
+        assertEquals(Collections.singleton(id), changes.get(0).updatedIds);
+        assertEquals(1, (int) changes.get(0).after.getById(id).counter);
+
+        accountDb.update(id, "mary@yahoo.com", SECRET, OtpType.HOTP, 1, null, null);
+        assertEquals(Collections.singleton(id), changes.get(1).updatedIds);
+        assertTrue(changes.get(1).insertedIds.isEmpty());
+
+        accountDb.reorder(new String[]{"mary@yahoo.com", "johndoe@gmail.com",
+                "amywinehouse@aol.com"});
+        assertTrue(changes.get(2).reordered);
+
+        accountDb.update("janedoe@gmail.com", SECRET2, null, OtpType.TOTP, null);
+        long insertedId = accountDb.getSnapshot().get("janedoe@gmail.com").id;
+        assertEquals(Collections.singleton(insertedId), changes.get(3).insertedIds);
+
+        accountDb.delete(id);
+        assertEquals(Collections.singleton(id), changes.get(4).deletedIds);
+
+        accountDb.removeChangeListener(listener);
+        accountDb.delete(insertedId);
+        assertEquals(5, changes.size());
+    }
+
     public void testIsGoogleAccount() {
         accountDb.update("1@b.c", SECRET, "1@b.c", OtpType.TOTP, null, true);
         accountDb.update("2@gmail.com", SECRET, "2@gmail.com", OtpType.TOTP, null);
@@ -214,7 +520,187 @@ public class AccountDbTest extends AndroidTestCase {
         accountDb = DependencyInjector.getAccountDb();
         MoreAsserts.assertContentsInAnyOrder(
                 AccountDb.listTableColumnNamesLowerCase(accountDb.mDatabase, AccountDb.TABLE_NAME),
-                "first", AccountDb.PROVIDER_COLUMN, AccountDb.COLOR_COLUMN, AccountDb.ORDER_COLUMN);
+                "first", AccountDb.PROVIDER_COLUMN, AccountDb.COLOR_COLUMN, AccountDb.ORDER_COLUMN,
+                AccountDb.SEALED_SECRET_COLUMN);
+    }
+
+    public void testConstruct_createsIndexesAndSetsVersion() {
+        assertEquals(AccountDb.SCHEMA_VERSION, getUserVersion(accountDb.mDatabase));
+        MoreAsserts.assertContentsInAnyOrder(listIndexNames(accountDb.mDatabase),
+                AccountDb.EMAIL_INDEX_NAME, AccountDb.ORDER_INDEX_NAME);
+        assertTrue(isUniqueIndex(accountDb.mDatabase, AccountDb.EMAIL_INDEX_NAME));
+    }
+
+    public void testConstruct_whenDatabaseWithDuplicateEmails() throws Exception {
+        deleteAccountDb();
+        SQLiteDatabase database =
+                DependencyInjector.getContext().openOrCreateDatabase(
+                        AccountDb.PATH, Context.MODE_PRIVATE, null);
+        database.execSQL("CREATE TABLE " + AccountDb.TABLE_NAME
+                + " (_id INTEGER PRIMARY KEY, email TEXT NOT NULL, secret TEXT NOT NULL,"
+                + " counter INTEGER DEFAULT 0, type INTEGER)");
+        database.execSQL("INSERT INTO " + AccountDb.TABLE_NAME
+                + " (email, secret, type) VALUES ('a@b.c', '" + SECRET + "', 0)");
+        database.execSQL("INSERT INTO " + AccountDb.TABLE_NAME
+                + " (email, secret, type) VALUES ('a@b.c', '" + SECRET2 + "', 0)");
+        database.close();
+
+        // Not through DependencyInjector, which deletes all accounts when testing
+        accountDb = new AccountDb(DependencyInjector.getContext());
+        DependencyInjector.setAccountDb(accountDb);
+        assertEquals(AccountDb.SCHEMA_VERSION, getUserVersion(accountDb.mDatabase));
+        MoreAsserts.assertContentsInAnyOrder(listIndexNames(accountDb.mDatabase),
+                AccountDb.EMAIL_INDEX_NAME, AccountDb.ORDER_INDEX_NAME);
+        assertFalse(isUniqueIndex(accountDb.mDatabase, AccountDb.EMAIL_INDEX_NAME));
+        assertEquals(SECRET, accountDb.getSecret("a@b.c"));
+        // The migration sealed the secrets of the existing accounts
+        assertSecretsSealed(2);
+        List<String> secrets = new ArrayList<>();
+        for (int i = 0; i < accountDb.getSnapshot().size(); i++) {
+            secrets.add(accountDb.getSnapshot().get(i).secret);
+            MoreAsserts.assertEquals(Base32String.decode(secrets.get(i)),
+                    accountDb.getSnapshot().get(i).key);
+        }
+        MoreAsserts.assertContentsInAnyOrder(secrets, SECRET, SECRET2);
+    }
+
+    public void testConstruct_erasesPlainSecretsFromFiles() throws Exception {
+        deleteAccountDb();
+        SQLiteDatabase database =
+                DependencyInjector.getContext().openOrCreateDatabase(
+                        AccountDb.PATH, Context.MODE_PRIVATE, null);
+        database.enableWriteAheadLogging();
+        database.execSQL("CREATE TABLE " + AccountDb.TABLE_NAME
+                + " (_id INTEGER PRIMARY KEY, email TEXT NOT NULL, secret TEXT NOT NULL,"
+                + " counter INTEGER DEFAULT 0, type INTEGER)");
+        // Enough rows to fill several pages
+        for (int i = 0; i < 200; i++) {
+            database.execSQL("INSERT INTO " + AccountDb.TABLE_NAME
+                    + " (email, secret, type) VALUES ('" + i + "@b.c', '" + SECRET + "', 0)");
+        }
+        database.close();
+
+        accountDb = new AccountDb(DependencyInjector.getContext());
+        DependencyInjector.setAccountDb(accountDb);
+        assertSecretsSealed(200);
+        File path = DependencyInjector.getContext().getDatabasePath(AccountDb.PATH);
+        assertNotInFile(path, SECRET);
+        assertNotInFile(new File(path.getPath() + "-wal"), SECRET);
+        assertNotInFile(new File(path.getPath() + "-journal"), SECRET);
+    }
+
+    public void testUpdate_sealsSecret() throws Exception {
+        accountDb.update("a@b.c", SECRET, null, OtpType.TOTP, null);
+        assertSecretsSealed(1);
+        MoreAsserts.assertEquals(Base32String.decode(SECRET),
+                accountDb.getSnapshot().get("a@b.c").key);
+
+        accountDb.update("a@b.c", SECRET2, "a@b.c", OtpType.TOTP, null);
+        assertSecretsSealed(1);
+        assertEquals(SECRET2, accountDb.getSecret("a@b.c"));
+
+        // Invalid secrets have no key
+        accountDb.update("b@b.c", "1", null, OtpType.TOTP, null);
+        assertSecretsSealed(2);
+        assertNull(accountDb.getSnapshot().get("b@b.c").key);
+        assertNull(accountDb.getCachedSigningOracle(accountDb.getSnapshot().get("b@b.c")));
+
+        // A new instance opens the secrets with the same data key
+        DependencyInjector.setAccountDb(null);
+        accountDb = new AccountDb(DependencyInjector.getContext());
+        DependencyInjector.setAccountDb(accountDb);
+        assertEquals(SECRET2, accountDb.getSecret("a@b.c"));
+        assertEquals("1", accountDb.getSecret("b@b.c"));
+    }
+
+    public void testRead_rowWrittenInPlainText() {
+        // Rows written by an older version after a downgrade only have the plain secret
+        accountDb.mDatabase.execSQL("INSERT INTO " + AccountDb.TABLE_NAME
+                + " (email, secret, type) VALUES ('a@b.c', '" + SECRET + "', 0)");
+        accountDb.update("b@b.c", SECRET2, null, OtpType.TOTP, null);
+        assertEquals(SECRET, accountDb.getSecret("a@b.c"));
+        assertEquals(SECRET2, accountDb.getSecret("b@b.c"));
+    }
+
+    /**
+     * Asserts that the file, if it exists, doesn't contain the text.
+     */
+    private static void assertNotInFile(File file, String text) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        byte[] contents = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(contents);
+        } finally {
+            in.close();
+        }
+        byte[] bytes = text.getBytes("US-ASCII");
+        for (int i = 0; i + bytes.length <= contents.length; i++) {
+            int j = 0;
+            while (j < bytes.length && contents[i + j] == bytes[j]) {
+                j++;
+            }
+            assertTrue(file + " contains " + text + " at " + i, j < bytes.length);
+        }
+    }
+
+    /**
+     * Asserts that the accounts table has the number of rows and none of them stores its secret
+     * in plain text.
+     */
+    private void assertSecretsSealed(int rows) {
+        Cursor cursor = accountDb.mDatabase.query(AccountDb.TABLE_NAME,
+                new String[]{AccountDb.SECRET_COLUMN, AccountDb.SEALED_SECRET_COLUMN},
+                null, null, null, null, null);
+        try {
+            assertEquals(rows, cursor.getCount());
+            while (cursor.moveToNext()) {
+                assertEquals("", cursor.getString(0));
+                assertFalse(cursor.isNull(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int getUserVersion(SQLiteDatabase database) {
+        return (int) DatabaseUtils.longForQuery(database, "PRAGMA user_version", null);
+    }
+
+    private static List<String> listIndexNames(SQLiteDatabase database) {
+        List<String> result = new ArrayList<>();
+        Cursor cursor = database.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = ?"
+                        + " AND name NOT LIKE 'sqlite_autoindex%'",
+                new String[]{AccountDb.TABLE_NAME});
+        try {
+            while (cursor.moveToNext()) {
+                result.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return result;
+    }
+
+    private static boolean isUniqueIndex(SQLiteDatabase database, String indexName) {
+        Cursor cursor = database.rawQuery(
+                "PRAGMA index_list(" + AccountDb.TABLE_NAME + ")", new String[0]);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            int uniqueIndex = cursor.getColumnIndexOrThrow("unique");
+            while (cursor.moveToNext()) {
+                if (indexName.equals(cursor.getString(nameIndex))) {
+                    return cursor.getInt(uniqueIndex) != 0;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        fail("No index " + indexName);
+        return false;
     }
 
     private void deleteAccountDb() {
@@ -231,4 +717,31 @@ public class AccountDbTest extends AndroidTestCase {
         Signer signer = AccountDb.getSigningOracle(SECRET);
         assertEquals(SIGNATURE, Base32String.encode(signer.sign(MESSAGE.getBytes())));
     }
+
+    public void testCachedSigningOracle() throws Exception {
+        addSomeRecords();
+        Signer signer = accountDb.getCachedSigningOracle(SECRET);
+        assertEquals(SIGNATURE, Base32String.encode(signer.sign(MESSAGE.getBytes())));
+        assertSame(signer, accountDb.getCachedSigningOracle(SECRET));
+        assertSame(signer,
+                accountDb.getCachedSigningOracle(accountDb.getSnapshot().get("johndoe@gmail.com")));
+        assertNull(accountDb.getCachedSigningOracle("1"));
+    }
+
+    public void testCachedSigningOracleInvalidatedOnUpdateAndDelete() {
+        addSomeRecords();
+        Signer signer = accountDb.getCachedSigningOracle(SECRET2);
+        // Updating without changing the secret keeps the signer
+        accountDb.update("amywinehouse@aol.com", SECRET2, "amywinehouse@aol.com", OtpType.TOTP,
+                null, null, 0xff0000);
+        assertSame(signer, accountDb.getCachedSigningOracle(SECRET2));
+
+        accountDb.update("amywinehouse@aol.com", SECRET, "amywinehouse@aol.com", OtpType.TOTP, null);
+        Signer newSigner = accountDb.getCachedSigningOracle(SECRET2);
+        assertNotSame(signer, newSigner);
+
+        signer = accountDb.getCachedSigningOracle(SECRET);
+        accountDb.delete("johndoe@gmail.com");
+        assertNotSame(signer, accountDb.getCachedSigningOracle(SECRET));
+    }
 }
@@ -0,0 +1,129 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import android.test.AndroidTestCase;
+
+import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.testability.DependencyInjector;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link SecretCipher}.
+ */
+public class SecretCipherTest extends AndroidTestCase {
+    private static final String SECRET = "7777777777777777";
+
+    private final SecretCipher mCipher = new SecretCipher(new byte[32]);
+
+    @Override
+    protected void tearDown() throws Exception {
+        DependencyInjector.close();
+        SecretCipher.clearUnwrappedKey();
+        super.tearDown();
+    }
+
+    public void testSealAndOpen() throws Exception {
+        byte[] sealed = mCipher.seal(SECRET);
+        assertFalse(new String(sealed, "UTF-8").contains(SECRET));
+        assertEquals(SECRET, mCipher.open(sealed));
+        assertEquals("", mCipher.open(mCipher.seal("")));
+    }
+
+    public void testSeal_usesRandomIv() {
+        assertFalse(Arrays.equals(mCipher.seal(SECRET), mCipher.seal(SECRET)));
+    }
+
+    public void testOpen_modified() {
+        byte[] sealed = mCipher.seal(SECRET);
+        sealed[sealed.length - 1] ^= 1;
+        try {
+            mCipher.open(sealed);
+            fail();
+        } catch (GeneralSecurityException expected) {
+        }
+
+        try {
+            mCipher.open(new byte[4]);
+            fail();
+        } catch (GeneralSecurityException expected) {
+        }
+    }
+
+    public void testOpen_otherKey() {
+        byte[] key = new byte[32];
+        key[0] = 1;
+        try {
+            new SecretCipher(key).open(mCipher.seal(SECRET));
+            fail();
+        } catch (GeneralSecurityException expected) {
+        }
+    }
+
+    public void testUnwrap_onlyOnce() throws Exception {
+        byte[] wrapped = SecretCipher.wrapNewKey(SecretCipher.WRAPPING_NONE);
+        SecretCipher cipher = SecretCipher.unwrap(wrapped, SecretCipher.WRAPPING_NONE);
+        assertSame(cipher, SecretCipher.unwrap(wrapped.clone(), SecretCipher.WRAPPING_NONE));
+        assertEquals(SECRET, SecretCipher.unwrap(wrapped, SecretCipher.WRAPPING_NONE)
+                .open(cipher.seal(SECRET)));
+
+        // Another key replaces the unwrapped one
+        byte[] other = SecretCipher.wrapNewKey(SecretCipher.WRAPPING_NONE);
+        assertNotSame(cipher, SecretCipher.unwrap(other, SecretCipher.WRAPPING_NONE));
+
+        SecretCipher.clearUnwrappedKey();
+        assertNotSame(cipher, SecretCipher.unwrap(wrapped, SecretCipher.WRAPPING_NONE));
+    }
+
+    public void testUnwrap_wrappingKeyDeleted() throws Exception {
+        if (SecretCipher.defaultWrapping() != SecretCipher.WRAPPING_KEY_STORE) {
+            return;
+        }
+        byte[] wrapped = SecretCipher.wrapNewKey(SecretCipher.WRAPPING_KEY_STORE);
+        SecretCipher.deleteWrappingKey();
+        try {
+            SecretCipher.unwrap(wrapped, SecretCipher.WRAPPING_KEY_STORE);
+            fail();
+        } catch (GeneralSecurityException expected) {
+        } finally {
+            // The data key of the test database is wrapped with the deleted key too
+            deleteTestDatabase();
+        }
+    }
+
+    public void testAccountDb_wrappingKeyDeleted() throws Exception {
+        if (SecretCipher.defaultWrapping() != SecretCipher.WRAPPING_KEY_STORE) {
+            return;
+        }
+        DependencyInjector.resetForIntegrationTesting(getContext());
+        DependencyInjector.getAccountDb().update("a@b.c", SECRET, null, OtpType.TOTP, null);
+        DependencyInjector.setAccountDb(null);
+        SecretCipher.clearUnwrappedKey();
+        SecretCipher.deleteWrappingKey();
+
+        try {
+            // Opening fails with a checked exception instead of crashing on the first read
+            try {
+                new AccountDb(DependencyInjector.getContext());
+                fail();
+            } catch (AccountDb.DataKeyException expected) {
+            }
+            assertNotNull(DependencyInjector.getAccountStoreError());
+            // Retried on every call, still failing
+            assertNotNull(DependencyInjector.getAccountStoreError());
+        } finally {
+            deleteTestDatabase();
+        }
+
+        // A new database gets a new data key
+        DependencyInjector.resetForIntegrationTesting(getContext());
+        assertNull(DependencyInjector.getAccountStoreError());
+        assertFalse(DependencyInjector.getAccountDb().nameExists("a@b.c"));
+    }
+
+    private void deleteTestDatabase() {
+        DependencyInjector.resetForIntegrationTesting(getContext());
+        DependencyInjector.getContext().deleteDatabase(AccountDb.PATH);
+        DependencyInjector.close();
+    }
+}
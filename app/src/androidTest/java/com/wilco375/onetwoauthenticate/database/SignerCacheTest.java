@@ -0,0 +1,57 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.Signer;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SignerCache}.
+ */
+public class SignerCacheTest extends TestCase {
+    private static final Signer SIGNER1 = data -> new byte[] {1};
+    private static final Signer SIGNER2 = data -> new byte[] {2};
+    private static final Signer SIGNER3 = data -> new byte[] {3};
+
+    public void testGetAndPut() {
+        SignerCache cache = new SignerCache(2);
+        assertNull(cache.get("a"));
+        cache.put("a", SIGNER1);
+        assertSame(SIGNER1, cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        SignerCache cache = new SignerCache(2);
+        cache.put("a", SIGNER1);
+        cache.put("b", SIGNER2);
+        // Touch "a" so that "b" becomes the eldest entry
+        assertSame(SIGNER1, cache.get("a"));
+        cache.put("c", SIGNER3);
+
+        assertEquals(2, cache.size());
+        assertSame(SIGNER1, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertSame(SIGNER3, cache.get("c"));
+    }
+
+    public void testInvalidate() {
+        SignerCache cache = new SignerCache(2);
+        cache.put("a", SIGNER1);
+        cache.put("b", SIGNER2);
+        cache.invalidate("a");
+        cache.invalidate(null);
+        assertNull(cache.get("a"));
+        assertSame(SIGNER2, cache.get("b"));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    public void testConstructorRejectsNonPositiveSize() {
+        try {
+            new SignerCache(0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Unit tests for {@link HmacSha1BatchEngine}.
+ */
+public class HmacSha1BatchEngineTest extends TestCase {
+    public void testMatchesSigners() throws Exception {
+        Random random = new Random(0);
+        // Starts without capacity to exercise growing
+        HmacSha1BatchEngine engine = new HmacSha1BatchEngine(0);
+        HmacSha1Signer[] signers = new HmacSha1Signer[50];
+        for (int i = 0; i < signers.length; i++) {
+            byte[] key = new byte[1 + random.nextInt(100)];
+            random.nextBytes(key);
+            signers[i] = new HmacSha1Signer(key);
+            assertEquals(i, engine.add(key));
+        }
+        assertEquals(signers.length, engine.size());
+
+        int[] hashes = new int[signers.length];
+        int[] codes = new int[signers.length];
+        for (long counter : new long[]{0, 1, 49524325, Long.MAX_VALUE}) {
+            engine.truncatedHashes(counter, hashes);
+            engine.generateResponseCodes(counter, 6, codes);
+            for (int i = 0; i < signers.length; i++) {
+                assertEquals(signers[i].truncatedHash(counter), hashes[i]);
+                assertEquals(new PasscodeGenerator(signers[i]).generateResponseCodeInt(counter),
+                        codes[i]);
+            }
+        }
+    }
+
+    public void testClear() {
+        HmacSha1BatchEngine engine = new HmacSha1BatchEngine(1);
+        engine.add(new byte[]{1});
+        engine.clear();
+        assertEquals(0, engine.size());
+        assertEquals(0, engine.add(new byte[]{2}));
+    }
+
+    public void testSetAndGenerateRange() throws Exception {
+        byte[] key = {1, 2, 3};
+        HmacSha1BatchEngine engine = new HmacSha1BatchEngine(3);
+        engine.add(new byte[]{1});
+        engine.add(new byte[]{2});
+        engine.add(new byte[]{3});
+        engine.set(1, key);
+
+        int[] codes = {-1, -1, -1};
+        engine.generateResponseCodes(42, 6, codes, 1, 2);
+        assertEquals(-1, codes[0]);
+        assertEquals(new PasscodeGenerator(new HmacSha1Signer(key)).generateResponseCodeInt(42),
+                codes[1]);
+        assertEquals(-1, codes[2]);
+
+        try {
+            engine.set(3, key);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        try {
+            engine.generateResponseCodes(42, 6, codes, 2, 4);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    public void testRejectsShortResult() {
+        HmacSha1BatchEngine engine = new HmacSha1BatchEngine(2);
+        engine.add(new byte[]{1});
+        engine.add(new byte[]{2});
+        try {
+            engine.truncatedHashes(0, new int[1]);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testRejectsEmptyKey() {
+        try {
+            new HmacSha1BatchEngine(1).add(new byte[0]);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
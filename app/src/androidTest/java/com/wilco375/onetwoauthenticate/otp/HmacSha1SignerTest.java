@@ -0,0 +1,97 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import com.wilco375.onetwoauthenticate.util.Base32String;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Unit tests for {@link HmacSha1Signer}.
+ */
+public class HmacSha1SignerTest extends TestCase {
+    private static final byte[] RFC_KEY = {
+            '1', '2', '3', '4', '5', '6', '7', '8', '9', '0',
+            '1', '2', '3', '4', '5', '6', '7', '8', '9', '0'};
+
+    public void testMatchesJceMac() throws Exception {
+        Random random = new Random(0);
+        // Key lengths around the SHA-1 block size and message lengths around the padding limits
+        int[] keyLengths = {1, 10, 20, 63, 64, 65, 200};
+        int[] dataLengths = {0, 1, 8, 55, 56, 63, 64, 65, 130};
+        for (int keyLength : keyLengths) {
+            byte[] key = new byte[keyLength];
+            random.nextBytes(key);
+            Mac mac = Mac.getInstance("HMACSHA1");
+            mac.init(new SecretKeySpec(key, ""));
+            HmacSha1Signer signer = new HmacSha1Signer(key);
+
+            for (int dataLength : dataLengths) {
+                byte[] data = new byte[dataLength];
+                random.nextBytes(data);
+                assertTrue(Arrays.equals(mac.doFinal(data), signer.sign(data)));
+            }
+        }
+    }
+
+    public void testRfc4226TestVectors() throws Exception {
+        PasscodeGenerator passcodeGenerator = new PasscodeGenerator(new HmacSha1Signer(RFC_KEY));
+        String[] expected = {"755224", "287082", "359152", "969429", "338314",
+                "254676", "287922", "162583", "399871", "520489"};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], passcodeGenerator.generateResponseCode(i));
+        }
+    }
+
+    public void testRfc6238TestVectors() throws Exception {
+        PasscodeGenerator passcodeGenerator = new PasscodeGenerator(new HmacSha1Signer(RFC_KEY), 8);
+        assertEquals("94287082", passcodeGenerator.generateResponseCode(59L / 30));
+        assertEquals("07081804", passcodeGenerator.generateResponseCode(1111111109L / 30));
+        assertEquals("14050471", passcodeGenerator.generateResponseCode(1111111111L / 30));
+        assertEquals("89005924", passcodeGenerator.generateResponseCode(1234567890L / 30));
+        assertEquals("69279037", passcodeGenerator.generateResponseCode(2000000000L / 30));
+        assertEquals("65353130", passcodeGenerator.generateResponseCode(20000000000L / 30));
+    }
+
+    public void testPasscodeGeneratorRegression() throws Exception {
+        PasscodeGenerator passcodeGenerator = new PasscodeGenerator(
+                new HmacSha1Signer(Base32String.decode("7777777777777777")));
+        assertEquals("724477", passcodeGenerator.generateResponseCode(0L));
+        assertEquals("815107", passcodeGenerator.generateResponseCode(123456789123456789L));
+        assertEquals("498157", passcodeGenerator.generateResponseCode(
+                123456789123456789L, "challenge".getBytes("UTF-8")));
+        assertTrue(passcodeGenerator.verifyTimeoutCode("628381", 1234, 1, 2));
+        assertFalse(passcodeGenerator.verifyTimeoutCode("706552", 1234, 1, 2));
+    }
+
+    public void testTruncatedHashes() throws Exception {
+        HmacSha1Signer signer = new HmacSha1Signer(RFC_KEY);
+        // Truncated hashes from RFC 4226 Appendix D
+        int[] expected = {0x4c93cf18, 0x41397eea, 0x082fef30, 0x66ef7655, 0x61c5938a};
+        int[] result = new int[expected.length];
+        signer.truncatedHashes(0, result);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], result[i]);
+            assertEquals(expected[i], signer.truncatedHash(i));
+        }
+
+        PasscodeGenerator passcodeGenerator = new PasscodeGenerator(signer);
+        int[] codes = new int[3];
+        passcodeGenerator.generateResponseCodesInt(7, codes);
+        assertEquals(162583, codes[0]);
+        assertEquals(399871, codes[1]);
+        assertEquals(520489, codes[2]);
+    }
+
+    public void testRejectsEmptyKey() {
+        try {
+            new HmacSha1Signer(new byte[0]);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
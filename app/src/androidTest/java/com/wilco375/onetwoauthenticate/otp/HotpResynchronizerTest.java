@@ -0,0 +1,110 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Unit tests for {@link HotpResynchronizer}.
+ */
+public class HotpResynchronizerTest extends TestCase {
+    private static final byte[] KEY = {
+            '1', '2', '3', '4', '5', '6', '7', '8', '9', '0',
+            '1', '2', '3', '4', '5', '6', '7', '8', '9', '0'};
+
+    private HotpResynchronizer mResynchronizer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResynchronizer = new HotpResynchronizer(KEY, 6);
+    }
+
+    public void testResync() {
+        // Codes from RFC 4226 Appendix D for counters 7 and 8
+        assertEquals(8, mResynchronizer.resync(0, 7, "162583", "399871"));
+        assertEquals(8, mResynchronizer.resync(6, 1, "162583", "399871"));
+        // Counter 7 is outside the window
+        assertEquals(HotpResynchronizer.NOT_FOUND,
+                mResynchronizer.resync(0, 6, "162583", "399871"));
+        assertEquals(HotpResynchronizer.NOT_FOUND,
+                mResynchronizer.resync(7, 100, "162583", "399871"));
+        // Not consecutive
+        assertEquals(HotpResynchronizer.NOT_FOUND,
+                mResynchronizer.resync(0, 100, "162583", "520489"));
+    }
+
+    public void testResyncWithMalformedCodes() {
+        assertEquals(HotpResynchronizer.NOT_FOUND, mResynchronizer.resync(0, 100, null, "399871"));
+        assertEquals(HotpResynchronizer.NOT_FOUND, mResynchronizer.resync(0, 100, "162583", "3998"));
+    }
+
+    public void testResyncInParallel() throws Exception {
+        byte[] key = new byte[20];
+        new Random(0).nextBytes(key);
+        PasscodeGenerator generator = new PasscodeGenerator(new HmacSha1Signer(key));
+        HotpResynchronizer resynchronizer = new HotpResynchronizer(key, 6);
+        String first = generator.generateResponseCode(1700);
+        String second = generator.generateResponseCode(1701);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int parallelism = 1; parallelism <= 7; parallelism++) {
+                assertEquals(1701,
+                        resynchronizer.resync(1000, 1000, first, second, executor, parallelism));
+                assertEquals(HotpResynchronizer.NOT_FOUND,
+                        resynchronizer.resync(1000, 699, first, second, executor, parallelism));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1701, resynchronizer.resync(1000, 1000, first, second));
+    }
+
+    public void testResyncWithInvalidArguments() throws Exception {
+        try {
+            mResynchronizer.resync(0, -1, "162583", "399871");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int parallelism : new int[]{0, -1}) {
+                try {
+                    mResynchronizer.resync(0, 7, "162583", "399871", executor, parallelism);
+                    fail();
+                } catch (IllegalArgumentException expected) {
+                }
+            }
+            try {
+                mResynchronizer.resync(0, -1, "162583", "399871", executor, 1);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testResyncWhenInterrupted() {
+        Thread.currentThread().interrupt();
+        try {
+            assertEquals(HotpResynchronizer.NOT_FOUND,
+                    mResynchronizer.resync(0, 7, "162583", "399871"));
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    public void testResyncFindsOnlyIntCounters() throws Exception {
+        PasscodeGenerator generator = new PasscodeGenerator(new HmacSha1Signer(KEY));
+        long max = Integer.MAX_VALUE;
+        assertEquals(max, mResynchronizer.resync(max - 10, 100,
+                generator.generateResponseCode(max - 1), generator.generateResponseCode(max)));
+        assertEquals(HotpResynchronizer.NOT_FOUND, mResynchronizer.resync(max - 10, 100,
+                generator.generateResponseCode(max), generator.generateResponseCode(max + 1)));
+    }
+}
@@ -108,6 +108,25 @@ public class OtpProviderTest extends AndroidTestCase {
         assertEquals("817746", otpProvider.getNextCode("amywinehouse@aol.com"));
     }
 
+    public void testGetCurrentCodes() throws Exception {
+        assertEquals(0, otpProvider.getCurrentCodes().size());
+
+        addSomeRecords();
+        withTotpClockCurrentTimeSeconds(OtpProvider.DEFAULT_INTERVAL * 2);
+        OtpCodeSnapshot snapshot = otpProvider.getCurrentCodes();
+        assertEquals(2, snapshot.getTotpCounterValue());
+        assertEquals(3, snapshot.size());
+        for (OtpCodeSnapshot.Entry entry : snapshot.getEntries()) {
+            if (entry.type == OtpType.HOTP) {
+                assertNull(entry.code);
+            } else {
+                assertEquals(otpProvider.getNextCode(entry.accountName), entry.code);
+            }
+        }
+        // Taking a snapshot doesn't advance HOTP counters
+        assertEquals(0, (int) accountDb.getCounter("maryweiss@yahoo.com"));
+    }
+
     public void testGetNextCodeWithEmptyAccountName() throws Exception {
         accountDb.update("", SECRET, "", OtpType.HOTP, null);
         // HOTP, counter at 0, check getNextcode response.
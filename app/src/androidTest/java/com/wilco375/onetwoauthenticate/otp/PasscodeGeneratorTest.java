@@ -127,6 +127,38 @@ public class PasscodeGeneratorTest extends TestCase {
         assertFalse(passcodeGenerator1.verifyTimeoutCode("083501", 1234, 0, 0)); // fail for minus one
     }
 
+    public void testGenerateResponseCodeInt() throws Exception {
+        assertEquals(724477, passcodeGenerator1.generateResponseCodeInt(0L));
+        assertEquals(815107, passcodeGenerator1.generateResponseCodeInt(123456789123456789L));
+        assertEquals(83501, passcodeGenerator1.generateResponseCodeInt(1233L));
+        assertEquals(83501,
+                passcodeGenerator1.generateResponseCodeInt(Base32String.decode("AAAAAAAAAACNC")));
+    }
+
+    public void testFormatResponseCode() throws Exception {
+        assertEquals("083501", passcodeGenerator1.formatResponseCode(83501));
+        assertEquals("000000", passcodeGenerator1.formatResponseCode(0));
+
+        char[] buffer = new char[] {'x', 'x', 'x', 'x', 'x', 'x', 'x'};
+        passcodeGenerator1.formatResponseCode(42, buffer);
+        assertEquals("000042x", new String(buffer));
+
+        try {
+            passcodeGenerator1.formatResponseCode(42, new char[5]);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testVerifyResponseCodeRejectsMalformedInput() throws Exception {
+        assertTrue(passcodeGenerator1.verifyResponseCode(1233L, "083501"));
+        assertFalse(passcodeGenerator1.verifyResponseCode(1233L, "83501"));
+        assertFalse(passcodeGenerator1.verifyResponseCode(1233L, "0083501"));
+        assertFalse(passcodeGenerator1.verifyResponseCode(1233L, "08350a"));
+        assertFalse(passcodeGenerator1.verifyResponseCode(1233L, null));
+        assertFalse(passcodeGenerator1.verifyTimeoutCode(1234, "-83501"));
+    }
+
     public void testMacAndSignEquivalence() throws Exception {
         String codeFromMac = passcodeGenerator1.generateResponseCode(0L);
         String codeFromSigning = new PasscodeGenerator(signer, 6).generateResponseCode(0L);
@@ -135,4 +167,17 @@ public class PasscodeGeneratorTest extends TestCase {
         String codeFromSigning2 = new PasscodeGenerator(signer, 6).generateResponseCode(1L);
         assertFalse(codeFromSigning.equals(codeFromSigning2));
     }
+
+    public void testGenerateResponseCodesIntWithMac() throws Exception {
+        PasscodeGenerator fromSigner = new PasscodeGenerator(signer, 6);
+        int[] fromMac = new int[5];
+        int[] expected = new int[5];
+        passcodeGenerator1.generateResponseCodesInt(1230L, fromMac);
+        fromSigner.generateResponseCodesInt(1230L, expected);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], fromMac[i]);
+            assertEquals(expected[i], passcodeGenerator1.generateResponseCodeInt(1230L + i));
+        }
+        assertEquals(83501, fromMac[3]);
+    }
 }
@@ -0,0 +1,43 @@
+package com.wilco375.onetwoauthenticate.otp.totp;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ClockSkewTracker}.
+ */
+public class ClockSkewTrackerTest extends TestCase {
+
+    public void testEstimate() {
+        ClockSkewTracker tracker = new ClockSkewTracker(4);
+        assertEquals(0, tracker.getEstimatedOffset(1));
+
+        // The first offset is taken as is
+        tracker.record(1, 3);
+        assertEquals(3, tracker.getEstimatedOffset(1));
+
+        // Later offsets move the estimate by a quarter of the difference: 2.25, 1.69, 1.27
+        tracker.record(1, 0);
+        assertEquals(2, tracker.getEstimatedOffset(1));
+        tracker.record(1, 0);
+        assertEquals(2, tracker.getEstimatedOffset(1));
+        tracker.record(1, 0);
+        assertEquals(1, tracker.getEstimatedOffset(1));
+
+        tracker.record(2, -2);
+        assertEquals(-2, tracker.getEstimatedOffset(2));
+        assertEquals(1, tracker.getEstimatedOffset(1));
+    }
+
+    public void testConvergesToConstantOffset() {
+        ClockSkewTracker tracker = new ClockSkewTracker(4);
+        tracker.record(1, 5);
+        for (int i = 0; i < 50; i++) {
+            tracker.record(1, -1);
+        }
+        assertEquals(-1, tracker.getEstimatedOffset(1));
+        for (int i = 0; i < 50; i++) {
+            tracker.record(1, 1);
+        }
+        assertEquals(1, tracker.getEstimatedOffset(1));
+    }
+}
@@ -0,0 +1,51 @@
+package com.wilco375.onetwoauthenticate.otp.totp;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ConcurrentLongLongMap}.
+ */
+public class ConcurrentLongLongMapTest extends TestCase {
+
+    public void testCapacity() {
+        assertEquals(2, new ConcurrentLongLongMap(1).capacity());
+        assertEquals(8, new ConcurrentLongLongMap(3).capacity());
+        assertEquals(8, new ConcurrentLongLongMap(4).capacity());
+    }
+
+    public void testSetIfGreater() {
+        ConcurrentLongLongMap map = new ConcurrentLongLongMap(4);
+        assertEquals(ConcurrentLongLongMap.NO_VALUE, map.get(7));
+        assertTrue(map.setIfGreater(7, -3));
+        assertEquals(-3, map.get(7));
+        assertFalse(map.setIfGreater(7, -3));
+        assertFalse(map.setIfGreater(7, -4));
+        assertTrue(map.setIfGreater(7, 10));
+        assertEquals(10, map.get(7));
+        assertEquals(ConcurrentLongLongMap.NO_VALUE, map.get(8));
+    }
+
+    public void testFull() {
+        ConcurrentLongLongMap map = new ConcurrentLongLongMap(1);
+        map.setIfGreater(Long.MAX_VALUE, 1);
+        map.setIfGreater(0, 2);
+        assertEquals(1, map.get(Long.MAX_VALUE));
+        assertEquals(2, map.get(0));
+        assertEquals(ConcurrentLongLongMap.NO_VALUE, map.get(1));
+        try {
+            map.setIfGreater(1, 3);
+            fail("IllegalStateException should have been thrown");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    public void testReservedKey() {
+        try {
+            new ConcurrentLongLongMap(1).get(Long.MIN_VALUE);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.wilco375.onetwoauthenticate.otp.totp;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link TotpCodeIndex}.
+ */
+public class TotpCodeIndexTest extends TestCase {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private static final byte[] KEY = {
+            '1', '2', '3', '4', '5', '6', '7', '8', '9', '0',
+            '1', '2', '3', '4', '5', '6', '7', '8', '9', '0'};
+
+    /**
+     * Codes from RFC 4226 Appendix D for counters 0 to 9.
+     */
+    private static final int[] CODES = {755224, 287082, 359152, 969429, 338314,
+            254676, 287922, 162583, 399871, 520489};
+
+    public void testLookup() {
+        TotpCodeIndex index = new TotpCodeIndex(4, 1, 2, 6);
+        int account = index.enroll(KEY);
+        assertEquals(-1, index.getCounterValue());
+        assertEquals(TotpCodeIndex.NOT_FOUND, index.lookup(account, CODES[5]));
+
+        index.advanceTo(5);
+        assertEquals(5, index.getCounterValue());
+        assertEquals(TotpCodeIndex.NOT_FOUND, index.lookup(account, CODES[3]));
+        assertEquals(-1, index.lookup(account, CODES[4]));
+        assertEquals(0, index.lookup(account, CODES[5]));
+        assertEquals(1, index.lookup(account, CODES[6]));
+        assertEquals(2, index.lookup(account, CODES[7]));
+        assertEquals(TotpCodeIndex.NOT_FOUND, index.lookup(account, CODES[8]));
+        assertEquals(TotpCodeIndex.NOT_FOUND, index.lookup(account + 1, CODES[5]));
+
+        index.advanceTo(6);
+        assertEquals(TotpCodeIndex.NOT_FOUND, index.lookup(account, CODES[4]));
+        assertEquals(-1, index.lookup(account, CODES[5]));
+        assertEquals(2, index.lookup(account, CODES[8]));
+
+        // Jumping ahead recomputes every column
+        index.advanceTo(1);
+        assertEquals(-1, index.lookup(account, CODES[0]));
+        assertEquals(2, index.lookup(account, CODES[3]));
+    }
+
+    public void testEnrollAfterAdvance() {
+        TotpCodeIndex index = new TotpCodeIndex(4, 1, 1, 6);
+        index.enroll(new byte[]{1, 2, 3});
+        index.advanceTo(5);
+        int account = index.enroll(KEY);
+        assertEquals(TotpCodeIndex.NOT_FOUND, index.lookup(account, CODES[5]));
+        index.advanceTo(5);
+        assertEquals(0, index.lookup(account, CODES[5]));
+        index.advanceTo(6);
+        assertEquals(-1, index.lookup(account, CODES[5]));
+    }
+
+    public void testEnrollAfterAdvance_extendsReusedColumns() {
+        TotpCodeIndex index = new TotpCodeIndex(4, 1, 1, 6);
+        int other = index.enroll(KEY);
+        index.advanceTo(5);
+        int account = index.enroll(KEY);
+        index.advanceTo(6);
+        // The columns of intervals 5 and 6 are reused and extended with the new account
+        assertEquals(-1, index.lookup(account, CODES[5]));
+        assertEquals(0, index.lookup(account, CODES[6]));
+        assertEquals(1, index.lookup(account, CODES[7]));
+        assertEquals(-1, index.lookup(other, CODES[5]));
+    }
+
+    public void testRotate() {
+        TotpCodeIndex index = new TotpCodeIndex(2, 1, 1, 6);
+        int other = index.enroll(KEY);
+        int account = index.enroll(new byte[]{1, 2, 3});
+        index.advanceTo(5);
+        assertEquals(TotpCodeIndex.NOT_FOUND, index.lookup(account, CODES[5]));
+
+        index.rotate(account, KEY);
+        assertEquals(-1, index.lookup(account, CODES[4]));
+        assertEquals(0, index.lookup(account, CODES[5]));
+        assertEquals(1, index.lookup(account, CODES[6]));
+        assertEquals(0, index.lookup(other, CODES[5]));
+    }
+
+    public void testUnenroll() {
+        TotpCodeIndex index = new TotpCodeIndex(2, 1, 1, 6);
+        int account = index.enroll(KEY);
+        int other = index.enroll(KEY);
+        index.advanceTo(5);
+        index.unenroll(account);
+        assertEquals(TotpCodeIndex.NOT_FOUND, index.lookup(account, CODES[5]));
+        assertEquals(0, index.lookup(other, CODES[5]));
+        index.advanceTo(6);
+        assertEquals(TotpCodeIndex.NOT_FOUND, index.lookup(account, CODES[7]));
+        try {
+            index.unenroll(account);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        // The full index reuses the slot of the unenrolled account
+        assertEquals(account, index.enroll(KEY));
+        assertEquals(0, index.lookup(account, CODES[6]));
+    }
+
+    public void testEnrollWhenFull() {
+        TotpCodeIndex index = new TotpCodeIndex(1, 1, 1, 6);
+        index.enroll(KEY);
+        try {
+            index.enroll(KEY);
+            fail("IllegalStateException should have been thrown");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    public void testGetMemoryUsageBytes() {
+        // 100 accounts of 10 state ints and 4 columns of codes
+        assertEquals(5600, new TotpCodeIndex(100, 1, 1, 6).getMemoryUsageBytes());
+    }
+
+    public void testStartUpdates_restartedWhileUpdating() throws Exception {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2);
+        TotpCodeIndex index = new TotpCodeIndex(1, 0, 0, 6);
+        index.enroll(KEY);
+        TestCounter counter = new TestCounter(false);
+        try {
+            index.startUpdates(executor, counter, System::currentTimeMillis, null);
+            assertTrue(counter.mFirstCall.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+            // Restart while the first update is blocked, the new one runs on the other thread
+            index.stopUpdates();
+            index.startUpdates(executor, counter, System::currentTimeMillis, null);
+            waitForUpdate(index);
+            counter.mReleaseFirstCall.countDown();
+            waitForIdle(executor);
+
+            // Only the update of the second start is scheduled
+            assertEquals(1, executor.getQueue().size());
+        } finally {
+            index.stopUpdates();
+            executor.shutdownNow();
+        }
+    }
+
+    public void testStartUpdates_continuesAfterFailure() throws Exception {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        TotpCodeIndex index = new TotpCodeIndex(1, 0, 0, 6);
+        index.enroll(KEY);
+        TestCounter counter = new TestCounter(true);
+        final AtomicInteger failures = new AtomicInteger();
+        try {
+            index.startUpdates(executor, counter, System::currentTimeMillis,
+                    e -> failures.incrementAndGet());
+            // The first update fails and the retry advances the index
+            waitForUpdate(index);
+            assertEquals(1, executor.getQueue().size());
+            assertEquals(1, failures.get());
+        } finally {
+            index.stopUpdates();
+            executor.shutdownNow();
+        }
+    }
+
+    private static void waitForUpdate(TotpCodeIndex index) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (index.getCounterValue() == -1) {
+            assertTrue("Timed out waiting for an update", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void waitForIdle(ScheduledThreadPoolExecutor executor)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (executor.getActiveCount() > 0) {
+            assertTrue("Timed out waiting for the updates", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Counter whose first call blocks until released, or fails.
+     */
+    private static class TestCounter extends TotpCounter {
+        final CountDownLatch mFirstCall = new CountDownLatch(1);
+        final CountDownLatch mReleaseFirstCall = new CountDownLatch(1);
+        private final boolean mFailFirstCall;
+        private final AtomicInteger mCalls = new AtomicInteger();
+
+        TestCounter(boolean failFirstCall) {
+            super(30);
+            mFailFirstCall = failFirstCall;
+        }
+
+        @Override
+        public long getValueAtTime(long time) {
+            if (mCalls.getAndIncrement() == 0) {
+                mFirstCall.countDown();
+                if (mFailFirstCall) {
+                    throw new IllegalStateException("First call fails");
+                }
+                try {
+                    mReleaseFirstCall.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.getValueAtTime(time);
+        }
+    }
+}
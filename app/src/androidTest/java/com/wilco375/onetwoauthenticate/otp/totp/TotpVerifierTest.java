@@ -0,0 +1,152 @@
+package com.wilco375.onetwoauthenticate.otp.totp;
+
+import com.wilco375.onetwoauthenticate.otp.HmacSha1Signer;
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Unit tests for {@link TotpVerifier}.
+ */
+public class TotpVerifierTest extends TestCase {
+    private static final byte[] KEY = {
+            '1', '2', '3', '4', '5', '6', '7', '8', '9', '0',
+            '1', '2', '3', '4', '5', '6', '7', '8', '9', '0'};
+
+    /**
+     * Codes from RFC 4226 Appendix D for counters 0 to 9.
+     */
+    private static final String[] CODES = {"755224", "287082", "359152", "969429", "338314",
+            "254676", "287922", "162583", "399871", "520489"};
+
+    private PasscodeGenerator mGenerator;
+    private TotpVerifier mVerifier;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mGenerator = new PasscodeGenerator(new HmacSha1Signer(KEY));
+        mVerifier = new TotpVerifier(16, 1, 1);
+    }
+
+    public void testConstruct_withNegativeIntervals() {
+        try {
+            new TotpVerifier(16, -1, 0);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        try {
+            new TotpVerifier(16, 1, 1, -1);
+            fail("IllegalArgumentException should have been thrown");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testReturnsOffset() throws Exception {
+        assertEquals(-1, mVerifier.verify(1, mGenerator, CODES[4], 5));
+        assertEquals(0, mVerifier.verify(2, mGenerator, CODES[5], 5));
+        assertEquals(1, mVerifier.verify(3, mGenerator, CODES[6], 5));
+    }
+
+    public void testRejectsCodesOutsideWindow() throws Exception {
+        assertEquals(TotpVerifier.INVALID, mVerifier.verify(1, mGenerator, CODES[3], 5));
+        assertEquals(TotpVerifier.INVALID, mVerifier.verify(1, mGenerator, CODES[7], 5));
+        assertEquals(TotpVerifier.INVALID, mVerifier.verify(1, mGenerator, "000000", 5));
+    }
+
+    public void testRejectsMalformedCodes() throws Exception {
+        assertEquals(TotpVerifier.INVALID, mVerifier.verify(1, mGenerator, (String) null, 5));
+        assertEquals(TotpVerifier.INVALID, mVerifier.verify(1, mGenerator, "25467", 5));
+        assertEquals(TotpVerifier.INVALID, mVerifier.verify(1, mGenerator, "2546760", 5));
+        assertEquals(TotpVerifier.INVALID, mVerifier.verify(1, mGenerator, "25467a", 5));
+    }
+
+    public void testRejectsReplay() throws Exception {
+        assertEquals(0, mVerifier.verify(1, mGenerator, CODES[5], 5));
+        assertEquals(TotpVerifier.REPLAYED, mVerifier.verify(1, mGenerator, CODES[5], 5));
+        // Still replayed once the code is in the past of the window
+        assertEquals(TotpVerifier.REPLAYED, mVerifier.verify(1, mGenerator, CODES[5], 6));
+        // Codes older than the last accepted one are rejected too
+        assertEquals(TotpVerifier.REPLAYED, mVerifier.verify(1, mGenerator, CODES[4], 5));
+        // Other accounts are not affected
+        assertEquals(0, mVerifier.verify(2, mGenerator, CODES[5], 5));
+        // Newer codes are accepted
+        assertEquals(1, mVerifier.verify(1, mGenerator, CODES[6], 5));
+    }
+
+    public void testFollowsClockSkew() throws Exception {
+        TotpVerifier verifier = new TotpVerifier(16, 1, 1, 3);
+        assertEquals(1, verifier.verify(1, mGenerator, CODES[6], 5));
+        // The window is now centered one interval ahead
+        assertEquals(2, verifier.verify(1, mGenerator, CODES[8], 6));
+        assertEquals(2, verifier.verify(1, mGenerator, CODES[9], 7));
+        // A fixed window doesn't accept these
+        assertEquals(TotpVerifier.INVALID, mVerifier.verify(2, mGenerator, CODES[8], 6));
+    }
+
+    public void testCapsClockSkew() throws Exception {
+        TotpVerifier capped = new TotpVerifier(16, 1, 1, 1);
+        TotpVerifier uncapped = new TotpVerifier(16, 1, 1, 3);
+        for (TotpVerifier verifier : new TotpVerifier[]{capped, uncapped}) {
+            // Move the estimate to about 1.6 intervals ahead
+            assertEquals(1, verifier.verify(1, mGenerator, CODES[1], 0));
+            assertEquals(2, verifier.verify(1, mGenerator, CODES[2], 0));
+            assertEquals(2, verifier.verify(1, mGenerator, CODES[3], 1));
+            assertEquals(2, verifier.verify(1, mGenerator, CODES[4], 2));
+        }
+        // The capped window is centered one interval ahead, the other one two intervals
+        assertEquals(TotpVerifier.INVALID, capped.verify(1, mGenerator, CODES[6], 3));
+        assertEquals(3, uncapped.verify(1, mGenerator, CODES[6], 3));
+    }
+
+    public void testConcurrentVerificationAcceptsOnce() throws Exception {
+        final int threads = 4;
+        final int accounts = 200;
+        final TotpVerifier verifier = new TotpVerifier(accounts, 1, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                // Every thread tries to use the same code once for every account
+                futures.add(executor.submit(() -> {
+                    int accepted = 0;
+                    for (int account = 0; account < accounts; account++) {
+                        if (verifier.verify(account, mGenerator, CODES[5], 5) == 0) {
+                            accepted++;
+                        }
+                    }
+                    return accepted;
+                }));
+            }
+            int accepted = 0;
+            for (Future<Integer> future : futures) {
+                accepted += future.get();
+            }
+            assertEquals(accounts, accepted);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testTooManyAccounts() throws Exception {
+        TotpVerifier verifier = new TotpVerifier(1, 1, 1);
+        // Capacity is rounded up, so fill it until it overflows
+        try {
+            for (int account = 0; account < 16; account++) {
+                verifier.verify(account, mGenerator, CODES[5], 5);
+            }
+            fail("IllegalStateException should have been thrown");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.wilco375.onetwoauthenticate.util;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+
+/**
+ * Unit tests for {@link IconCache}.
+ */
+public class IconCacheTest extends AndroidTestCase {
+    private static final String NAME = "johndoe@gmail.com";
+    private static final String OTHER_NAME = "janedoe@gmail.com";
+
+    private IconCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = new IconCache(getContext());
+        saveIcon(NAME, 256, Color.RED);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtilities.getBitmapFile(getContext(), NAME).delete();
+        FileUtilities.getBitmapFile(getContext(), OTHER_NAME).delete();
+        super.tearDown();
+    }
+
+    public void testGet_scalesToSize() {
+        Bitmap icon = mCache.get(1, NAME, 70);
+        assertEquals(70, icon.getWidth());
+        assertEquals(70, icon.getHeight());
+        assertEquals(Color.RED, icon.getPixel(35, 35));
+
+        assertSame(icon, mCache.get(1, NAME, 70));
+        Bitmap larger = mCache.get(1, NAME, 140);
+        assertEquals(140, larger.getWidth());
+        assertSame(icon, mCache.get(1, NAME, 70));
+    }
+
+    public void testGet_noIcon() {
+        assertNull(mCache.get(2, OTHER_NAME, 70));
+        assertNull(mCache.get(2, OTHER_NAME, 70));
+    }
+
+    public void testGet_renamed() {
+        assertNotNull(mCache.get(1, NAME, 70));
+        // Icons are stored by name, so the renamed account has no icon
+        assertNull(mCache.get(1, OTHER_NAME, 70));
+    }
+
+    public void testGet_reusesDecodeBuffer() {
+        saveIcon(OTHER_NAME, 256, Color.BLUE);
+        Bitmap icon = mCache.get(1, NAME, 70);
+        Bitmap other = mCache.get(2, OTHER_NAME, 70);
+        // Decoding into the buffer of the first decode must not change the cached icons
+        assertEquals(Color.RED, icon.getPixel(35, 35));
+        assertEquals(Color.BLUE, other.getPixel(35, 35));
+    }
+
+    public void testInvalidate() {
+        Bitmap icon = mCache.get(1, NAME, 70);
+        saveIcon(NAME, 256, Color.GREEN);
+        assertSame(icon, mCache.get(1, NAME, 70));
+
+        mCache.invalidate(1);
+        Bitmap replaced = mCache.get(1, NAME, 70);
+        assertNotSame(icon, replaced);
+        assertEquals(Color.GREEN, replaced.getPixel(35, 35));
+    }
+
+    public void testTrimMemory() {
+        Bitmap icon = mCache.get(1, NAME, 70);
+        mCache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertSame(icon, mCache.get(1, NAME, 70));
+
+        mCache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertNotSame(icon, mCache.get(1, NAME, 70));
+    }
+
+    public void testMaxSize() {
+        // Room for about one 70x70 icon
+        IconCache cache = new IconCache(getContext(), 70 * 70 * 4 / 1024 + 1);
+        saveIcon(OTHER_NAME, 256, Color.BLUE);
+        Bitmap icon = cache.get(1, NAME, 70);
+        cache.get(2, OTHER_NAME, 70);
+        assertNotSame(icon, cache.get(1, NAME, 70));
+    }
+
+    public void testGetSampleSize() {
+        assertEquals(1, IconCache.getSampleSize(70, 70, 70));
+        assertEquals(1, IconCache.getSampleSize(139, 139, 70));
+        assertEquals(2, IconCache.getSampleSize(140, 140, 70));
+        assertEquals(2, IconCache.getSampleSize(1000, 200, 70));
+        assertEquals(8, IconCache.getSampleSize(1024, 1024, 70));
+    }
+
+    private void saveIcon(String name, int size, int color) {
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        FileUtilities.saveBitmap(getContext(), name, bitmap);
+    }
+}
@@ -0,0 +1,81 @@
+package com.wilco375.onetwoauthenticate.activity;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.widget.ListView;
+
+import com.wilco375.onetwoauthenticate.R;
+import com.wilco375.onetwoauthenticate.TestUtilities;
+import com.wilco375.onetwoauthenticate.database.AccountDb;
+import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.testability.DependencyInjector;
+
+/**
+ * Timings of {@link AuthenticatorActivity}, logged with the tag {@value #LOCAL_TAG}. Only runs
+ * with {@code -Pbenchmark}.
+ */
+public class AuthenticatorActivityBenchmarkTest extends
+        ActivityInstrumentationTestCase2<AuthenticatorActivity> {
+    private static final String LOCAL_TAG = "AuthenticatorActivityBenchmarkTest";
+
+    private AccountDb mAccountDb;
+
+    public AuthenticatorActivityBenchmarkTest() {
+        super(AuthenticatorActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        DependencyInjector.resetForIntegrationTesting(getInstrumentation().getTargetContext());
+        mAccountDb = DependencyInjector.getAccountDb();
+
+        TestUtilities.withLaunchPreventingStartActivityListenerInDependencyResolver();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        // Stop the activity to avoid it using the DependencyInjector after it's been closed.
+        TestUtilities.invokeFinishActivityOnUiThread(getActivity());
+
+        DependencyInjector.close();
+
+        super.tearDown();
+    }
+
+    /**
+     * Logs how long a countdown frame of a list of 200 TOTP accounts takes: updating the
+     * countdown indicators of the rows on screen and drawing the list.
+     */
+    public void testCountdownFrameTime() {
+        final int accounts = 200;
+        final int frames = 300;
+        for (int i = 0; i < accounts; i++) {
+            String user = "johndoe" + i + "@gmail.com";
+            mAccountDb.update(user, "7777777777777777", user, OtpType.TOTP, null);
+        }
+        final AuthenticatorActivity activity = getActivity();
+        final ListView userList = activity.findViewById(R.id.user_list);
+        TestUtilities.waitUntil(getInstrumentation(),
+                () -> userList.getCount() >= accounts && userList.getChildCount() > 0);
+        assertEquals(accounts, userList.getCount());
+
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(
+                userList.getWidth(), userList.getHeight(), Bitmap.Config.ARGB_8888));
+        final long[] nanos = new long[1];
+        getInstrumentation().runOnMainSync(() -> {
+            for (int i = 0; i < frames; i++) {
+                long start = System.nanoTime();
+                activity.getCountdownAnimator().setPhase(1.0 - ((double) i) / frames);
+                userList.draw(canvas);
+                nanos[0] += System.nanoTime() - start;
+            }
+        });
+
+        Log.i(LOCAL_TAG, String.format("%d accounts, %d rows on screen: countdown frame %d us",
+                accounts, userList.getChildCount(), nanos[0] / frames / 1000));
+    }
+}
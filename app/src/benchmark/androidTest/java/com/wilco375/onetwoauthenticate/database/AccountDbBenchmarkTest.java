@@ -0,0 +1,137 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.testability.DependencyInjector;
+
+/**
+ * Timings of {@link AccountDb}, logged with the tag {@value #LOCAL_TAG}. Only runs with
+ * {@code -Pbenchmark}.
+ */
+public class AccountDbBenchmarkTest extends AndroidTestCase {
+    private static final String LOCAL_TAG = "AccountDbBenchmarkTest";
+    private static final String SECRET = "7777777777777777"; // 16 sevens
+
+    private AccountDb accountDb;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        DependencyInjector.resetForIntegrationTesting(getContext());
+        accountDb = DependencyInjector.getAccountDb();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DependencyInjector.close();
+
+        super.tearDown();
+    }
+
+    /**
+     * Logs how long the first read after starting the process takes, which unwraps the data key
+     * and opens all secrets, how long it takes once the key has been unwrapped, and what a code
+     * costs with the cached signers compared to opening the secret for every code.
+     */
+    public void testSealedSecrets_unlockAndCodeTime() throws Exception {
+        final int rows = 100;
+        for (int i = 0; i < rows; i++) {
+            accountDb.update(i + "@b.c", SECRET, null, OtpType.TOTP, null);
+        }
+        DependencyInjector.setAccountDb(null);
+
+        SecretCipher.clearUnwrappedKey();
+        long start = System.nanoTime();
+        accountDb = new AccountDb(DependencyInjector.getContext());
+        accountDb.getSnapshot();
+        long firstUnlockMicros = (System.nanoTime() - start) / 1000;
+        accountDb.close();
+
+        start = System.nanoTime();
+        accountDb = new AccountDb(DependencyInjector.getContext());
+        accountDb.getSnapshot();
+        long unlockedMicros = (System.nanoTime() - start) / 1000;
+        DependencyInjector.setAccountDb(accountDb);
+
+        final int codes = 10000;
+        byte[] message = new byte[8];
+        AccountSnapshot snapshot = accountDb.getSnapshot();
+        start = System.nanoTime();
+        for (int i = 0; i < codes; i++) {
+            Account account = snapshot.get(i % rows);
+            accountDb.getCachedSigningOracle(account).sign(message);
+        }
+        long cachedNanos = (System.nanoTime() - start) / codes;
+
+        SecretCipher cipher = new SecretCipher(new byte[32]);
+        byte[] sealed = cipher.seal(SECRET);
+        start = System.nanoTime();
+        for (int i = 0; i < codes; i++) {
+            AccountDb.getSigningOracle(cipher.open(sealed)).sign(message);
+        }
+        long openingNanos = (System.nanoTime() - start) / codes;
+
+        Log.i(LOCAL_TAG, String.format("%d rows: first unlock %d us, unlocked %d us;"
+                        + " per code: cached %d ns, opening the secret %d ns",
+                rows, firstUnlockMicros, unlockedMicros, cachedNanos, openingNanos));
+        assertEquals(SECRET, accountDb.getSecret((rows - 1) + "@b.c"));
+    }
+
+    /**
+     * Logs how long opening the database takes with different numbers of accounts, both on the
+     * first open after an upgrade and on later opens.
+     */
+    public void testConstruct_openTime() throws Exception {
+        for (int rows : new int[]{10, 1000, 10000}) {
+            deleteAccountDb();
+            SQLiteDatabase database =
+                    DependencyInjector.getContext().openOrCreateDatabase(
+                            AccountDb.PATH, Context.MODE_PRIVATE, null);
+            database.execSQL("CREATE TABLE " + AccountDb.TABLE_NAME
+                    + " (_id INTEGER PRIMARY KEY, email TEXT NOT NULL, secret TEXT NOT NULL,"
+                    + " counter INTEGER DEFAULT 0, type INTEGER)");
+            database.beginTransaction();
+            try {
+                for (int i = 0; i < rows; i++) {
+                    database.execSQL("INSERT INTO " + AccountDb.TABLE_NAME
+                            + " (email, secret, type) VALUES ('" + i + "@b.c', '" + SECRET
+                            + "', 0)");
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            database.close();
+
+            long start = System.nanoTime();
+            accountDb = new AccountDb(DependencyInjector.getContext());
+            long upgradeMicros = (System.nanoTime() - start) / 1000;
+            accountDb.close();
+
+            start = System.nanoTime();
+            accountDb = new AccountDb(DependencyInjector.getContext());
+            long openMicros = (System.nanoTime() - start) / 1000;
+
+            Log.i(LOCAL_TAG, String.format("%d rows: upgrade %d us, open %d us",
+                    rows, upgradeMicros, openMicros));
+            assertTrue(accountDb.nameExists((rows - 1) + "@b.c"));
+            accountDb.close();
+            accountDb = null;
+        }
+    }
+
+    private void deleteAccountDb() {
+        if (accountDb != null) {
+            accountDb.close();
+            accountDb = null;
+        }
+        DependencyInjector.setAccountDb(null);
+
+        assertTrue(DependencyInjector.getContext().deleteDatabase(AccountDb.PATH));
+    }
+}
@@ -0,0 +1,83 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Timings of {@link HmacSha1BatchEngine}, logged with the tag {@value #LOCAL_TAG}. Only runs with
+ * {@code -Pbenchmark}.
+ */
+public class HmacSha1BatchEngineBenchmarkTest extends TestCase {
+    private static final String LOCAL_TAG = "HmacSha1BatchEngineBenchmarkTest";
+    private static final int KEY_LENGTH = 10;
+    private static final int RUNS = 5;
+
+    /**
+     * Compares the time per code of one batch pass with signing every key on its own, with
+     * {@link HmacSha1Signer} and with the platform {@link Mac}, at several numbers of keys. Logs
+     * the best of a few runs per method, after a warm-up run.
+     */
+    public void testCodeTime() throws Exception {
+        for (int keys : new int[]{10, 1000, 100000}) {
+            Random random = new Random(keys);
+            HmacSha1BatchEngine engine = new HmacSha1BatchEngine(keys);
+            PasscodeGenerator[] signerGenerators = new PasscodeGenerator[keys];
+            PasscodeGenerator[] macGenerators = new PasscodeGenerator[keys];
+            for (int i = 0; i < keys; i++) {
+                byte[] key = new byte[KEY_LENGTH];
+                random.nextBytes(key);
+                engine.add(key);
+                signerGenerators[i] = new PasscodeGenerator(new HmacSha1Signer(key));
+                Mac mac = Mac.getInstance("HMACSHA1");
+                mac.init(new SecretKeySpec(key, ""));
+                macGenerators[i] = new PasscodeGenerator(mac);
+            }
+
+            int[] batchCodes = new int[keys];
+            int[] signerCodes = new int[keys];
+            int[] macCodes = new int[keys];
+            long batchNanos = Long.MAX_VALUE;
+            long signerNanos = Long.MAX_VALUE;
+            long macNanos = Long.MAX_VALUE;
+            for (int run = 0; run <= RUNS; run++) {
+                long counter = 49524325 + run;
+
+                long start = System.nanoTime();
+                engine.generateResponseCodes(counter, 6, batchCodes);
+                long batchTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < keys; i++) {
+                    signerCodes[i] = signerGenerators[i].generateResponseCodeInt(counter);
+                }
+                long signerTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < keys; i++) {
+                    macCodes[i] = macGenerators[i].generateResponseCodeInt(counter);
+                }
+                long macTime = System.nanoTime() - start;
+
+                for (int i = 0; i < keys; i++) {
+                    assertEquals(macCodes[i], batchCodes[i]);
+                    assertEquals(macCodes[i], signerCodes[i]);
+                }
+                // The first run only warms up
+                if (run > 0) {
+                    batchNanos = Math.min(batchNanos, batchTime);
+                    signerNanos = Math.min(signerNanos, signerTime);
+                    macNanos = Math.min(macNanos, macTime);
+                }
+            }
+            Log.i(LOCAL_TAG, String.format("%d keys: batch %d ns/code, HmacSha1Signer %d ns/code,"
+                            + " Mac %d ns/code",
+                    keys, batchNanos / keys, signerNanos / keys, macNanos / keys));
+        }
+    }
+}
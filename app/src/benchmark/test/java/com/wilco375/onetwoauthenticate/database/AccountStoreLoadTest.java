@@ -0,0 +1,81 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Load test of {@link InMemoryAccountStore} and {@link FileAccountStore} with 100k synthetic
+ * accounts. Only runs with {@code -Pbenchmark}.
+ */
+public class AccountStoreLoadTest extends TestCase {
+    private static final int ACCOUNTS = 100000;
+    private static final String BASE32_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+    private final String[] mEmails = new String[ACCOUNTS];
+    private final String[] mSecrets = new String[ACCOUNTS];
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Random random = new Random(0);
+        char[] secret = new char[16];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            mEmails[i] = "user" + i + "@example.com";
+            for (int j = 0; j < secret.length; j++) {
+                secret[j] = BASE32_ALPHABET.charAt(random.nextInt(BASE32_ALPHABET.length()));
+            }
+            mSecrets[i] = new String(secret);
+        }
+        mFile = File.createTempFile("accounts", ".log");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testInMemoryStore() {
+        InMemoryAccountStore store = new InMemoryAccountStore();
+        insertAll(store);
+
+        for (int i = 0; i < ACCOUNTS; i++) {
+            assertEquals(mSecrets[i], store.getSecret(mEmails[i]));
+        }
+        assertEquals(ACCOUNTS, store.getSnapshot().size());
+    }
+
+    public void testFileStore() throws IOException {
+        FileAccountStore store = new FileAccountStore(mFile);
+        insertAll(store);
+
+        // Two counter records per account make the log large enough to be compacted on open
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < ACCOUNTS; i++) {
+                store.advanceCounter(mEmails[i]);
+            }
+        }
+        store.close();
+        long logLength = mFile.length();
+
+        store = new FileAccountStore(mFile);
+        assertTrue(mFile.length() < logLength);
+        AccountSnapshot snapshot = store.getSnapshot();
+        assertEquals(ACCOUNTS, snapshot.size());
+        assertEquals(2, (int) snapshot.get(mEmails[ACCOUNTS - 1]).counter);
+        assertEquals(mSecrets[ACCOUNTS - 1], store.getSecret(mEmails[ACCOUNTS - 1]));
+        store.close();
+    }
+
+    private void insertAll(AccountStore store) {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            store.update(mEmails[i], mSecrets[i], null, OtpType.HOTP, 0);
+        }
+    }
+}
@@ -59,6 +59,13 @@ public class AuthenticatorApplication extends Application {
         DependencyInjector.configureForProductionIfNotConfigured(getApplicationContext());
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        DependencyInjector.trimMemory(level);
+    }
+
     @Override
     public void onTerminate() {
         DependencyInjector.close();
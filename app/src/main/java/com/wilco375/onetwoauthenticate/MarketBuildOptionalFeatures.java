@@ -23,7 +23,7 @@ import android.content.SharedPreferences;
 import android.net.Uri;
 
 import com.wilco375.onetwoauthenticate.activity.AuthenticatorActivity;
-import com.wilco375.onetwoauthenticate.database.AccountDb;
+import com.wilco375.onetwoauthenticate.database.AccountStore;
 import com.wilco375.onetwoauthenticate.otp.OtpProvider;
 import com.wilco375.onetwoauthenticate.otp.OtpSource;
 import com.wilco375.onetwoauthenticate.otp.OtpSourceException;
@@ -64,7 +64,7 @@ public class MarketBuildOptionalFeatures implements OptionalFeatures {
     }
 
     @Override
-    public OtpSource createOtpSource(AccountDb accountDb, TotpClock totpClock) {
+    public OtpSource createOtpSource(AccountStore accountDb, TotpClock totpClock) {
         return new OtpProvider(accountDb, totpClock);
     }
 
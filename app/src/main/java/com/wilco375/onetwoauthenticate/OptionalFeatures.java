@@ -23,7 +23,7 @@ import android.content.SharedPreferences;
 import android.net.Uri;
 
 import com.wilco375.onetwoauthenticate.activity.AuthenticatorActivity;
-import com.wilco375.onetwoauthenticate.database.AccountDb;
+import com.wilco375.onetwoauthenticate.database.AccountStore;
 import com.wilco375.onetwoauthenticate.otp.OtpSource;
 import com.wilco375.onetwoauthenticate.otp.OtpSourceException;
 import com.wilco375.onetwoauthenticate.otp.totp.TotpClock;
@@ -49,7 +49,7 @@ public interface OptionalFeatures {
     /**
      * Creates the {@link OtpSource} instance used for OTP generation by the app.
      */
-    OtpSource createOtpSource(AccountDb accountDb, TotpClock totpClock);
+    OtpSource createOtpSource(AccountStore accountDb, TotpClock totpClock);
 
     /**
      * Invoked when a HOTP OTP could not be generated by {@link AuthenticatorActivity}
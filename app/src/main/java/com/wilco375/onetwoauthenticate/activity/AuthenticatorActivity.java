@@ -29,18 +29,11 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.content.pm.ShortcutInfo;
-import android.content.pm.ShortcutManager;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
-import android.graphics.drawable.Icon;
 import android.net.Uri;
-import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
@@ -53,7 +46,6 @@ import android.support.v7.app.AlertDialog;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
-import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
@@ -74,8 +66,10 @@ import com.pes.androidmaterialcolorpickerdialog.ColorPicker;
 import com.wilco375.onetwoauthenticate.BuildConfig;
 import com.wilco375.onetwoauthenticate.R;
 import com.wilco375.onetwoauthenticate.Snackbar;
+import com.wilco375.onetwoauthenticate.database.Account;
 import com.wilco375.onetwoauthenticate.database.AccountDb;
 import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.database.AccountStore;
 import com.wilco375.onetwoauthenticate.licensing.License;
 import com.wilco375.onetwoauthenticate.otp.OtpSource;
 import com.wilco375.onetwoauthenticate.otp.OtpSourceException;
@@ -87,6 +81,7 @@ import com.wilco375.onetwoauthenticate.testability.TestableActivity;
 import com.wilco375.onetwoauthenticate.util.EncryptionUtilities;
 import com.wilco375.onetwoauthenticate.util.FileUtilities;
 import com.wilco375.onetwoauthenticate.util.Utilities;
+import com.wilco375.onetwoauthenticate.view.CountdownAnimator;
 import com.wilco375.onetwoauthenticate.view.CountdownIndicator;
 import com.yydcdut.sdlv.SlideAndDragListView;
 
@@ -101,7 +96,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The main activity that displays usernames and codes
@@ -119,11 +116,6 @@ public class AuthenticatorActivity extends TestableActivity {
     private static final String LOCAL_TAG = "AuthenticatorActivity";
     private static final long VIBRATE_DURATION = 200L;
 
-    /**
-     * Frequency (milliseconds) with which TOTP countdown indicators are updated.
-     */
-    private static final long TOTP_COUNTDOWN_REFRESH_PERIOD = 100;
-
     /**
      * Minimum amount of time (milliseconds) that has to elapse from the moment a HOTP code is
      * generated for an account until the moment the next code can be generated for the account.
@@ -172,20 +164,29 @@ public class AuthenticatorActivity extends TestableActivity {
     private TotpClock mTotpClock;
 
     /**
-     * Task that periodically notifies this activity about the amount of time remaining until
-     * the TOTP codes refresh. The task also notifies this activity when TOTP codes refresh.
+     * Task that notifies this activity when TOTP codes refresh.
      */
     private TotpCountdownTask mTotpCountdownTask;
 
     /**
-     * Phase of TOTP countdown indicators. The phase is in {@code [0, 1]} with {@code 1} meaning
-     * full time step remaining until the code refreshes, and {@code 0} meaning the code is refreshing
-     * right now.
+     * Animates the TOTP countdown indicators of the rows on screen once per frame.
      */
-    private double mTotpCountdownPhase;
-    private AccountDb mAccountDb;
+    private CountdownAnimator mCountdownAnimator;
+    private AccountStore mAccountDb;
     private OtpSource mOtpProvider;
 
+    /**
+     * Computes the codes, colors and icons of the list off the UI thread.
+     */
+    private PinListLoader mPinListLoader;
+
+    /**
+     * Reloads the list when the accounts change. Changes that arrive while a load is running are
+     * picked up by a single next load.
+     */
+    private final AccountStore.AccountChangeListener mAccountChangeListener =
+            change -> mPinListLoader.requestLoad();
+
     /**
      * Key under which the {@link #mOldAppUninstallIntent} is stored in the instance state
      * {@link Bundle}.
@@ -224,6 +225,12 @@ public class AuthenticatorActivity extends TestableActivity {
      */
     private boolean mSaveKeyIntentConfirmationInProgress;
 
+    /**
+     * Whether the accounts can't be read, in which case only an error is shown and none of the
+     * other fields are initialized.
+     */
+    private boolean mAccountsUnavailable;
+
     private static final String OTP_SCHEME = "otpauth";
     private static final String TOTP = "totp"; // time-based
     private static final String HOTP = "hotp"; // counter-based
@@ -253,8 +260,21 @@ public class AuthenticatorActivity extends TestableActivity {
 
         new License().checkLicense(this);
 
-        mAccountDb = DependencyInjector.getAccountDb();
+        AccountDb.DataKeyException accountsError = DependencyInjector.getAccountStoreError();
+        if (accountsError != null) {
+            Log.e(getString(R.string.app_name), LOCAL_TAG + ": Accounts can't be read",
+                    accountsError);
+            mAccountsUnavailable = true;
+            showAccountsUnavailable();
+            return;
+        }
+
+        mAccountDb = DependencyInjector.getAccountStore();
         mOtpProvider = DependencyInjector.getOtpProvider();
+        mPinListLoader = new PinListLoader(this, mOtpProvider, DependencyInjector.getIconCache(),
+                this::onPinListLoaded);
+        mAccountDb.addChangeListener(mAccountChangeListener);
+        ShortcutUpdater.register(this);
 
         // Use a different (longer) title from the one that's declared in the manifest (and the one that
         // the Android launcher displays).
@@ -262,6 +282,7 @@ public class AuthenticatorActivity extends TestableActivity {
 
         mTotpCounter = mOtpProvider.getTotpCounter();
         mTotpClock = mOtpProvider.getTotpClock();
+        mCountdownAnimator = new CountdownAnimator(mTotpCounter, mTotpClock);
 
         setContentView(R.layout.main);
 
@@ -313,10 +334,8 @@ public class AuthenticatorActivity extends TestableActivity {
                 for (int i = 0; i < mUsers.size(); i++) {
                     usernames[i] = mUsers.get(i).user;
                 }
-                // Save order to DB
-                mAccountDb.reorder(usernames);
-
-                updateShortcuts(AuthenticatorActivity.this);
+                // Save order to DB off the UI thread
+                mAccountDb.reorderAsync(usernames, null);
             }
         });
 
@@ -420,14 +439,21 @@ public class AuthenticatorActivity extends TestableActivity {
     @Override
     protected void onNewIntent(Intent intent) {
         Log.i(getString(R.string.app_name), LOCAL_TAG + ": onNewIntent");
+        if (mAccountsUnavailable) {
+            return;
+        }
         handleIntent(intent);
     }
 
     @Override
     protected void onStart() {
         super.onStart();
+        if (mAccountsUnavailable) {
+            return;
+        }
 
         updateCodesAndStartTotpCountdownTask();
+        mCountdownAnimator.start();
     }
 
     @Override
@@ -438,24 +464,46 @@ public class AuthenticatorActivity extends TestableActivity {
 
     @Override
     protected void onStop() {
-        stopTotpCountdownTask();
+        if (!mAccountsUnavailable) {
+            stopTotpCountdownTask();
+            mCountdownAnimator.stop();
+        }
 
         super.onStop();
     }
 
+    @Override
+    protected void onDestroy() {
+        if (!mAccountsUnavailable) {
+            mAccountDb.removeChangeListener(mAccountChangeListener);
+            mPinListLoader.close();
+        }
+
+        super.onDestroy();
+    }
+
+    /**
+     * Shows that the accounts can't be read instead of the accounts, and closes the app when the
+     * message is dismissed.
+     */
+    private void showAccountsUnavailable() {
+        Dialog dialog = createOkAlertDialog(R.string.error_title,
+                R.string.error_accounts_unavailable, R.drawable.ic_dialog_alert);
+        dialog.setOnDismissListener(unused -> finish());
+        dialog.show();
+    }
+
     private void updateCodesAndStartTotpCountdownTask() {
         stopTotpCountdownTask();
 
-        mTotpCountdownTask =
-                new TotpCountdownTask(mTotpCounter, mTotpClock, TOTP_COUNTDOWN_REFRESH_PERIOD);
+        // The countdown indicators are animated by mCountdownAnimator, so the task only needs to
+        // run when the codes refresh
+        mTotpCountdownTask = new TotpCountdownTask(mTotpCounter, mTotpClock,
+                Utilities.secondsToMillis(mTotpCounter.getTimeStep()));
         mTotpCountdownTask.setListener(new TotpCountdownTask.Listener() {
             @Override
             public void onTotpCountdown(long millisRemaining) {
-                if (isFinishing()) {
-                    // No need to reach to this even because the Activity is finishing anyway
-                    return;
-                }
-                setTotpCountdownPhaseFromTimeTillNextValue(millisRemaining);
+                // Animated by mCountdownAnimator
             }
 
             @Override
@@ -479,82 +527,72 @@ public class AuthenticatorActivity extends TestableActivity {
     }
 
     /**
-     * Display list of user emails and updated pin codes.
+     * Display list of user emails and updated pin codes. The codes are computed on a background
+     * thread, the list is updated once they have been computed.
      */
     protected void refreshUserList() {
-        refreshUserList(false);
-    }
-
-    private void setTotpCountdownPhase(double phase) {
-        mTotpCountdownPhase = phase;
-        updateCountdownIndicators();
+        mPinListLoader.requestLoad();
     }
 
-    private void setTotpCountdownPhaseFromTimeTillNextValue(long millisRemaining) {
-        setTotpCountdownPhase(
-                ((double) millisRemaining) / Utilities.secondsToMillis(mTotpCounter.getTimeStep()));
+    // @VisibleForTesting
+    CountdownAnimator getCountdownAnimator() {
+        return mCountdownAnimator;
     }
 
     private void refreshVerificationCodes() {
         refreshUserList();
-        setTotpCountdownPhase(1.0);
-    }
-
-    private void updateCountdownIndicators() {
-        for (int i = 0, len = mUserList.getChildCount(); i < len; i++) {
-            View listEntry = mUserList.getChildAt(i);
-            CountdownIndicator indicator =
-                    listEntry.findViewById(R.id.countdown_icon);
-            if (indicator != null) {
-                indicator.setPhase(mTotpCountdownPhase);
-            }
-        }
     }
 
     /**
-     * Display list of user emails and updated pin codes.
-     *
-     * @param isAccountModified if true, force full refresh
+     * Displays a list computed by {@link #mPinListLoader}. The rows of accounts that are already
+     * displayed are reused, so that they keep their HOTP code.
+     * <p>
+     * If the accounts are still at the same positions, only the rows on screen whose contents
+     * changed are bound again, which is all that happens when the TOTP codes roll over. Otherwise
+     * the list is notified of the new data, keeping its scroll position.
      */
-    // @VisibleForTesting
-    public void refreshUserList(boolean isAccountModified) {
-        ArrayList<String> usernames = new ArrayList<>();
-        mAccountDb.getNames(usernames);
-
-        int userCount = usernames.size();
+    private void onPinListLoaded(PinListLoader.PinList list) {
+        int userCount = list.rows.size();
 
         if (userCount > 0) {
-            boolean newListRequired = isAccountModified || mUsers.size() != userCount;
-            if (newListRequired) {
-                mUsers.clear();
-                for (int i = 0; i < userCount; i++) {
-                    mUsers.add(null);
+            Map<Long, PinInfo> pins = new HashMap<>();
+            boolean samePositions = (mUsers.size() == userCount);
+            for (int i = 0; i < mUsers.size(); i++) {
+                PinInfo pinInfo = mUsers.get(i);
+                if (pinInfo != null) {
+                    pins.put(pinInfo.id, pinInfo);
+                }
+                if (pinInfo == null || (samePositions && pinInfo.id != list.rows.get(i).id)) {
+                    samePositions = false;
                 }
             }
-
-            for (int i = 0; i < userCount; ++i) {
-                String user = usernames.get(i);
-                try {
-                    computeAndDisplayPin(user, i, false);
-                } catch (OtpSourceException ignored) {
+            mUsers.clear();
+            boolean[] changed = new boolean[userCount];
+            for (int i = 0; i < userCount; i++) {
+                PinListLoader.Row row = list.rows.get(i);
+                PinInfo pinInfo = pins.get(row.id);
+                if (pinInfo == null) {
+                    pinInfo = new PinInfo();
+                    pinInfo.pin = getString(R.string.empty_pin);
+                    pinInfo.hotpCodeGenerationAllowed = true;
                 }
+                changed[i] = bindRow(pinInfo, row);
+                mUsers.add(pinInfo);
             }
 
-            if (newListRequired) {
-                // Make the list display the data from the newly created array of accounts
-                // This forces the list to scroll to top.
-                mUserAdapter = new PinListAdapter(this, R.layout.user_row, mUsers);
-                mUserList.setAdapter(mUserAdapter);
+            if (samePositions) {
+                mUserAdapter.rebindRows(changed);
+            } else {
+                mUserAdapter.notifyDataSetChanged();
             }
 
-            mUserAdapter.notifyDataSetChanged();
-
             if (mUserList.getVisibility() != View.VISIBLE) {
                 mUserList.setVisibility(View.VISIBLE);
                 registerForContextMenu(mUserList);
             }
         } else {
             mUsers.clear(); // clear any existing user PIN state
+            mUserAdapter.notifyDataSetChanged();
             mUserList.setVisibility(View.GONE);
         }
 
@@ -566,54 +604,32 @@ public class AuthenticatorActivity extends TestableActivity {
     }
 
     /**
-     * Computes the PIN and saves it in mUsers. This currently runs in the UI
-     * thread so it should not take more than a second or so. If necessary, we can
-     * move the computation to a background thread.
+     * Copies a loaded row to the PinInfo of its account. TOTP codes are replaced, HOTP codes are
+     * left untouched.
      *
-     * @param user        the user email to display with the PIN
-     * @param position    the index for the screen of this user and PIN
-     * @param computeHotp true if we should increment counter and display new hotp
+     * @return whether anything the row shows has changed.
      */
-    public void computeAndDisplayPin(String user, int position,
-                                     boolean computeHotp) throws OtpSourceException {
-
-        PinInfo currentPin;
-        if (mUsers.get(position) != null) {
-            currentPin = mUsers.get(position); // existing PinInfo, so we'll update it
-        } else {
-            currentPin = new PinInfo();
-            currentPin.pin = getString(R.string.empty_pin);
-            currentPin.hotpCodeGenerationAllowed = true;
-            Integer color = mAccountDb.getColor(user);
-            if (color == null)
-                currentPin.color = getResources().getColor(R.color.theme_color);
-            else
-                currentPin.color = color;
-
-            Bitmap bitmap = FileUtilities.getBitmap(getApplicationContext(), user);
-            if (bitmap != null) {
-                // Resize image
-                int size = Utilities.dpToPx(70);
-                currentPin.image = Bitmap.createScaledBitmap(bitmap, size, size, false);
-                bitmap.recycle();
-            }
-        }
-
-        OtpType type = mAccountDb.getType(user);
-        currentPin.isHotp = (type == OtpType.HOTP);
-
-        currentPin.user = user;
-
-        if (!currentPin.isHotp || computeHotp) {
-            // Always safe to recompute, because this code path is only
-            // reached if the account is:
-            // - Time-based, in which case getNextCode() does not change state.
-            // - Counter-based (HOTP) and computeHotp is true.
-            currentPin.pin = mOtpProvider.getNextCode(user);
-            currentPin.hotpCodeGenerationAllowed = true;
+    private boolean bindRow(PinInfo pinInfo, PinListLoader.Row row) {
+        boolean wasHotp = pinInfo.isHotp;
+        String pin = pinInfo.pin;
+        boolean hotpCodeGenerationAllowed = pinInfo.hotpCodeGenerationAllowed;
+        boolean changed = !row.user.equals(pinInfo.user) || row.color != pinInfo.color
+                || row.icon != pinInfo.image || (row.type == OtpType.HOTP) != wasHotp;
+        pinInfo.id = row.id;
+        pinInfo.user = row.user;
+        pinInfo.color = row.color;
+        pinInfo.image = row.icon;
+        pinInfo.isHotp = (row.type == OtpType.HOTP);
+
+        if (!pinInfo.isHotp && row.code != null) {
+            pinInfo.pin = row.code;
+            pinInfo.hotpCodeGenerationAllowed = true;
+        } else if (pinInfo.isHotp && !wasHotp) {
+            // Don't show the TOTP code of an account that has been changed to HOTP
+            pinInfo.pin = getString(R.string.empty_pin);
         }
-
-        mUsers.set(position, currentPin);
+        return changed || !pinInfo.pin.equals(pin)
+                || pinInfo.hotpCodeGenerationAllowed != hotpCodeGenerationAllowed;
     }
 
     /**
@@ -701,7 +717,7 @@ public class AuthenticatorActivity extends TestableActivity {
             mSaveKeyDialogParams = new SaveKeyDialogParams(user, secret, type, counter);
             createDialog(DIALOG_ID_SAVE_KEY);
         } else {
-            saveSecretAndRefreshUserList(user, secret, null, type, counter);
+            saveSecret(this, user, secret, null, type, counter);
         }
     }
 
@@ -717,27 +733,6 @@ public class AuthenticatorActivity extends TestableActivity {
         return user;
     }
 
-    /**
-     * Saves the secret key to local storage on the phone and updates the displayed account list.
-     *
-     * @param user         the user email address. When editing, the new user email.
-     * @param secret       the secret key
-     * @param originalUser If editing, the original user email, otherwise null.
-     * @param type         hotp vs totp
-     * @param counter      only important for the hotp type
-     */
-    private void saveSecretAndRefreshUserList(String user, String secret,
-                                              String originalUser, OtpType type, Integer counter, boolean showNotification) {
-        if (saveSecret(this, user, secret, originalUser, type, counter, showNotification)) {
-            refreshUserList(true);
-        }
-    }
-
-    private void saveSecretAndRefreshUserList(String user, String secret,
-                                              String originalUser, OtpType type, Integer counter) {
-        saveSecretAndRefreshUserList(user, secret, originalUser, type, counter, true);
-    }
-
     /**
      * Saves the secret key to local storage on the phone.
      *
@@ -754,7 +749,9 @@ public class AuthenticatorActivity extends TestableActivity {
             originalUser = user;
         }
         if (secret != null) {
-            AccountDb accountDb = DependencyInjector.getAccountDb();
+            // The shortcuts follow the accounts once the updater is registered
+            ShortcutUpdater.register(context);
+            AccountStore accountDb = DependencyInjector.getAccountStore();
             accountDb.update(user, secret, originalUser, type, counter);
             DependencyInjector.getOptionalFeatures().onAuthenticatorActivityAccountSaved(context, user);
 
@@ -764,8 +761,6 @@ public class AuthenticatorActivity extends TestableActivity {
                         .vibrate(VIBRATE_DURATION);
             }
 
-            updateShortcuts(context);
-
             return true;
         } else {
             Log.e(LOCAL_TAG, "Trying to save an empty secret key");
@@ -781,78 +776,25 @@ public class AuthenticatorActivity extends TestableActivity {
     }
 
     /**
-     * Update the dynamic shortcuts to show the top items
-     */
-    private static void updateShortcuts(Context context) {
-        if (Build.VERSION.SDK_INT < 25 || !BuildConfig.PRO) return;
-
-        new Thread(() -> {
-            AccountDb accountDb = DependencyInjector.getAccountDb();
-            List<String> names = new ArrayList<>();
-            accountDb.getNames(names);
-
-            ShortcutManager sm = (ShortcutManager) context.getSystemService(Context.SHORTCUT_SERVICE);
-            if (sm == null) return;
-
-            int maxShortcuts = sm.getMaxShortcutCountPerActivity();
-            ArrayList<ShortcutInfo> shortcuts = new ArrayList<>();
-            for (int i = 0; i < names.size() && i < maxShortcuts; i++) {
-                String name = names.get(i);
-                Icon icon;
-                Bitmap foreground = FileUtilities.getBitmap(context, name);
-                if (foreground != null) {
-                    Drawable background = ContextCompat.getDrawable(context, R.drawable.ic_shortcut_bg);
-                    Bitmap bitmapIcon = Bitmap.createBitmap(48, 48, Bitmap.Config.ARGB_8888);
-                    Canvas canvas = new Canvas(bitmapIcon);
-
-                    // Draw background
-                    background.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
-                    background.draw(canvas);
-
-                    // Draw foreground
-                    Paint paint = new Paint();
-                    paint.setAntiAlias(true);
-                    canvas.drawBitmap(foreground,
-                            new Rect(0, 0, foreground.getWidth(), foreground.getHeight()),
-                            new Rect(12, 12, 36, 36),
-                            paint
-                    );
-
-                    icon = Icon.createWithBitmap(bitmapIcon);
-                } else {
-                    icon = Icon.createWithResource(context, R.drawable.ic_shortcut_key);
-                }
-                shortcuts.add(
-                        new ShortcutInfo.Builder(context, "code-"+i)
-                                .setShortLabel(name.length() > 10 ? name.substring(0, 10) : name)
-                                .setLongLabel(name.length() > 20 ? names.get(i).substring(0, 20) : name)
-                                .setIcon(icon)
-                                .setIntent(
-                                        new Intent(context, CopyKeyActivity.class)
-                                                .setAction(Intent.ACTION_VIEW)
-                                                .putExtra("name", name)
-                                )
-                                .build()
-                );
-            }
-            sm.setDynamicShortcuts(shortcuts);
-        }).start();
-    }
-
-    /**
-     * Converts user list ordinal id to user email
+     * Gets the account at a position of the user list by its row id, so that it is found even if
+     * it has been renamed since the list was built.
+     *
+     * @return the account or {@code null} if it has been deleted since.
      */
-    private String idToEmail(long id) {
-        return mUsers.get((int) id).user;
+    private Account getAccountAt(long position) {
+        return mAccountDb.getAccount(mUsers.get((int) position).id);
     }
 
     @Override
     public void onCreateContextMenu(ContextMenu menu, View v, ContextMenuInfo menuInfo) {
         super.onCreateContextMenu(menu, v, menuInfo);
         AdapterContextMenuInfo info = (AdapterContextMenuInfo) menuInfo;
-        String user = idToEmail(info.id);
-        OtpType type = mAccountDb.getType(user);
-        menu.setHeaderTitle(user);
+        Account account = getAccountAt(info.id);
+        if (account == null) {
+            return;
+        }
+        OtpType type = account.type;
+        menu.setHeaderTitle(account.email);
         menu.add(0, COPY_TO_CLIPBOARD_ID, 0, R.string.copy_to_clipboard);
         // Option to display the check-code is only available for HOTP accounts.
         if (type == OtpType.HOTP) {
@@ -876,7 +818,13 @@ public class AuthenticatorActivity extends TestableActivity {
     public boolean onContextItemSelected(MenuItem item) {
         AdapterContextMenuInfo info = (AdapterContextMenuInfo) item.getMenuInfo();
         Intent intent;
-        final String user = idToEmail(info.id); // final so listener can see value
+        Account account = getAccountAt(info.id);
+        if (account == null) {
+            return super.onContextItemSelected(item);
+        }
+        // final so listeners can see values
+        final long id = account.id;
+        final String user = account.email;
         switch (item.getItemId()) {
             case COPY_TO_CLIPBOARD_ID:
                 copyPinToClipboard(mUsers.get((int) info.id).pin);
@@ -892,7 +840,7 @@ public class AuthenticatorActivity extends TestableActivity {
                         findViewById(R.id.customize_root));
 
                 View customizeColor = mCustomizeView.findViewById(R.id.customize_color);
-                Integer dbColor = mAccountDb.getColor(user);
+                Integer dbColor = account.color;
                 if (dbColor == null) {
                     dbColor = getResources().getColor(R.color.theme_color);
                 }
@@ -908,7 +856,9 @@ public class AuthenticatorActivity extends TestableActivity {
                 customizeColor.setBackgroundColor(color);
 
                 ImageView customizeIcon = mCustomizeView.findViewById(R.id.customize_icon);
-                Bitmap icon = FileUtilities.getBitmap(getApplicationContext(), user);
+                // The icon in the size of the list is usually cached already
+                Bitmap icon = DependencyInjector.getIconCache().get(id, user,
+                        Utilities.dpToPx(PinListLoader.ICON_SIZE_DP));
                 customizeIcon.setOnClickListener(view -> {
                     Intent i = new Intent()
                             .setType("image/*")
@@ -928,7 +878,7 @@ public class AuthenticatorActivity extends TestableActivity {
                         .setPositiveButton(R.string.submit, (dialogInterface, index) -> {
                             PinInfo pinInfoToUpdate = null;
                             for (PinInfo pinInfo : mUsers) {
-                                if (pinInfo.user.equals(user)) {
+                                if (pinInfo.id == id) {
                                     pinInfoToUpdate = pinInfo;
                                     break;
                                 }
@@ -938,13 +888,10 @@ public class AuthenticatorActivity extends TestableActivity {
                             Drawable colorBackground = customizeColor.getBackground();
                             if (colorBackground instanceof ColorDrawable) {
                                 int newColor = ((ColorDrawable) colorBackground).getColor();
-                                if (newColor != color) {
-                                    mAccountDb.update(user,
-                                            mAccountDb.getSecret(user), user,
-                                            mAccountDb.getType(user),
-                                            mAccountDb.getCounter(user),
-                                            null,
-                                            newColor);
+                                Account current = mAccountDb.getAccount(id);
+                                if (newColor != color && current != null) {
+                                    mAccountDb.update(id, current.email, current.secret,
+                                            current.type, current.counter, null, newColor);
                                     pinInfoToUpdate.color = newColor;
                                 }
                             }
@@ -956,10 +903,13 @@ public class AuthenticatorActivity extends TestableActivity {
                                 if (newIcon != icon && newIcon != null) {
                                     FileUtilities.saveBitmap(getApplicationContext(), user, newIcon);
                                     pinInfoToUpdate.image = newIcon;
+                                    // Replace it with the scaled icon
+                                    DependencyInjector.getIconCache().invalidate(id);
+                                    refreshUserList();
                                 }
                             }
 
-                            mUserAdapter.notifyDataSetChanged();
+                            mUserAdapter.rebindRow(pinInfoToUpdate);
                         })
                         .setNegativeButton(R.string.cancel, null)
                         .show();
@@ -974,7 +924,7 @@ public class AuthenticatorActivity extends TestableActivity {
                         .setTitle(String.format(getString(R.string.rename_message), user))
                         .setView(frame)
                         .setPositiveButton(R.string.submit,
-                                this.getRenameClickListener(context, user, nameEdit))
+                                this.getRenameClickListener(context, id, nameEdit))
                         .setNegativeButton(R.string.cancel, null)
                         .show();
                 return true;
@@ -984,8 +934,7 @@ public class AuthenticatorActivity extends TestableActivity {
                         .setIcon(R.drawable.ic_dialog_alert)
                         .setPositiveButton(R.string.remove_account_dialog_button_remove,
                                 (dialog, whichButton) -> {
-                                    mAccountDb.delete(user);
-                                    refreshUserList(true);
+                                    mAccountDb.delete(id);
                                 }
                         )
                         .setNegativeButton(R.string.cancel, null)
@@ -997,16 +946,19 @@ public class AuthenticatorActivity extends TestableActivity {
     }
 
     private DialogInterface.OnClickListener getRenameClickListener(final Activity context,
-                                                                   final String user, final EditText nameEdit) {
+                                                                   final long id, final EditText nameEdit) {
         return (dialog, whichButton) -> {
+            Account account = mAccountDb.getAccount(id);
+            if (account == null) {
+                return;
+            }
             String newName = nameEdit.getText().toString();
-            if (!newName.equals(user)) {
+            if (!newName.equals(account.email)) {
                 if (mAccountDb.nameExists(newName)) {
                     Snackbar.show(context, Snackbar.Type.ERROR, R.string.error_exists);
                 } else {
-                    saveSecretAndRefreshUserList(newName,
-                            mAccountDb.getSecret(user), user, mAccountDb.getType(user),
-                            mAccountDb.getCounter(user));
+                    saveSecret(context, newName,
+                            account.secret, account.email, account.type, account.counter);
                 }
             }
         };
@@ -1014,6 +966,9 @@ public class AuthenticatorActivity extends TestableActivity {
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
+        if (mAccountsUnavailable) {
+            return false;
+        }
         getMenuInflater().inflate(R.menu.main, menu);
         return true;
     }
@@ -1166,7 +1121,7 @@ public class AuthenticatorActivity extends TestableActivity {
             for (int i = 0; i < json.length(); i++) {
                 JSONObject item = json.getJSONObject(i);
 
-                saveSecretAndRefreshUserList(
+                saveSecret(this,
                         item.getString("email"),
                         item.getString("secret"),
                         item.getString("email"),
@@ -1203,17 +1158,15 @@ public class AuthenticatorActivity extends TestableActivity {
 
         builder.setView(layout);
         builder.setPositiveButton(android.R.string.ok, (dialogInterface, i) -> {
-            List<String> usernames = new ArrayList<>();
-            mAccountDb.getNames(usernames);
             try {
                 JSONArray json = new JSONArray();
-                for (String username : usernames) {
+                for (Account account : mAccountDb.getSnapshot().getAccounts()) {
                     JSONObject jsonObject = new JSONObject();
-                    jsonObject.put("email", username);
-                    jsonObject.put("secret", mAccountDb.getSecret(username));
-                    jsonObject.put("counter", mAccountDb.getCounter(username));
-                    jsonObject.put("type", mAccountDb.getType(username).toString());
-                    jsonObject.put("color", mAccountDb.getColor(username));
+                    jsonObject.put("email", account.email);
+                    jsonObject.put("secret", account.secret);
+                    jsonObject.put("counter", account.counter);
+                    jsonObject.put("type", account.type.toString());
+                    jsonObject.put("color", account.color);
                     json.put(jsonObject);
                 }
                 String jsonString = json.toString();
@@ -1353,7 +1306,7 @@ public class AuthenticatorActivity extends TestableActivity {
                         .setMessage(saveKeyDialogParams.user)
                         .setIcon(R.drawable.ic_dialog_alert)
                         .setPositiveButton(R.string.ok,
-                                (dialog13, whichButton) -> saveSecretAndRefreshUserList(
+                                (dialog13, whichButton) -> saveSecret(this,
                                         saveKeyDialogParams.user,
                                         saveKeyDialogParams.secret,
                                         null,
@@ -1432,6 +1385,7 @@ public class AuthenticatorActivity extends TestableActivity {
      */
     private static class PinInfo {
         private String pin; // calculated OTP, or a placeholder if not calculated
+        private long id; // row id of the account, which doesn't change when it is renamed
         private String user;
         private boolean isHotp = false; // used to see if button needs to be displayed
         private Bitmap image;
@@ -1473,26 +1427,40 @@ public class AuthenticatorActivity extends TestableActivity {
                 throw new RuntimeException("Account not in list: " + mAccount);
             }
 
-            try {
-                computeAndDisplayPin(mAccount.user, position, true);
-            } catch (OtpSourceException e) {
-                DependencyInjector.getOptionalFeatures().onAuthenticatorActivityGetNextOtpFailed(
-                        AuthenticatorActivity.this, mAccount.user, e);
-                return;
-            }
+            // Temporarily disable code generation for this account, also while the code is computed
+            mAccount.hotpCodeGenerationAllowed = false;
+            mUserAdapter.rebindRow(mAccount);
+
+            // Advancing the counter writes to the database, so compute the code off the UI thread
+            mPinListLoader.loadNextHotpCode(mAccount.user, new PinListLoader.HotpCodeListener() {
+                @Override
+                public void onHotpCodeLoaded(String code) {
+                    mAccount.pin = code;
+                    mUserAdapter.rebindRow(mAccount);
+                    scheduleTimeouts(code);
+                }
 
-            final String pin = mAccount.pin;
+                @Override
+                public void onHotpCodeFailed(OtpSourceException e) {
+                    mAccount.hotpCodeGenerationAllowed = true;
+                    mUserAdapter.rebindRow(mAccount);
+                    DependencyInjector.getOptionalFeatures().onAuthenticatorActivityGetNextOtpFailed(
+                            AuthenticatorActivity.this, mAccount.user, e);
+                }
+            });
+        }
 
-            // Temporarily disable code generation for this account
-            mAccount.hotpCodeGenerationAllowed = false;
-            mUserAdapter.notifyDataSetChanged();
+        /**
+         * Allows generating the next code after a while and hides the code after a longer while.
+         */
+        private void scheduleTimeouts(final String pin) {
             // The delayed operation below will be invoked once code generation is yet again allowed for
             // this account. The delay is in wall clock time (monotonically increasing) and is thus not
             // susceptible to system time jumps.
             mHandler.postDelayed(
                     () -> {
                         mAccount.hotpCodeGenerationAllowed = true;
-                        mUserAdapter.notifyDataSetChanged();
+                        mUserAdapter.rebindRow(mAccount);
                     },
                     HOTP_MIN_TIME_INTERVAL_BETWEEN_CODES);
             // The delayed operation below will hide this OTP to prevent the user from seeing this OTP
@@ -1503,7 +1471,7 @@ public class AuthenticatorActivity extends TestableActivity {
                             return;
                         }
                         mAccount.pin = getString(R.string.empty_pin);
-                        mUserAdapter.notifyDataSetChanged();
+                        mUserAdapter.rebindRow(mAccount);
                     },
                     HOTP_DISPLAY_TIMEOUT);
         }
@@ -1524,56 +1492,88 @@ public class AuthenticatorActivity extends TestableActivity {
      * @author adhintz@google.com (Drew Hintz)
      */
     private class PinListAdapter extends ArrayAdapter<PinInfo> {
+        /**
+         * Holders of the rows this adapter has created. The list only creates a few more rows than
+         * fit on screen and keeps reusing them, so these are the rows on screen and the few rows
+         * waiting to be reused.
+         */
+        private final List<RowViewHolder> mHolders = new ArrayList<>();
+
+        private final String mEmptyPin;
 
         public PinListAdapter(Context context, int userRowId, ArrayList<PinInfo> items) {
             super(context, userRowId, items);
+            mEmptyPin = context.getString(R.string.empty_pin);
         }
 
         /**
-         * Displays the user and OTP for the specified position. For HOTP, displays
-         * the button for generating the next OTP value; for TOTP, displays the countdown indicator.
+         * Binds the rows of the changed positions again, without laying out the rest of the list.
+         * Rows that aren't on screen are bound when they are scrolled into view anyway.
+         *
+         * @param changed whether the contents of each position changed; the items must still be
+         *                at the positions they were at when they were last bound
          */
-        @SuppressLint("ClickableViewAccessibility")
+        void rebindRows(boolean[] changed) {
+            for (int i = 0, len = mHolders.size(); i < len; i++) {
+                RowViewHolder holder = mHolders.get(i);
+                if (holder.position < changed.length && changed[holder.position]) {
+                    bindView(holder, holder.position, getItem(holder.position));
+                }
+            }
+        }
+
+        /**
+         * Binds the row of a single account again, if it is on screen.
+         */
+        void rebindRow(PinInfo pinInfo) {
+            for (int i = 0, len = mHolders.size(); i < len; i++) {
+                RowViewHolder holder = mHolders.get(i);
+                if (holder.position < getCount() && getItem(holder.position) == pinInfo) {
+                    bindView(holder, holder.position, pinInfo);
+                }
+            }
+        }
+
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
-            LayoutInflater inflater = getLayoutInflater();
             PinInfo currentPin = getItem(position);
 
             View row;
-            if (convertView != null) {
+            RowViewHolder holder;
+            if (convertView != null && convertView.getTag() instanceof RowViewHolder) {
                 // Reuse an existing view
                 row = convertView;
+                holder = (RowViewHolder) row.getTag();
             } else {
                 // Create a new view
-                row = inflater.inflate(R.layout.user_row, null);
+                row = getLayoutInflater().inflate(R.layout.user_row, null);
+                holder = new RowViewHolder(row);
+                row.setTag(holder);
+                mHolders.add(holder);
             }
 
             if (currentPin == null) return row;
 
-            ImageView iconView = row.findViewById(R.id.icon);
-            TextView pinView = row.findViewById(R.id.pin_value);
-            TextView userView = row.findViewById(R.id.current_user);
-            ImageButton buttonView = row.findViewById(R.id.next_otp);
-            CountdownIndicator countdownIndicator =
-                    row.findViewById(R.id.countdown_icon);
+            bindView(holder, position, currentPin);
+            return row;
+        }
 
-            View.OnTouchListener dragOnTouch = (v, event) -> {
-                if (event.getAction() == MotionEvent.ACTION_DOWN) {
-                    mUserList.startDrag(position);
-                    return true;
-                }
-                return false;
-            };
-            countdownIndicator.setOnTouchListener(dragOnTouch);
-            iconView.setOnTouchListener(dragOnTouch);
+        /**
+         * Displays the user and OTP for the specified position. For HOTP, displays
+         * the button for generating the next OTP value; for TOTP, displays the countdown indicator.
+         */
+        private void bindView(RowViewHolder holder, int position, PinInfo currentPin) {
+            holder.position = position;
 
             if (currentPin.image != null) {
-                iconView.setImageBitmap(currentPin.image);
-                iconView.setVisibility(View.VISIBLE);
+                holder.iconView.setImageBitmap(currentPin.image);
+                holder.iconView.setVisibility(View.VISIBLE);
             } else {
-                iconView.setVisibility(View.GONE);
+                holder.iconView.setVisibility(View.GONE);
             }
 
+            CountdownIndicator countdownIndicator = holder.countdownIndicator;
+            ImageButton buttonView = holder.buttonView;
             if (currentPin.isHotp) {
                 buttonView.setVisibility(View.VISIBLE);
                 buttonView.setEnabled(currentPin.hotpCodeGenerationAllowed);
@@ -1582,33 +1582,76 @@ public class AuthenticatorActivity extends TestableActivity {
                 } else {
                     buttonView.clearColorFilter();
                 }
-                ((ViewGroup) row).setDescendantFocusability(
+                ((ViewGroup) holder.row).setDescendantFocusability(
                         ViewGroup.FOCUS_BLOCK_DESCENDANTS); // makes long press work
-                NextOtpButtonListener clickListener = new NextOtpButtonListener(currentPin);
-                buttonView.setOnClickListener(clickListener);
-                row.setTag(clickListener);
+                if (holder.clickListener == null || holder.clickListener.mAccount != currentPin) {
+                    holder.clickListener = new NextOtpButtonListener(currentPin);
+                    buttonView.setOnClickListener(holder.clickListener);
+                }
 
                 countdownIndicator.setVisibility(View.GONE);
+                mCountdownAnimator.removeIndicator(countdownIndicator);
             } else { // TOTP, so no button needed
                 buttonView.setVisibility(View.GONE);
                 buttonView.setOnClickListener(null);
-                row.setTag(null);
+                holder.clickListener = null;
 
                 countdownIndicator.setVisibility(View.VISIBLE);
-                countdownIndicator.setPhase(mTotpCountdownPhase);
                 countdownIndicator.setColor(currentPin.color);
+                mCountdownAnimator.addIndicator(countdownIndicator);
             }
 
-            if (getString(R.string.empty_pin).equals(currentPin.pin)) {
+            TextView pinView = holder.pinView;
+            if (mEmptyPin.equals(currentPin.pin)) {
                 pinView.setTextScaleX(PIN_TEXT_SCALEX_UNDERSCORE); // smaller gap between underscores
             } else {
                 pinView.setTextScaleX(PIN_TEXT_SCALEX_NORMAL);
             }
             pinView.setText(currentPin.pin);
-            userView.setText(currentPin.user);
-            userView.setTextColor(currentPin.color);
+            holder.userView.setText(currentPin.user);
+            holder.userView.setTextColor(currentPin.color);
+        }
+    }
 
-            return row;
+    /**
+     * The views of a row of the account list, looked up once when the row is created.
+     */
+    private class RowViewHolder {
+        private final View row;
+        private final ImageView iconView;
+        private final TextView pinView;
+        private final TextView userView;
+        private final ImageButton buttonView;
+        private final CountdownIndicator countdownIndicator;
+
+        /**
+         * Position of the account the row was last bound to.
+         */
+        private int position;
+
+        /**
+         * HOTP only: Listener of the button of the account the row was last bound to.
+         */
+        private NextOtpButtonListener clickListener;
+
+        @SuppressLint("ClickableViewAccessibility")
+        private RowViewHolder(View row) {
+            this.row = row;
+            iconView = row.findViewById(R.id.icon);
+            pinView = row.findViewById(R.id.pin_value);
+            userView = row.findViewById(R.id.current_user);
+            buttonView = row.findViewById(R.id.next_otp);
+            countdownIndicator = row.findViewById(R.id.countdown_icon);
+
+            View.OnTouchListener dragOnTouch = (v, event) -> {
+                if (event.getAction() == MotionEvent.ACTION_DOWN) {
+                    mUserList.startDrag(position);
+                    return true;
+                }
+                return false;
+            };
+            countdownIndicator.setOnTouchListener(dragOnTouch);
+            iconView.setOnTouchListener(dragOnTouch);
         }
     }
 
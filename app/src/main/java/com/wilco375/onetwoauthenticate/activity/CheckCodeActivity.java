@@ -26,6 +26,7 @@ import android.view.View;
 import android.widget.TextView;
 
 import com.wilco375.onetwoauthenticate.database.AccountDb;
+import com.wilco375.onetwoauthenticate.database.AccountStore;
 import com.wilco375.onetwoauthenticate.util.Base32String;
 import com.wilco375.onetwoauthenticate.util.Base32String.DecodingException;
 import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator;
@@ -66,7 +67,7 @@ public class CheckCodeActivity extends AppCompatActivity {
         Bundle extras = intent.getExtras();
         String user = extras.getString("user");
 
-        AccountDb accountDb = DependencyInjector.getAccountDb();
+        AccountStore accountDb = DependencyInjector.getAccountStore();
         AccountDb.OtpType type = accountDb.getType(user);
         if (type == AccountDb.OtpType.HOTP) {
             mCounterValue.setText(accountDb.getCounter(user).toString());
@@ -8,6 +8,7 @@ import android.support.v7.app.AppCompatActivity;
 import android.widget.Toast;
 
 import com.wilco375.onetwoauthenticate.R;
+import com.wilco375.onetwoauthenticate.database.Account;
 import com.wilco375.onetwoauthenticate.otp.OtpSource;
 import com.wilco375.onetwoauthenticate.otp.OtpSourceException;
 import com.wilco375.onetwoauthenticate.testability.DependencyInjector;
@@ -19,7 +20,21 @@ public class CopyKeyActivity extends AppCompatActivity {
 
         super.onCreate(savedInstanceState);
 
+        if (DependencyInjector.getAccountStoreError() != null) {
+            Toast.makeText(this, R.string.error_accounts_unavailable, Toast.LENGTH_LONG).show();
+            finish();
+            return;
+        }
+
         String name = getIntent().getStringExtra("name");
+        // Shortcuts store the row id, so they keep working when the account is renamed
+        long id = getIntent().getLongExtra("id", -1);
+        if (id != -1) {
+            Account account = DependencyInjector.getAccountStore().getAccount(id);
+            if (account != null) {
+                name = account.email;
+            }
+        }
         OtpSource otpProvider = DependencyInjector.getOtpProvider();
         try {
             String code = otpProvider.getNextCode(name);
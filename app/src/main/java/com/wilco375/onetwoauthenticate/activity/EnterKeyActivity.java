@@ -86,7 +86,7 @@ public class EnterKeyActivity extends WizardPageActivity<Serializable> implement
         boolean success = true;
 
         String userEnteredName = mAccountName.getText().toString();
-        if (DependencyInjector.getAccountDb().nameExists(userEnteredName)) {
+        if (DependencyInjector.getAccountStore().nameExists(userEnteredName)) {
             mAccountName.setError(submitting ? getString(R.string.error_exists) : null);
             success = false;
         } else {
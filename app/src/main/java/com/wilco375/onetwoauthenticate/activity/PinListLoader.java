@@ -0,0 +1,204 @@
+package com.wilco375.onetwoauthenticate.activity;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.wilco375.onetwoauthenticate.R;
+import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.otp.OtpCodeSnapshot;
+import com.wilco375.onetwoauthenticate.otp.OtpSource;
+import com.wilco375.onetwoauthenticate.otp.OtpSourceException;
+import com.wilco375.onetwoauthenticate.util.IconCache;
+import com.wilco375.onetwoauthenticate.util.Utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Computes everything the account list shows, the codes, colors and icons of all accounts, on a
+ * background thread and passes it to the UI thread, so that the UI thread only binds rows.
+ * <p>
+ * Loads are requested with {@link #requestLoad()}, for example when the TOTP counter or the
+ * accounts change. If another load is requested while a load is running, the running load is
+ * stale and its result is dropped. If a result arrives before the UI thread took the previous
+ * one, it replaces that one.
+ */
+class PinListLoader {
+    private static final String LOCAL_TAG = "PinListLoader";
+
+    /**
+     * Size of the icons in the list in dp.
+     */
+    static final int ICON_SIZE_DP = 70;
+
+    /**
+     * Receives the results on the UI thread.
+     */
+    interface Listener {
+        void onPinListLoaded(PinList list);
+    }
+
+    /**
+     * Receives the result of {@link #loadNextHotpCode} on the UI thread.
+     */
+    interface HotpCodeListener {
+        void onHotpCodeLoaded(String code);
+
+        void onHotpCodeFailed(OtpSourceException e);
+    }
+
+    /**
+     * Immutable list of the rows of the account list in display order.
+     */
+    static final class PinList {
+        /**
+         * The TOTP counter value at which the codes were computed.
+         */
+        final long totpCounterValue;
+        final List<Row> rows;
+
+        PinList(long totpCounterValue, List<Row> rows) {
+            this.totpCounterValue = totpCounterValue;
+            this.rows = Collections.unmodifiableList(rows);
+        }
+    }
+
+    /**
+     * What a single row shows.
+     */
+    static final class Row {
+        final long id;
+        final String user;
+        final OtpType type;
+        final int color;
+        /**
+         * Current code of a TOTP account or {@code null} for HOTP accounts and accounts for which
+         * no code could be generated.
+         */
+        final String code;
+        /**
+         * Icon scaled to the size in the list or {@code null} if the account has none.
+         */
+        final Bitmap icon;
+
+        Row(long id, String user, OtpType type, int color, String code, Bitmap icon) {
+            this.id = id;
+            this.user = user;
+            this.type = type;
+            this.color = color;
+            this.code = code;
+            this.icon = icon;
+        }
+    }
+
+    private final OtpSource mOtpSource;
+    private final IconCache mIconCache;
+    private final Listener mListener;
+    private final int mDefaultColor;
+    private final int mIconSize = Utilities.dpToPx(ICON_SIZE_DP);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ExecutorService mWorker = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, LOCAL_TAG));
+
+    /**
+     * Whether a load has been requested that hasn't started yet.
+     */
+    private final AtomicBoolean mLoadRequested = new AtomicBoolean();
+
+    /**
+     * Latest result that the UI thread hasn't taken yet.
+     */
+    private final AtomicReference<PinList> mLoaded = new AtomicReference<>();
+
+    private volatile boolean mClosed;
+
+    PinListLoader(Context context, OtpSource otpSource, IconCache iconCache, Listener listener) {
+        mOtpSource = otpSource;
+        mIconCache = iconCache;
+        mListener = listener;
+        mDefaultColor = context.getResources().getColor(R.color.theme_color);
+    }
+
+    /**
+     * Requests a load. Can be called from any thread.
+     */
+    void requestLoad() {
+        if (mLoadRequested.compareAndSet(false, true)) {
+            execute(this::load);
+        }
+    }
+
+    /**
+     * Advances the counter of a HOTP account and computes its code on the worker thread.
+     */
+    void loadNextHotpCode(String user, HotpCodeListener listener) {
+        execute(() -> {
+            try {
+                String code = mOtpSource.getNextCode(user);
+                postUnlessClosed(() -> listener.onHotpCodeLoaded(code));
+            } catch (OtpSourceException e) {
+                postUnlessClosed(() -> listener.onHotpCodeFailed(e));
+            }
+        });
+    }
+
+    /**
+     * Stops the worker. Results that haven't been delivered yet are dropped.
+     */
+    void close() {
+        mClosed = true;
+        mWorker.shutdownNow();
+    }
+
+    private void load() {
+        mLoadRequested.set(false);
+        OtpCodeSnapshot codes = mOtpSource.getCurrentCodes();
+
+        List<Row> rows = new ArrayList<>(codes.size());
+        for (OtpCodeSnapshot.Entry entry : codes.getEntries()) {
+            rows.add(new Row(entry.accountId, entry.accountName, entry.type,
+                    (entry.color != null) ? entry.color : mDefaultColor, entry.code,
+                    mIconCache.get(entry.accountId, entry.accountName, mIconSize)));
+        }
+
+        if (mLoadRequested.get()) {
+            // The accounts or the counter changed while loading, the next load replaces this one
+            return;
+        }
+        if (mLoaded.getAndSet(new PinList(codes.getTotpCounterValue(), rows)) == null) {
+            postUnlessClosed(this::deliver);
+        }
+    }
+
+    private void deliver() {
+        PinList list = mLoaded.getAndSet(null);
+        if (list != null) {
+            mListener.onPinListLoaded(list);
+        }
+    }
+
+    private void execute(Runnable runnable) {
+        try {
+            mWorker.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            // Closed, nobody is waiting for the result
+        }
+    }
+
+    private void postUnlessClosed(Runnable runnable) {
+        mMainHandler.post(() -> {
+            if (!mClosed) {
+                runnable.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,148 @@
+package com.wilco375.onetwoauthenticate.activity;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ShortcutInfo;
+import android.content.pm.ShortcutManager;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.Icon;
+import android.os.Build;
+import android.support.v4.content.ContextCompat;
+
+import com.wilco375.onetwoauthenticate.BuildConfig;
+import com.wilco375.onetwoauthenticate.R;
+import com.wilco375.onetwoauthenticate.database.Account;
+import com.wilco375.onetwoauthenticate.database.AccountChange;
+import com.wilco375.onetwoauthenticate.database.AccountStore;
+import com.wilco375.onetwoauthenticate.testability.DependencyInjector;
+import com.wilco375.onetwoauthenticate.util.IconCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the dynamic shortcuts that copy the codes of the top accounts in sync with the accounts.
+ * Listens to the {@link AccountStore}, so the shortcuts are only rebuilt when the accounts they
+ * show are added, removed, renamed or moved.
+ */
+class ShortcutUpdater implements AccountStore.AccountChangeListener {
+    /**
+     * Size in pixels of the account icon in the middle of a shortcut icon.
+     */
+    private static final int FOREGROUND_SIZE = 24;
+
+    private static ShortcutUpdater sInstance;
+
+    private final Context mContext;
+
+    /**
+     * Whether an update has been started that hasn't read the accounts yet, so that a burst of
+     * changes, for example from an import, only rebuilds the shortcuts once.
+     */
+    private final AtomicBoolean mUpdatePending = new AtomicBoolean();
+
+    private ShortcutUpdater(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Registers the updater with the current account store, if it isn't registered yet.
+     */
+    static synchronized void register(Context context) {
+        if (sInstance == null) {
+            sInstance = new ShortcutUpdater(context);
+        }
+        DependencyInjector.getAccountStore().addChangeListener(sInstance);
+    }
+
+    @Override
+    public void onAccountsChanged(AccountChange change) {
+        if (affectsShortcuts(change)) {
+            update();
+        }
+    }
+
+    /**
+     * Whether the change adds, removes, renames or moves accounts. The shortcuts show nothing else
+     * of the accounts, so for example counter changes don't affect them.
+     */
+    private static boolean affectsShortcuts(AccountChange change) {
+        if (change.reordered || !change.insertedIds.isEmpty() || !change.deletedIds.isEmpty()) {
+            return true;
+        }
+        for (long id : change.updatedIds) {
+            if (!change.before.getById(id).email.equals(change.after.getById(id).email)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rebuilds the shortcuts on a background thread.
+     */
+    void update() {
+        if (Build.VERSION.SDK_INT < 25 || !BuildConfig.PRO) return;
+        if (!mUpdatePending.compareAndSet(false, true)) return;
+
+        Context context = mContext;
+        new Thread(() -> {
+            mUpdatePending.set(false);
+            List<Account> accounts = new ArrayList<>();
+            DependencyInjector.getAccountStore().getAccounts(accounts);
+            IconCache iconCache = DependencyInjector.getIconCache();
+
+            ShortcutManager sm = (ShortcutManager) context.getSystemService(Context.SHORTCUT_SERVICE);
+            if (sm == null) return;
+
+            int maxShortcuts = sm.getMaxShortcutCountPerActivity();
+            ArrayList<ShortcutInfo> shortcuts = new ArrayList<>();
+            for (int i = 0; i < accounts.size() && i < maxShortcuts; i++) {
+                String name = accounts.get(i).email;
+                Icon icon;
+                Bitmap foreground = iconCache.get(accounts.get(i).id, name, FOREGROUND_SIZE);
+                if (foreground != null) {
+                    Drawable background = ContextCompat.getDrawable(context, R.drawable.ic_shortcut_bg);
+                    Bitmap bitmapIcon = Bitmap.createBitmap(48, 48, Bitmap.Config.ARGB_8888);
+                    Canvas canvas = new Canvas(bitmapIcon);
+
+                    // Draw background
+                    background.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+                    background.draw(canvas);
+
+                    // Draw foreground
+                    Paint paint = new Paint();
+                    paint.setAntiAlias(true);
+                    canvas.drawBitmap(foreground,
+                            new Rect(0, 0, foreground.getWidth(), foreground.getHeight()),
+                            new Rect(12, 12, 12 + FOREGROUND_SIZE, 12 + FOREGROUND_SIZE),
+                            paint
+                    );
+
+                    icon = Icon.createWithBitmap(bitmapIcon);
+                } else {
+                    icon = Icon.createWithResource(context, R.drawable.ic_shortcut_key);
+                }
+                shortcuts.add(
+                        new ShortcutInfo.Builder(context, "code-"+i)
+                                .setShortLabel(name.length() > 10 ? name.substring(0, 10) : name)
+                                .setLongLabel(name.length() > 20 ? name.substring(0, 20) : name)
+                                .setIcon(icon)
+                                .setIntent(
+                                        new Intent(context, CopyKeyActivity.class)
+                                                .setAction(Intent.ACTION_VIEW)
+                                                .putExtra("id", accounts.get(i).id)
+                                                .putExtra("name", name)
+                                )
+                                .build()
+                );
+            }
+            sm.setDynamicShortcuts(shortcuts);
+        }).start();
+    }
+}
@@ -0,0 +1,186 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.otp.HmacSha1Signer;
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.Signer;
+import com.wilco375.onetwoauthenticate.util.Base32String;
+import com.wilco375.onetwoauthenticate.util.Base32String.DecodingException;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Base class of the {@link AccountStore}s that serves the reads from an {@link AccountSnapshot}.
+ */
+abstract class AbstractAccountStore implements AccountStore {
+    /**
+     * Maximum number of initialized signers kept in {@link #mSignerCache}.
+     */
+    private static final int MAX_CACHED_SIGNERS = 512;
+
+    /**
+     * Signers of recently used secrets. Decoding a secret and precomputing its HMAC key schedule
+     * costs more than computing a code, so signers are reused across calls. Implementations must
+     * invalidate the signers of secrets they delete or replace.
+     */
+    final SignerCache mSignerCache = new SignerCache(MAX_CACHED_SIGNERS);
+
+    private final CopyOnWriteArrayList<AccountChangeListener> mChangeListeners =
+            new CopyOnWriteArrayList<>();
+
+    /**
+     * @return the account with the email or {@code null} if there is none.
+     */
+    Account getAccount(String email) {
+        return getSnapshot().get(email);
+    }
+
+    @Override
+    public Account getAccount(long id) {
+        return getSnapshot().getById(id);
+    }
+
+    @Override
+    public boolean nameExists(String email) {
+        return getAccount(email) != null;
+    }
+
+    @Override
+    public String getSecret(String email) {
+        Account account = getAccount(email);
+        return (account == null) ? null : account.secret;
+    }
+
+    @Override
+    public Integer getColor(String email) {
+        Account account = getAccount(email);
+        return (account == null) ? null : account.color;
+    }
+
+    @Override
+    public Integer getCounter(String email) {
+        Account account = getAccount(email);
+        return (account == null) ? null : account.counter;
+    }
+
+    @Override
+    public OtpType getType(String email) {
+        Account account = getAccount(email);
+        return (account == null) ? null : account.type;
+    }
+
+    @Override
+    public boolean isGoogleAccount(String email) {
+        Account account = getAccount(email);
+        return account != null && account.googleAccount;
+    }
+
+    @Override
+    public String findGoogleCorpAccount() {
+        return nameExists(AccountDb.GOOGLE_CORP_ACCOUNT_NAME)
+                ? AccountDb.GOOGLE_CORP_ACCOUNT_NAME : null;
+    }
+
+    @Override
+    public void forEachAccount(AccountVisitor visitor) {
+        List<Account> accounts = getSnapshot().getAccounts();
+        for (int i = 0; i < accounts.size(); i++) {
+            visitor.visit(accounts.get(i));
+        }
+    }
+
+    @Override
+    public int getNames(Collection<String> result) {
+        AccountSnapshot snapshot = getSnapshot();
+        for (int i = 0; i < snapshot.size(); i++) {
+            result.add(snapshot.get(i).email);
+        }
+        return snapshot.size();
+    }
+
+    @Override
+    public int getAccounts(Collection<Account> result) {
+        AccountSnapshot snapshot = getSnapshot();
+        result.addAll(snapshot.getAccounts());
+        return snapshot.size();
+    }
+
+    @Override
+    public Signer getCachedSigningOracle(String secret) {
+        Signer signer = mSignerCache.get(secret);
+        if (signer == null) {
+            try {
+                signer = createSigner(secret);
+            } catch (DecodingException e) {
+                return null;
+            }
+            mSignerCache.put(secret, signer);
+        }
+        return signer;
+    }
+
+    @Override
+    public Signer getCachedSigningOracle(Account account) {
+        if (account.key == null) {
+            return null;
+        }
+        Signer signer = mSignerCache.get(account.secret);
+        if (signer == null) {
+            signer = new HmacSha1Signer(account.key);
+            mSignerCache.put(account.secret, signer);
+        }
+        return signer;
+    }
+
+    /**
+     * Creates a signer for a Base32 encoded secret.
+     */
+    static Signer createSigner(String secret) throws DecodingException {
+        return new HmacSha1Signer(Base32String.decode(secret));
+    }
+
+    @Override
+    public void addChangeListener(AccountChangeListener listener) {
+        mChangeListeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void removeChangeListener(AccountChangeListener listener) {
+        mChangeListeners.remove(listener);
+    }
+
+    boolean hasChangeListeners() {
+        return !mChangeListeners.isEmpty();
+    }
+
+    /**
+     * Tells the listeners how the accounts changed from {@code before} to {@code after}, unless
+     * they are the same. Must be called after every write while holding the write lock, so
+     * that the listeners see the changes in order.
+     */
+    void notifyChanged(AccountSnapshot before, AccountSnapshot after) {
+        if (before == after || mChangeListeners.isEmpty()) {
+            return;
+        }
+        AccountChange change = AccountChange.between(before, after);
+        if (change.isEmpty()) {
+            return;
+        }
+        for (AccountChangeListener listener : mChangeListeners) {
+            listener.onAccountsChanged(change);
+        }
+    }
+
+    @Override
+    public void update(String email, String secret, String oldEmail, OtpType type,
+                       Integer counter) {
+        update(email, secret, oldEmail, type, counter, null);
+    }
+
+    @Override
+    public void update(String email, String secret, String oldEmail, OtpType type,
+                       Integer counter, Boolean googleAccount) {
+        update(email, secret, oldEmail, type, counter, googleAccount, null);
+    }
+}
@@ -0,0 +1,103 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.util.Base32String;
+import com.wilco375.onetwoauthenticate.util.Base32String.DecodingException;
+
+import java.util.Locale;
+
+/**
+ * Immutable copy of a row of the accounts table.
+ */
+public final class Account {
+    static final int PROVIDER_UNKNOWN = 0;
+    static final int PROVIDER_GOOGLE = 1;
+
+    /**
+     * Row id of the account.
+     */
+    public final long id;
+    public final String email;
+    /**
+     * Base32 encoded key, as entered by the user and shown when exporting the accounts.
+     */
+    public final String secret;
+    /**
+     * Key decoded from {@link #secret}, used to compute codes, or {@code null} if the secret is
+     * empty or not valid Base32. Must not be modified.
+     */
+    public final byte[] key;
+    public final OtpType type;
+    public final Integer counter;
+    /**
+     * Source of the key as stored in the database, for example whether it was added from Google.
+     */
+    public final int provider;
+    /**
+     * Custom color of the account or {@code null} if the default color should be used.
+     */
+    public final Integer color;
+    /**
+     * Position of the account in the list or {@code null} if it has never been reordered.
+     */
+    public final Integer sort;
+    /**
+     * Whether the key is for a Google account, see {@link AccountStore#isGoogleAccount(String)}.
+     */
+    public final boolean googleAccount;
+
+    /**
+     * Creates an account, decoding the key from the secret.
+     */
+    public Account(long id, String email, String secret, OtpType type, Integer counter,
+                   int provider, Integer color, Integer sort) {
+        this(id, email, secret, decodeKey(secret), type, counter, provider, color, sort);
+    }
+
+    /**
+     * Creates an account whose key has already been decoded from the secret.
+     */
+    public Account(long id, String email, String secret, byte[] key, OtpType type,
+                   Integer counter, int provider, Integer color, Integer sort) {
+        this.id = id;
+        this.email = email;
+        this.secret = secret;
+        this.key = key;
+        this.type = type;
+        this.counter = counter;
+        this.provider = provider;
+        this.color = color;
+        this.sort = sort;
+        this.googleAccount = isGoogleAccount(email, provider);
+    }
+
+    /**
+     * Decodes a Base32 encoded secret.
+     *
+     * @return the key or {@code null} if the secret is empty or not valid Base32.
+     */
+    static byte[] decodeKey(String secret) {
+        if (secret == null) {
+            return null;
+        }
+        try {
+            byte[] key = Base32String.decode(secret);
+            return (key.length == 0) ? null : key;
+        } catch (DecodingException e) {
+            return null;
+        }
+    }
+
+    private static boolean isGoogleAccount(String email, int provider) {
+        if (provider == PROVIDER_GOOGLE) {
+            // The account is marked as source: Google
+            return true;
+        }
+        // The account is from an unknown source. Could be a Google account added by scanning
+        // a QR code or by manually entering a key
+        String emailLowerCase = email.toLowerCase(Locale.US);
+        return (emailLowerCase.endsWith("@gmail.com"))
+                || (emailLowerCase.endsWith("@google.com"))
+                || (email.equals(AccountDb.GOOGLE_CORP_ACCOUNT_NAME));
+    }
+}
@@ -0,0 +1,110 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Difference between two {@link AccountSnapshot}s of an {@link AccountStore}, passed to its
+ * {@link AccountStore.AccountChangeListener}s. Accounts are identified by their row id, so a
+ * renamed account is updated rather than deleted and inserted.
+ */
+public final class AccountChange {
+    /**
+     * The accounts before the change.
+     */
+    public final AccountSnapshot before;
+    /**
+     * The accounts after the change.
+     */
+    public final AccountSnapshot after;
+    /**
+     * Ids of the added accounts, in display order.
+     */
+    public final Set<Long> insertedIds;
+    /**
+     * Ids of the accounts of which anything but the position changed, in display order.
+     */
+    public final Set<Long> updatedIds;
+    /**
+     * Ids of the removed accounts, in their previous display order.
+     */
+    public final Set<Long> deletedIds;
+    /**
+     * Whether the accounts that are in both snapshots are in a different order.
+     */
+    public final boolean reordered;
+
+    private AccountChange(AccountSnapshot before, AccountSnapshot after, Set<Long> insertedIds,
+                          Set<Long> updatedIds, Set<Long> deletedIds, boolean reordered) {
+        this.before = before;
+        this.after = after;
+        this.insertedIds = Collections.unmodifiableSet(insertedIds);
+        this.updatedIds = Collections.unmodifiableSet(updatedIds);
+        this.deletedIds = Collections.unmodifiableSet(deletedIds);
+        this.reordered = reordered;
+    }
+
+    /**
+     * Compares two snapshots.
+     */
+    static AccountChange between(AccountSnapshot before, AccountSnapshot after) {
+        Set<Long> inserted = new LinkedHashSet<>();
+        Set<Long> updated = new LinkedHashSet<>();
+        Set<Long> deleted = new LinkedHashSet<>();
+        // Ids of the accounts in both snapshots, in the order of each snapshot
+        List<Long> keptBefore = new ArrayList<>(before.size());
+        List<Long> keptAfter = new ArrayList<>(after.size());
+
+        for (int i = 0; i < before.size(); i++) {
+            long id = before.get(i).id;
+            if (after.indexOfId(id) < 0) {
+                deleted.add(id);
+            } else {
+                keptBefore.add(id);
+            }
+        }
+        for (int i = 0; i < after.size(); i++) {
+            Account account = after.get(i);
+            Account old = before.getById(account.id);
+            if (old == null) {
+                inserted.add(account.id);
+            } else {
+                keptAfter.add(account.id);
+                if (!sameContent(old, account)) {
+                    updated.add(account.id);
+                }
+            }
+        }
+        return new AccountChange(before, after, inserted, updated, deleted,
+                !keptBefore.equals(keptAfter));
+    }
+
+    /**
+     * Compares all values of two versions of an account except their position.
+     */
+    private static boolean sameContent(Account a, Account b) {
+        return a == b || (equal(a.email, b.email)
+                && equal(a.secret, b.secret)
+                && Arrays.equals(a.key, b.key)
+                && a.type == b.type
+                && equal(a.counter, b.counter)
+                && a.provider == b.provider
+                && equal(a.color, b.color));
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+
+    /**
+     * Whether no account was added, removed, changed or moved.
+     */
+    public boolean isEmpty() {
+        return insertedIds.isEmpty() && updatedIds.isEmpty() && deletedIds.isEmpty()
+                && !reordered;
+    }
+}
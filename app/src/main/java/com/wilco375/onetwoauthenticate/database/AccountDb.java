@@ -23,34 +23,51 @@ import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
+import com.wilco375.onetwoauthenticate.otp.HmacSha1Signer;
 import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.Signer;
 import com.wilco375.onetwoauthenticate.util.Base32String;
 import com.wilco375.onetwoauthenticate.util.Base32String.DecodingException;
 
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
-
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A database of email addresses and secret values
  *
  * @author sweis@google.com (Steve Weis)
  */
-public class AccountDb {
+public class AccountDb extends AbstractAccountStore {
     public static final Integer DEFAULT_HOTP_COUNTER = 0;
 
     public static final String GOOGLE_CORP_ACCOUNT_NAME = "Google Internal 2Factor";
 
     private static final String ID_COLUMN = "_id";
     private static final String EMAIL_COLUMN = "email";
-    private static final String SECRET_COLUMN = "secret";
+    // @VisibleForTesting
+    static final String SECRET_COLUMN = "secret";
+    /**
+     * Secret encrypted by {@link SecretCipher}. The secret column is empty if this is set.
+     * {@code NULL} for rows written by an older version after a downgrade.
+     */
+    // @VisibleForTesting
+    static final String SEALED_SECRET_COLUMN = "sealed_secret";
     private static final String COUNTER_COLUMN = "counter";
     private static final String TYPE_COLUMN = "type";
     // @VisibleForTesting
@@ -64,14 +81,126 @@ public class AccountDb {
     // @VisibleForTesting
     static final String PATH = "databases";
 
+    /**
+     * Table with a single row holding the wrapped data key of {@link SecretCipher}.
+     */
+    private static final String DATA_KEY_TABLE_NAME = "data_key";
+    private static final String WRAPPED_KEY_COLUMN = "wrapped";
+    private static final String WRAPPING_COLUMN = "wrapping";
+
     private static final String TABLE_INFO_COLUMN_NAME_COLUMN = "name";
 
-    private static final int PROVIDER_UNKNOWN = 0;
-    private static final int PROVIDER_GOOGLE = 1;
+    // @VisibleForTesting
+    static final String EMAIL_INDEX_NAME = "accounts_email";
+    // @VisibleForTesting
+    static final String ORDER_INDEX_NAME = "accounts_sort";
+
+    /**
+     * Version of the schema created by {@link #migrate()}, stored as the user version of the
+     * database.
+     */
+    // @VisibleForTesting
+    static final int SCHEMA_VERSION = 3;
+
+    /**
+     * Columns read into an {@link Account}, in the order of the {@code *_INDEX} constants below, so
+     * that rows can be read without looking up column indices.
+     */
+    private static final String[] ACCOUNT_PROJECTION = {
+            ID_COLUMN, EMAIL_COLUMN, SECRET_COLUMN, TYPE_COLUMN, COUNTER_COLUMN, PROVIDER_COLUMN,
+            COLOR_COLUMN, ORDER_COLUMN, SEALED_SECRET_COLUMN};
+    private static final int ID_INDEX = 0;
+    private static final int EMAIL_INDEX = 1;
+    private static final int SECRET_INDEX = 2;
+    private static final int TYPE_INDEX = 3;
+    private static final int COUNTER_INDEX = 4;
+    private static final int PROVIDER_INDEX = 5;
+    private static final int COLOR_INDEX = 6;
+    private static final int ORDER_INDEX = 7;
+    private static final int SEALED_SECRET_INDEX = 8;
+
+    /**
+     * Maximum time {@link #close()} waits for pending writes.
+     */
+    private static final long WRITER_SHUTDOWN_TIMEOUT_SECONDS = 5;
 
     // @VisibleForTesting
     SQLiteDatabase mDatabase;
 
+    /**
+     * Compiled statement that increments the counter of the account whose email is bound to it, or
+     * {@code null} if it hasn't been used yet.
+     *
+     * @GuardedBy {@link #mIncrementCounterLock}
+     */
+    private SQLiteStatement mIncrementCounterStatement;
+
+    /**
+     * Same as {@link #mIncrementCounterStatement}, but for the account whose row id is bound to it.
+     *
+     * @GuardedBy {@link #mIncrementCounterLock}
+     */
+    private SQLiteStatement mIncrementCounterByIdStatement;
+
+    private final Object mIncrementCounterLock = new Object();
+
+    /**
+     * Latest order passed to {@link #reorderAsync} that hasn't been taken by the writing thread
+     * yet, or {@code null} if there is none.
+     *
+     * @GuardedBy {@link #mPendingOrderLock}
+     */
+    private String[] mPendingOrder;
+
+    /**
+     * Callbacks of the {@link #reorderAsync} calls that {@link #mPendingOrder} replaced.
+     *
+     * @GuardedBy {@link #mPendingOrderLock}
+     */
+    private final List<Runnable> mPendingOrderCallbacks = new ArrayList<>();
+
+    private final Object mPendingOrderLock = new Object();
+
+    /**
+     * Single thread that all writes run on, created when it is first used.
+     *
+     * @GuardedBy {@link #mWriterLock}
+     */
+    private ExecutorService mWriter;
+
+    /**
+     * The thread of {@link #mWriter} or {@code null} if it hasn't been started.
+     */
+    private volatile Thread mWriterThread;
+
+    private final Object mWriterLock = new Object();
+
+    /**
+     * Copy of all accounts that reads are served from, or {@code null} if it hasn't been loaded
+     * yet. Replaced after every write, by patching in the changed rows except after a reorder.
+     */
+    private volatile AccountSnapshot mSnapshot;
+
+    /**
+     * Held while writing to the database and publishing the resulting snapshot, so that
+     * snapshots are published in the same order as the writes.
+     */
+    private final Object mWriteLock = new Object();
+
+    /**
+     * Cipher of the sealed secrets, loaded when the database is opened.
+     */
+    private final SecretCipher mSecretCipher;
+
+    /**
+     * Secrets opened by {@link #readAccount(Cursor)}, by row id, so that reloading the snapshot
+     * only decrypts the rows whose sealed secret changed. Together with the signer cache this
+     * keeps decryption out of computing codes.
+     *
+     * @GuardedBy {@link #mWriteLock}
+     */
+    private final Map<Long, OpenedSecret> mOpenedSecrets = new HashMap<>();
+
     private static final String LOCAL_TAG = "AccountDb";
 
     /**
@@ -99,9 +228,60 @@ public class AccountDb {
 
     }
 
-    public AccountDb(Context context) {
+    /**
+     * Opens the database and loads the data key of the sealed secrets.
+     *
+     * @throws DataKeyException if the data key can't be loaded, in which case none of the secrets
+     *                          can be read and the database is left unchanged.
+     */
+    public AccountDb(Context context) throws DataKeyException {
         mDatabase = openDatabase(context);
+        // Lets the snapshot be reloaded while the writer thread is writing
+        mDatabase.enableWriteAheadLogging();
+        try {
+            migrate();
+            mSecretCipher = loadSecretCipher();
+        } catch (DataKeyException e) {
+            mDatabase.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Brings the schema up to {@link #SCHEMA_VERSION}. The version is stored in the database, so
+     * once it is current opening the database costs a single pragma query.
+     */
+    private void migrate() throws DataKeyException {
+        int version = (int) DatabaseUtils.longForQuery(mDatabase, "PRAGMA user_version", null);
+        if (version >= SCHEMA_VERSION) {
+            return;
+        }
+        mDatabase.beginTransaction();
+        try {
+            if (version < 1) {
+                migrateToVersion1();
+            }
+            if (version < 2) {
+                migrateToVersion2();
+            }
+            if (version < 3) {
+                migrateToVersion3();
+            }
+            mDatabase.execSQL("PRAGMA user_version = " + SCHEMA_VERSION);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        if (version < 3) {
+            eraseFreedPages();
+        }
+    }
 
+    /**
+     * Creates the table, or adds the columns missing from the schemas that were used before the
+     * schema was versioned.
+     */
+    private void migrateToVersion1() {
         // Create the table if it doesn't exist
         mDatabase.execSQL(String.format(
                 "CREATE TABLE IF NOT EXISTS %s" +
@@ -109,14 +289,14 @@ public class AccountDb {
                         " %s INTEGER DEFAULT %s, %s INTEGER, %s INTEGER DEFAULT %s)",
                 TABLE_NAME, ID_COLUMN, EMAIL_COLUMN, SECRET_COLUMN, COUNTER_COLUMN,
                 DEFAULT_HOTP_COUNTER, TYPE_COLUMN,
-                PROVIDER_COLUMN, PROVIDER_UNKNOWN));
+                PROVIDER_COLUMN, Account.PROVIDER_UNKNOWN));
 
         Collection<String> tableColumnNames = listTableColumnNamesLowerCase();
         if (!tableColumnNames.contains(PROVIDER_COLUMN.toLowerCase(Locale.US))) {
             // Migrate from old schema where the PROVIDER_COLUMN wasn't there
             mDatabase.execSQL(String.format(
                     "ALTER TABLE %s ADD COLUMN %s INTEGER DEFAULT %s",
-                    TABLE_NAME, PROVIDER_COLUMN, PROVIDER_UNKNOWN));
+                    TABLE_NAME, PROVIDER_COLUMN, Account.PROVIDER_UNKNOWN));
         }
         if (!tableColumnNames.contains(COLOR_COLUMN.toLowerCase(Locale.US))) {
             // Migrate from old schema where the COLOR_COLUMN wasn't there
@@ -132,6 +312,111 @@ public class AccountDb {
         }
     }
 
+    /**
+     * Indexes the columns that accounts are looked up and sorted by.
+     */
+    private void migrateToVersion2() {
+        mDatabase.execSQL(String.format("CREATE INDEX IF NOT EXISTS %s ON %s (%s)",
+                ORDER_INDEX_NAME, TABLE_NAME, ORDER_COLUMN));
+
+        if (!listTableColumnNamesLowerCase().contains(EMAIL_COLUMN)) {
+            // Only tables that were never created by this class lack the column
+            return;
+        }
+        try {
+            mDatabase.execSQL(String.format("CREATE UNIQUE INDEX IF NOT EXISTS %s ON %s (%s)",
+                    EMAIL_INDEX_NAME, TABLE_NAME, EMAIL_COLUMN));
+        } catch (SQLiteException e) {
+            // Older versions didn't prevent duplicate emails, which can't be merged automatically
+            Log.w(LOCAL_TAG, "Duplicate emails, creating a non-unique index", e);
+            mDatabase.execSQL(String.format("CREATE INDEX IF NOT EXISTS %s ON %s (%s)",
+                    EMAIL_INDEX_NAME, TABLE_NAME, EMAIL_COLUMN));
+        }
+    }
+
+    /**
+     * Adds the table of the data key and the column of the sealed secrets, and seals the secrets
+     * of the existing accounts.
+     */
+    private void migrateToVersion3() throws DataKeyException {
+        mDatabase.execSQL(String.format(
+                "CREATE TABLE IF NOT EXISTS %s (%s INTEGER PRIMARY KEY, %s BLOB NOT NULL, "
+                        + "%s INTEGER NOT NULL)",
+                DATA_KEY_TABLE_NAME, ID_COLUMN, WRAPPED_KEY_COLUMN, WRAPPING_COLUMN));
+
+        Collection<String> tableColumnNames = listTableColumnNamesLowerCase();
+        if (!tableColumnNames.contains(SEALED_SECRET_COLUMN)) {
+            mDatabase.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s BLOB",
+                    TABLE_NAME, SEALED_SECRET_COLUMN));
+        }
+        if (!tableColumnNames.contains(SECRET_COLUMN)) {
+            // Only tables that were never created by this class lack the column
+            return;
+        }
+
+        SecretCipher cipher = loadSecretCipher();
+        // Overwrites the plain secrets instead of leaving them in the freed space of the pages.
+        // The pragma returns the new setting, so it can't go through execSQL.
+        DatabaseUtils.longForQuery(mDatabase, "PRAGMA secure_delete = ON", null);
+        SQLiteStatement statement = mDatabase.compileStatement(String.format(
+                "UPDATE %s SET %s = ?, %s = '' WHERE %s = ?",
+                TABLE_NAME, SEALED_SECRET_COLUMN, SECRET_COLUMN, ID_COLUMN));
+        Cursor cursor = mDatabase.query(TABLE_NAME, new String[]{ID_COLUMN, SECRET_COLUMN},
+                SEALED_SECRET_COLUMN + " IS NULL", null, null, null, null);
+        try {
+            while (cursor != null && cursor.moveToNext()) {
+                statement.bindBlob(1, cipher.seal(cursor.getString(1)));
+                statement.bindLong(2, cursor.getLong(0));
+                statement.executeUpdateDelete();
+            }
+        } finally {
+            tryCloseCursor(cursor);
+            statement.close();
+        }
+    }
+
+    /**
+     * Removes the plain secrets that {@link #migrateToVersion3()} replaced from the database
+     * files: copies the write-ahead log into the database and truncates it, rebuilds the database
+     * without its free pages and truncates the log again. Must be called outside a transaction.
+     * SQLite before 3.8.8 (Android 6.0) checkpoints without truncating, so there the old frames
+     * stay in the log until the rebuild and later writes overwrite them.
+     */
+    private void eraseFreedPages() {
+        DatabaseUtils.longForQuery(mDatabase, "PRAGMA wal_checkpoint(TRUNCATE)", null);
+        mDatabase.execSQL("VACUUM");
+        DatabaseUtils.longForQuery(mDatabase, "PRAGMA wal_checkpoint(TRUNCATE)", null);
+    }
+
+    /**
+     * Gets the cipher of the sealed secrets, creating the data key if there is none yet. Only
+     * called while opening the database.
+     */
+    private SecretCipher loadSecretCipher() throws DataKeyException {
+        try {
+            Cursor cursor = mDatabase.query(DATA_KEY_TABLE_NAME,
+                    new String[]{WRAPPED_KEY_COLUMN, WRAPPING_COLUMN}, null, null, null, null, null);
+            try {
+                if (cursor != null && cursor.moveToFirst()) {
+                    return SecretCipher.unwrap(cursor.getBlob(0), cursor.getInt(1));
+                }
+            } finally {
+                tryCloseCursor(cursor);
+            }
+
+            int wrapping = SecretCipher.defaultWrapping();
+            byte[] wrapped = SecretCipher.wrapNewKey(wrapping);
+            ContentValues values = new ContentValues();
+            values.put(WRAPPED_KEY_COLUMN, wrapped);
+            values.put(WRAPPING_COLUMN, wrapping);
+            mDatabase.insertOrThrow(DATA_KEY_TABLE_NAME, null, values);
+            return SecretCipher.unwrap(wrapped, wrapping);
+        } catch (GeneralSecurityException e) {
+            // Without the data key none of the secrets can be read, don't overwrite any of them
+            throw new DataKeyException("Failed to load the data key", e);
+        }
+    }
+
     /*
      * Tries three times to open database before throwing AccountDbOpenException.
      */
@@ -150,7 +435,32 @@ public class AccountDb {
     /**
      * Closes this database and releases any system resources held.
      */
+    @Override
     public void close() {
+        ExecutorService writer;
+        synchronized (mWriterLock) {
+            writer = mWriter;
+            mWriter = null;
+        }
+        if (writer != null) {
+            // Let the pending writes finish, they are short
+            writer.shutdown();
+            try {
+                writer.awaitTermination(WRITER_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (mIncrementCounterLock) {
+            if (mIncrementCounterStatement != null) {
+                mIncrementCounterStatement.close();
+                mIncrementCounterStatement = null;
+            }
+            if (mIncrementCounterByIdStatement != null) {
+                mIncrementCounterByIdStatement.close();
+                mIncrementCounterByIdStatement = null;
+            }
+        }
         mDatabase.close();
     }
 
@@ -186,74 +496,332 @@ public class AccountDb {
     /*
      * deleteAllData() will remove all rows. Useful for testing.
      */
+    @Override
     public boolean deleteAllData() {
-        mDatabase.delete(AccountDb.TABLE_NAME, null, null);
+        await(submitWrite(() -> {
+            synchronized (mWriteLock) {
+                mDatabase.delete(AccountDb.TABLE_NAME, null, null);
+                mSignerCache.clear();
+                mOpenedSecrets.clear();
+                publishSnapshot(AccountSnapshot.EMPTY);
+            }
+            return null;
+        }));
         return true;
     }
 
-    public boolean nameExists(String email) {
-        Cursor cursor = getAccount(email);
+    /**
+     * Runs a write on the writer thread. Writes submitted from the writer thread itself run
+     * immediately, so that they can't wait for themselves.
+     */
+    private <T> Future<T> submitWrite(Callable<T> write) {
+        if (Thread.currentThread() == mWriterThread) {
+            FutureTask<T> task = new FutureTask<>(write);
+            task.run();
+            return task;
+        }
+        synchronized (mWriterLock) {
+            if (mWriter == null) {
+                mWriter = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, LOCAL_TAG + " writer");
+                    mWriterThread = thread;
+                    return thread;
+                });
+            }
+            return mWriter.submit(write);
+        }
+    }
+
+    /**
+     * Waits for a write, for the synchronous variants of the writing methods.
+     *
+     * @return the result of the write.
+     */
+    private static <T> T await(Future<T> write) {
+        boolean interrupted = false;
         try {
-            return !cursorIsEmpty(cursor);
+            while (true) {
+                try {
+                    return write.get();
+                } catch (InterruptedException e) {
+                    // The write can't be undone, so wait for it to finish anyway
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
         } finally {
-            tryCloseCursor(cursor);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Gets a copy of all accounts. Unlike the other getters, the snapshot is consistent across
+     * accounts and columns, and it is not affected by later writes.
+     */
+    @Override
+    public AccountSnapshot getSnapshot() {
+        AccountSnapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            synchronized (mWriteLock) {
+                snapshot = mSnapshot;
+                if (snapshot == null) {
+                    snapshot = loadSnapshot();
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads all accounts from the database and publishes them as the new snapshot. Must be called
+     * while holding {@link #mWriteLock}.
+     */
+    private AccountSnapshot loadSnapshot() {
+        final List<Account> accounts = new ArrayList<>();
+        queryAccounts(null, null, accounts::add);
+        AccountSnapshot snapshot = new AccountSnapshot(accounts);
+        if (mOpenedSecrets.size() > snapshot.size()) {
+            // Forget the secrets of deleted accounts
+            Iterator<Long> ids = mOpenedSecrets.keySet().iterator();
+            while (ids.hasNext()) {
+                if (snapshot.indexOfId(ids.next()) < 0) {
+                    ids.remove();
+                }
+            }
+        }
+        publishSnapshot(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Reads the accounts matching the selection again and patches them into the snapshot, so
+     * that a write only reads the rows it changed. Must be called while holding
+     * {@link #mWriteLock}.
+     */
+    private void patchSnapshot(String selection, String[] selectionArgs) {
+        final List<Account> changed = new ArrayList<>();
+        queryAccounts(selection, selectionArgs, changed::add);
+        AccountSnapshot snapshot = getSnapshot();
+        for (Account account : changed) {
+            snapshot = (snapshot.indexOfId(account.id) >= 0)
+                    ? snapshot.withAccount(account)
+                    : snapshot.withAddedAccount(account);
+        }
+        publishSnapshot(snapshot);
+    }
+
+    /**
+     * Removes a deleted account from the snapshot. Must be called while holding
+     * {@link #mWriteLock}.
+     */
+    private void patchSnapshotWithout(long id) {
+        mOpenedSecrets.remove(id);
+        AccountSnapshot snapshot = getSnapshot();
+        if (snapshot.indexOfId(id) >= 0) {
+            publishSnapshot(snapshot.withoutAccount(id));
         }
     }
 
-    public String getSecret(String email) {
-        Cursor cursor = getAccount(email);
+    @Override
+    public void addChangeListener(AccountChangeListener listener) {
+        super.addChangeListener(listener);
+        // Changes are found by comparing snapshots, so there must be one before the next write
+        getSnapshot();
+    }
+
+    /**
+     * Replaces the snapshot and tells the listeners what changed. Must be called while holding
+     * {@link #mWriteLock}.
+     */
+    private void publishSnapshot(AccountSnapshot snapshot) {
+        AccountSnapshot before = mSnapshot;
+        mSnapshot = snapshot;
+        if (before != null) {
+            // The first snapshot is loaded on demand, it doesn't follow a write
+            notifyChanged(before, snapshot);
+        }
+    }
+
+    /**
+     * Reads the matching accounts in display order with a single query of only the columns of
+     * {@link Account}.
+     */
+    private void queryAccounts(String selection, String[] selectionArgs, AccountVisitor visitor) {
+        Cursor cursor = mDatabase.query(TABLE_NAME, ACCOUNT_PROJECTION, selection, selectionArgs,
+                null, null, ORDER_COLUMN, null);
         try {
-            if (!cursorIsEmpty(cursor)) {
-                cursor.moveToFirst();
-                return cursor.getString(cursor.getColumnIndex(SECRET_COLUMN));
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    visitor.visit(readAccount(cursor));
+                }
             }
         } finally {
             tryCloseCursor(cursor);
         }
-        return null;
     }
 
-    public Integer getColor(String email) {
-        Cursor cursor = getAccount(email);
+    /**
+     * Reads the current row of a cursor over {@link #ACCOUNT_PROJECTION}. Must be called while
+     * holding {@link #mWriteLock}.
+     */
+    private Account readAccount(Cursor cursor) {
+        long id = cursor.getLong(ID_INDEX);
+        OpenedSecret secret;
+        if (cursor.isNull(SEALED_SECRET_INDEX)) {
+            // Written by an older version after a downgrade
+            String plaintext = cursor.getString(SECRET_INDEX);
+            secret = new OpenedSecret(null, plaintext, Account.decodeKey(plaintext));
+        } else {
+            byte[] sealed = cursor.getBlob(SEALED_SECRET_INDEX);
+            secret = mOpenedSecrets.get(id);
+            if (secret == null || !Arrays.equals(secret.sealed, sealed)) {
+                secret = openSecret(sealed);
+                mOpenedSecrets.put(id, secret);
+            }
+        }
+        return new Account(
+                id,
+                cursor.getString(EMAIL_INDEX),
+                secret.secret,
+                secret.key,
+                OtpType.getEnum(cursor.getInt(TYPE_INDEX)),
+                cursor.getInt(COUNTER_INDEX),
+                cursor.getInt(PROVIDER_INDEX),
+                cursor.isNull(COLOR_INDEX) ? null : cursor.getInt(COLOR_INDEX),
+                cursor.isNull(ORDER_INDEX) ? null : cursor.getInt(ORDER_INDEX));
+    }
+
+    private OpenedSecret openSecret(byte[] sealed) {
         try {
-            if (!cursorIsEmpty(cursor)) {
-                cursor.moveToFirst();
+            String secret = mSecretCipher.open(sealed);
+            return new OpenedSecret(sealed, secret, Account.decodeKey(secret));
+        } catch (GeneralSecurityException e) {
+            // Show the account without a key rather than hiding the others too
+            Log.e(LOCAL_TAG, "Failed to open secret", e);
+            return new OpenedSecret(sealed, "", null);
+        }
+    }
+
+    /**
+     * Secret read from a row, with the key decoded from it.
+     */
+    private static final class OpenedSecret {
+        /**
+         * The sealed secret it was opened from, or {@code null} if it was stored in plain text.
+         */
+        final byte[] sealed;
+        final String secret;
+        final byte[] key;
+
+        OpenedSecret(byte[] sealed, String secret, byte[] key) {
+            this.sealed = sealed;
+            this.secret = secret;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Stores the display order of the accounts in a single transaction. Only the accounts whose
+     * position changed are written.
+     *
+     * @param emails emails of the accounts in their new order
+     */
+    @Override
+    public void reorder(String[] emails) {
+        await(submitWrite(() -> {
+            writeOrder(emails);
+            return null;
+        }));
+    }
+
+    private void writeOrder(String[] emails) {
+        synchronized (mWriteLock) {
+            AccountSnapshot snapshot = getSnapshot();
+            int updated = 0;
+            mDatabase.beginTransaction();
+            try {
+                SQLiteStatement statement = mDatabase.compileStatement(String.format(
+                        "UPDATE %s SET %s = ? WHERE %s = ?",
+                        TABLE_NAME, ORDER_COLUMN, EMAIL_COLUMN));
                 try {
-                    return Integer.valueOf(cursor.getString(cursor.getColumnIndex(COLOR_COLUMN)));
-                } catch (NumberFormatException e) {
-                    return null;
+                    for (int i = 0; i < emails.length; i++) {
+                        Account account = snapshot.get(emails[i]);
+                        if (account != null && account.sort != null && account.sort == i) {
+                            continue;
+                        }
+                        statement.bindLong(1, i);
+                        statement.bindString(2, emails[i]);
+                        updated += statement.executeUpdateDelete();
+                    }
+                } finally {
+                    statement.close();
                 }
+                mDatabase.setTransactionSuccessful();
+            } catch (SQLiteException e) {
+                e.printStackTrace();
+                updated = 0;
+            } finally {
+                mDatabase.endTransaction();
+            }
+            if (updated > 0) {
+                loadSnapshot();
             }
-        } finally {
-            tryCloseCursor(cursor);
         }
-        return null;
     }
 
-    public void reorder(String[] emails) {
-        try {
-            for (int i = 0; i < emails.length; i++) {
-                mDatabase.execSQL("UPDATE " + TABLE_NAME + " SET " + ORDER_COLUMN + " = " + i + " WHERE " + EMAIL_COLUMN + " = " + DatabaseUtils.sqlEscapeString(emails[i]) + "; ");
+    /**
+     * Same as {@link #reorder(String[])}, but writes on a background thread. If the order changes
+     * again before the previous order has been written, only the latest order is written.
+     *
+     * @param onReordered called on the writer thread once the order or a later one has been
+     *                    written, or {@code null}
+     */
+    @Override
+    public void reorderAsync(String[] emails, Runnable onReordered) {
+        synchronized (mPendingOrderLock) {
+            boolean scheduled = mPendingOrder != null;
+            mPendingOrder = emails.clone();
+            if (onReordered != null) {
+                mPendingOrderCallbacks.add(onReordered);
+            }
+            if (scheduled) {
+                // The scheduled write hasn't taken the pending order yet, so it will write this one
+                return;
             }
-        } catch (SQLiteException e) {
-            e.printStackTrace();
         }
+        submitWrite(() -> {
+            String[] order;
+            List<Runnable> callbacks;
+            synchronized (mPendingOrderLock) {
+                order = mPendingOrder;
+                callbacks = new ArrayList<>(mPendingOrderCallbacks);
+                mPendingOrder = null;
+                mPendingOrderCallbacks.clear();
+            }
+            writeOrder(order);
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+            return null;
+        });
     }
 
     public static Signer getSigningOracle(String secret) {
         try {
             byte[] keyBytes = decodeKey(secret);
-            final Mac mac = Mac.getInstance("HMACSHA1");
-            mac.init(new SecretKeySpec(keyBytes, ""));
-
-            // Create a signer object out of the standard Java MAC implementation.
-            return mac::doFinal;
+            return new HmacSha1Signer(keyBytes);
         } catch (DecodingException error) {
             Log.e(LOCAL_TAG, error.getMessage());
-        } catch (NoSuchAlgorithmException error) {
-            Log.e(LOCAL_TAG, error.getMessage());
-        } catch (InvalidKeyException error) {
-            Log.e(LOCAL_TAG, error.getMessage());
         }
 
         return null;
@@ -263,147 +831,315 @@ public class AccountDb {
         return Base32String.decode(secret);
     }
 
-    public Integer getCounter(String email) {
-        Cursor cursor = getAccount(email);
-        try {
-            if (!cursorIsEmpty(cursor)) {
-                cursor.moveToFirst();
-                return cursor.getInt(cursor.getColumnIndex(COUNTER_COLUMN));
+    @Override
+    public void incrementCounter(String email) {
+        await(incrementCounterAsync(email));
+    }
+
+    /**
+     * Same as {@link #incrementCounter(String)}, but returns without waiting for the write.
+     */
+    public Future<Void> incrementCounterAsync(String email) {
+        return submitWrite(() -> {
+            synchronized (mWriteLock) {
+                mDatabase.beginTransaction();
+                try {
+                    executeIncrementCounter(email);
+                    mDatabase.setTransactionSuccessful();
+                } finally {
+                    mDatabase.endTransaction();
+                }
+                patchSnapshot(whereClause(email), null);
             }
-        } finally {
-            tryCloseCursor(cursor);
-        }
-        return null;
+            return null;
+        });
     }
 
-    public void incrementCounter(String email) {
-        ContentValues values = new ContentValues();
-        values.put(EMAIL_COLUMN, email);
-        Integer counter = getCounter(email);
-        values.put(COUNTER_COLUMN, counter + 1);
-        mDatabase.update(TABLE_NAME, values, whereClause(email), null);
+    /**
+     * Increments the counter of an account and reads the values needed to compute the code for
+     * the new counter value in a single transaction, so that concurrent callers never get the same
+     * counter value.
+     *
+     * @return the account with its incremented counter or {@code null} if it doesn't exist.
+     */
+    @Override
+    public Account advanceCounter(String email) {
+        return await(advanceCounterAsync(email));
     }
 
-    public OtpType getType(String email) {
-        Cursor cursor = getAccount(email);
-        try {
-            if (!cursorIsEmpty(cursor)) {
-                cursor.moveToFirst();
-                Integer value = cursor.getInt(cursor.getColumnIndex(TYPE_COLUMN));
-                return OtpType.getEnum(value);
-            }
-        } finally {
-            tryCloseCursor(cursor);
-        }
-        return null;
+    /**
+     * Same as {@link #advanceCounter(String)}, but returns without waiting for the write.
+     */
+    public Future<Account> advanceCounterAsync(String email) {
+        return submitWrite(() -> writeAdvanceCounter(() -> executeIncrementCounter(email),
+                EMAIL_COLUMN + " = ?", new String[]{email}));
     }
 
-    void setType(String email, OtpType type) {
-        ContentValues values = new ContentValues();
-        values.put(EMAIL_COLUMN, email);
-        values.put(TYPE_COLUMN, type.value);
-        mDatabase.update(TABLE_NAME, values, whereClause(email), null);
+    @Override
+    public Account advanceCounter(long id) {
+        return await(advanceCounterAsync(id));
     }
 
-    public boolean isGoogleAccount(String email) {
-        Cursor cursor = getAccount(email);
-        try {
-            if (!cursorIsEmpty(cursor)) {
-                cursor.moveToFirst();
-                if (cursor.getInt(cursor.getColumnIndex(PROVIDER_COLUMN)) == PROVIDER_GOOGLE) {
-                    // The account is marked as source: Google
-                    return true;
+    /**
+     * Same as {@link #advanceCounter(long)}, but returns without waiting for the write.
+     */
+    public Future<Account> advanceCounterAsync(long id) {
+        return submitWrite(() -> writeAdvanceCounter(() -> executeIncrementCounter(id),
+                ID_COLUMN + " = ?", new String[]{Long.toString(id)}));
+    }
+
+    /**
+     * Increments the counter of an account and reads it back in a single transaction.
+     *
+     * @param increment     increments the counter and returns the number of updated rows
+     * @param selection     selects the incremented account
+     * @param selectionArgs arguments of {@code selection}
+     * @return the account with its incremented counter or {@code null} if it doesn't exist.
+     */
+    private Account writeAdvanceCounter(Callable<Integer> increment, String selection,
+                                        String[] selectionArgs) throws Exception {
+        synchronized (mWriteLock) {
+            Account account = null;
+            mDatabase.beginTransaction();
+            try {
+                if (increment.call() > 0) {
+                    final Account[] updated = new Account[1];
+                    queryAccounts(selection, selectionArgs, a -> {
+                        // Like the snapshot, use the first account in display order
+                        if (updated[0] == null) {
+                            updated[0] = a;
+                        }
+                    });
+                    account = updated[0];
                 }
-                // The account is from an unknown source. Could be a Google account added by scanning
-                // a QR code or by manually entering a key
-                String emailLowerCase = email.toLowerCase(Locale.US);
-                return (emailLowerCase.endsWith("@gmail.com"))
-                        || (emailLowerCase.endsWith("@google.com"))
-                        || (email.equals(GOOGLE_CORP_ACCOUNT_NAME));
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
             }
-        } finally {
-            tryCloseCursor(cursor);
+            if (account != null) {
+                // Only the counter changed, so patch the snapshot instead of reloading it
+                AccountSnapshot snapshot = getSnapshot();
+                publishSnapshot((snapshot.indexOfId(account.id) >= 0)
+                        ? snapshot.withAccount(account)
+                        : snapshot.withAddedAccount(account));
+            }
+            return account;
         }
-        return false;
     }
 
     /**
-     * Finds the Google corp account in this database.
+     * Increments the counter of an account. Must be called in a transaction, so that the
+     * database lock is always taken before {@link #mIncrementCounterLock}.
      *
-     * @return the name of the account if it is present or {@code null} if the account does not exist.
+     * @return the number of updated rows.
      */
-    public String findGoogleCorpAccount() {
-        return nameExists(GOOGLE_CORP_ACCOUNT_NAME) ? GOOGLE_CORP_ACCOUNT_NAME : null;
+    private int executeIncrementCounter(String email) {
+        synchronized (mIncrementCounterLock) {
+            if (mIncrementCounterStatement == null) {
+                mIncrementCounterStatement = mDatabase.compileStatement(String.format(
+                        "UPDATE %s SET %s = %s + 1 WHERE %s = ?",
+                        TABLE_NAME, COUNTER_COLUMN, COUNTER_COLUMN, EMAIL_COLUMN));
+            }
+            mIncrementCounterStatement.bindString(1, email);
+            return mIncrementCounterStatement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Same as {@link #executeIncrementCounter(String)} for the account with the row id.
+     */
+    private int executeIncrementCounter(long id) {
+        synchronized (mIncrementCounterLock) {
+            if (mIncrementCounterByIdStatement == null) {
+                mIncrementCounterByIdStatement = mDatabase.compileStatement(String.format(
+                        "UPDATE %s SET %s = %s + 1 WHERE %s = ?",
+                        TABLE_NAME, COUNTER_COLUMN, COUNTER_COLUMN, ID_COLUMN));
+            }
+            mIncrementCounterByIdStatement.bindLong(1, id);
+            return mIncrementCounterByIdStatement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Sets the HOTP counter of an account, for example after resynchronizing it with
+     * {@link com.wilco375.onetwoauthenticate.otp.HotpResynchronizer}.
+     */
+    @Override
+    public void setCounter(String email, int counter) {
+        await(setCounterAsync(email, counter));
+    }
+
+    /**
+     * Same as {@link #setCounter(String, int)}, but returns without waiting for the write.
+     */
+    public Future<Void> setCounterAsync(String email, int counter) {
+        ContentValues values = new ContentValues();
+        values.put(COUNTER_COLUMN, counter);
+        return submitWrite(() -> {
+            synchronized (mWriteLock) {
+                mDatabase.update(TABLE_NAME, values, whereClause(email), null);
+                patchSnapshot(whereClause(email), null);
+            }
+            return null;
+        });
+    }
+
+    void setType(String email, OtpType type) {
+        ContentValues values = new ContentValues();
+        values.put(EMAIL_COLUMN, email);
+        values.put(TYPE_COLUMN, type.value);
+        await(submitWrite(() -> {
+            synchronized (mWriteLock) {
+                mDatabase.update(TABLE_NAME, values, whereClause(email), null);
+                patchSnapshot(whereClause(email), null);
+            }
+            return null;
+        }));
     }
 
     private static String whereClause(String email) {
         return EMAIL_COLUMN + " = " + DatabaseUtils.sqlEscapeString(email);
     }
 
+    @Override
     public void delete(String email) {
-        mDatabase.delete(TABLE_NAME, whereClause(email), null);
+        await(deleteAsync(email));
     }
 
     /**
-     * Save key to database, creating a new user entry if necessary.
-     *
-     * @param email    the user email address. When editing, the new user email.
-     * @param secret   the secret key.
-     * @param oldEmail If editing, the original user email, otherwise null.
-     * @param type     hotp vs totp
-     * @param counter  only important for the hotp type
+     * Same as {@link #delete(String)}, but returns without waiting for the write.
      */
-    public void update(String email, String secret, String oldEmail,
-                       OtpType type, Integer counter) {
-        update(email, secret, oldEmail, type, counter, null);
+    public Future<Void> deleteAsync(String email) {
+        return submitWrite(() -> {
+            synchronized (mWriteLock) {
+                Account account = getAccount(email);
+                if (account != null) {
+                    mSignerCache.invalidate(account.secret);
+                }
+                if (mDatabase.delete(TABLE_NAME, whereClause(email), null) > 0
+                        && account != null) {
+                    patchSnapshotWithout(account.id);
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void delete(long id) {
+        await(deleteAsync(id));
     }
 
     /**
-     * Save key to database, creating a new user entry if necessary.
-     *
-     * @param email         the user email address. When editing, the new user email.
-     * @param secret        the secret key.
-     * @param oldEmail      If editing, the original user email, otherwise null.
-     * @param type          hotp vs totp
-     * @param counter       only important for the hotp type
-     * @param googleAccount whether the key is for a Google account or {@code null} to preserve
-     *                      the previous value (or use a default if adding a key).
+     * Same as {@link #delete(long)}, but returns without waiting for the write.
      */
-    public void update(String email, String secret, String oldEmail,
-                       OtpType type, Integer counter, Boolean googleAccount) {
-        update(email, secret, oldEmail, type, counter, googleAccount, null);
+    public Future<Void> deleteAsync(long id) {
+        return submitWrite(() -> {
+            synchronized (mWriteLock) {
+                Account account = getAccount(id);
+                if (account != null) {
+                    mSignerCache.invalidate(account.secret);
+                }
+                if (mDatabase.delete(TABLE_NAME, ID_COLUMN + " = ?",
+                        new String[]{Long.toString(id)}) > 0) {
+                    patchSnapshotWithout(id);
+                }
+            }
+            return null;
+        });
     }
 
+    @Override
     public void update(String email, String secret, String oldEmail,
                        OtpType type, Integer counter, Boolean googleAccount, Integer color) {
+        await(updateAsync(email, secret, oldEmail, type, counter, googleAccount, color));
+    }
+
+    /**
+     * Same as {@link #update(String, String, String, OtpType, Integer, Boolean, Integer)}, but
+     * returns without waiting for the write.
+     */
+    public Future<Void> updateAsync(String email, String secret, String oldEmail,
+                                    OtpType type, Integer counter, Boolean googleAccount,
+                                    Integer color) {
+        return submitWrite(() -> {
+            synchronized (mWriteLock) {
+                ContentValues values =
+                        accountValues(email, secret, type, counter, googleAccount, color);
+                String oldSecret = getSecret(oldEmail);
+                if (oldSecret != null && !oldSecret.equals(secret)) {
+                    mSignerCache.invalidate(oldSecret);
+                }
+                int updated = mDatabase.update(TABLE_NAME, values,
+                        whereClause(oldEmail), null);
+                if (updated > 0) {
+                    patchSnapshot(whereClause(email), null);
+                } else {
+                    long id = mDatabase.insert(TABLE_NAME, null, values);
+                    if (id != -1) {
+                        patchSnapshot(ID_COLUMN + " = ?", new String[]{Long.toString(id)});
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void update(long id, String email, String secret, OtpType type, Integer counter,
+                       Boolean googleAccount, Integer color) {
+        await(updateAsync(id, email, secret, type, counter, googleAccount, color));
+    }
+
+    /**
+     * Same as {@link #update(long, String, String, OtpType, Integer, Boolean, Integer)}, but
+     * returns without waiting for the write.
+     */
+    public Future<Void> updateAsync(long id, String email, String secret, OtpType type,
+                                    Integer counter, Boolean googleAccount, Integer color) {
+        return submitWrite(() -> {
+            synchronized (mWriteLock) {
+                Account old = getAccount(id);
+                if (old == null) {
+                    return null;
+                }
+                ContentValues values =
+                        accountValues(email, secret, type, counter, googleAccount, color);
+                if (old.secret != null && !old.secret.equals(secret)) {
+                    mSignerCache.invalidate(old.secret);
+                }
+                String[] idArgs = new String[]{Long.toString(id)};
+                mDatabase.update(TABLE_NAME, values, ID_COLUMN + " = ?", idArgs);
+                patchSnapshot(ID_COLUMN + " = ?", idArgs);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Gets the columns written by the update methods, with the secret sealed. The provider and
+     * color are only included if they are given. Must be called while holding
+     * {@link #mWriteLock}.
+     */
+    private ContentValues accountValues(String email, String secret, OtpType type,
+                                               Integer counter, Boolean googleAccount,
+                                               Integer color) {
         ContentValues values = new ContentValues();
         values.put(EMAIL_COLUMN, email);
-        values.put(SECRET_COLUMN, secret);
+        values.put(SECRET_COLUMN, "");
+        values.put(SEALED_SECRET_COLUMN, mSecretCipher.seal(secret));
         values.put(TYPE_COLUMN, type.ordinal());
         values.put(COUNTER_COLUMN, counter);
         if (googleAccount != null) {
             values.put(
                     PROVIDER_COLUMN,
-                    googleAccount ? PROVIDER_GOOGLE : PROVIDER_UNKNOWN);
+                    googleAccount ? Account.PROVIDER_GOOGLE : Account.PROVIDER_UNKNOWN);
         }
 
         if (color != null) {
             values.put(COLOR_COLUMN, color);
         }
-        int updated = mDatabase.update(TABLE_NAME, values,
-                whereClause(oldEmail), null);
-        if (updated == 0) {
-            mDatabase.insert(TABLE_NAME, null, values);
-        }
-    }
-
-    private Cursor getNames() {
-        return mDatabase.query(TABLE_NAME, null, null, null, null, null, ORDER_COLUMN, null);
-    }
-
-    private Cursor getAccount(String email) {
-        return mDatabase.query(TABLE_NAME, null, EMAIL_COLUMN + "= ?",
-                new String[]{email}, null, null, ORDER_COLUMN);
+        return values;
     }
 
     /**
@@ -422,37 +1158,18 @@ public class AccountDb {
         }
     }
 
-    /**
-     * Get list of all account names.
-     *
-     * @param result Collection of strings-- account names are appended, without
-     *               clearing this collection on entry.
-     * @return Number of accounts added to the output parameter.
-     */
-    public int getNames(Collection<String> result) {
-        Cursor cursor = getNames();
-
-        try {
-            if (cursorIsEmpty(cursor))
-                return 0;
-
-            int nameCount = cursor.getCount();
-            int index = cursor.getColumnIndex(AccountDb.EMAIL_COLUMN);
-
-            for (int i = 0; i < nameCount; ++i) {
-                cursor.moveToPosition(i);
-                String username = cursor.getString(index);
-                result.add(username);
-            }
-
-            return nameCount;
-        } finally {
-            tryCloseCursor(cursor);
+    private static class AccountDbOpenException extends RuntimeException {
+        public AccountDbOpenException(String message, Exception e) {
+            super(message, e);
         }
     }
 
-    private static class AccountDbOpenException extends RuntimeException {
-        public AccountDbOpenException(String message, Exception e) {
+    /**
+     * Thrown when the data key of the sealed secrets can't be loaded, for example because the key
+     * store lost the key that wraps it.
+     */
+    public static class DataKeyException extends Exception {
+        public DataKeyException(String message, Exception e) {
             super(message, e);
         }
     }
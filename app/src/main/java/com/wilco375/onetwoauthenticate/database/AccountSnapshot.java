@@ -0,0 +1,140 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable copy of all rows of the accounts table in display order, addressable by position, by
+ * email and by row id.
+ */
+public final class AccountSnapshot {
+    static final AccountSnapshot EMPTY = new AccountSnapshot(new ArrayList<Account>());
+
+    /**
+     * Display order: accounts that have never been reordered first, then by position, then in
+     * the order they were added.
+     */
+    static final Comparator<Account> DISPLAY_ORDER = (a, b) -> {
+        if (a.sort == null) {
+            if (b.sort != null) {
+                return -1;
+            }
+        } else if (b.sort == null) {
+            return 1;
+        } else if (!a.sort.equals(b.sort)) {
+            return (a.sort < b.sort) ? -1 : 1;
+        }
+        return (a.id < b.id) ? -1 : ((a.id == b.id) ? 0 : 1);
+    };
+
+    private final List<Account> mAccounts;
+    private final Map<String, Integer> mIndices;
+    private final Map<Long, Integer> mIdIndices;
+
+    AccountSnapshot(List<Account> accounts) {
+        mAccounts = Collections.unmodifiableList(new ArrayList<>(accounts));
+        mIndices = new HashMap<>(accounts.size() * 2);
+        mIdIndices = new HashMap<>(accounts.size() * 2);
+        for (int i = 0; i < accounts.size(); i++) {
+            mIdIndices.put(accounts.get(i).id, i);
+            String email = accounts.get(i).email;
+            // Like a query by email, the first account in display order wins for duplicate emails
+            if (!mIndices.containsKey(email)) {
+                mIndices.put(email, i);
+            }
+        }
+    }
+
+    public int size() {
+        return mAccounts.size();
+    }
+
+    public Account get(int index) {
+        return mAccounts.get(index);
+    }
+
+    /**
+     * @return the account with the email or {@code null} if there is none.
+     */
+    public Account get(String email) {
+        Integer index = mIndices.get(email);
+        return (index == null) ? null : mAccounts.get(index);
+    }
+
+    /**
+     * @return the position of the account with the email or {@code -1} if there is none.
+     */
+    public int indexOf(String email) {
+        Integer index = mIndices.get(email);
+        return (index == null) ? -1 : index;
+    }
+
+    /**
+     * @return the account with the row id or {@code null} if there is none.
+     */
+    public Account getById(long id) {
+        Integer index = mIdIndices.get(id);
+        return (index == null) ? null : mAccounts.get(index);
+    }
+
+    /**
+     * @return the position of the account with the row id or {@code -1} if there is none.
+     */
+    public int indexOfId(long id) {
+        Integer index = mIdIndices.get(id);
+        return (index == null) ? -1 : index;
+    }
+
+    /**
+     * @return a copy of this snapshot in which the account with the same row id as
+     * {@code account} is replaced by it.
+     */
+    AccountSnapshot withAccount(Account account) {
+        int index = indexOfId(account.id);
+        if (index < 0) {
+            throw new IllegalArgumentException("No account " + account.id);
+        }
+        List<Account> accounts = new ArrayList<>(mAccounts);
+        accounts.set(index, account);
+        return new AccountSnapshot(accounts);
+    }
+
+    /**
+     * @return a copy of this snapshot with {@code account} added at its position in
+     * {@link #DISPLAY_ORDER}.
+     */
+    AccountSnapshot withAddedAccount(Account account) {
+        if (indexOfId(account.id) >= 0) {
+            throw new IllegalArgumentException("Duplicate account " + account.id);
+        }
+        int index = Collections.binarySearch(mAccounts, account, DISPLAY_ORDER);
+        List<Account> accounts = new ArrayList<>(mAccounts.size() + 1);
+        accounts.addAll(mAccounts);
+        accounts.add((index < 0) ? -index - 1 : index, account);
+        return new AccountSnapshot(accounts);
+    }
+
+    /**
+     * @return a copy of this snapshot without the account with the row id.
+     */
+    AccountSnapshot withoutAccount(long id) {
+        int index = indexOfId(id);
+        if (index < 0) {
+            throw new IllegalArgumentException("No account " + id);
+        }
+        List<Account> accounts = new ArrayList<>(mAccounts);
+        accounts.remove(index);
+        return new AccountSnapshot(accounts);
+    }
+
+    /**
+     * Gets the accounts in display order.
+     */
+    public List<Account> getAccounts() {
+        return mAccounts;
+    }
+}
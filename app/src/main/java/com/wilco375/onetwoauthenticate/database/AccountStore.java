@@ -0,0 +1,209 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.Signer;
+
+import java.util.Collection;
+
+/**
+ * Storage of accounts and their secrets.
+ * <p>
+ * {@link AccountDb} stores the accounts in SQLite, {@link InMemoryAccountStore} runs without
+ * Android. All implementations are thread-safe.
+ */
+public interface AccountStore {
+    /**
+     * Callback for {@link #forEachAccount(AccountVisitor)}.
+     */
+    interface AccountVisitor {
+        void visit(Account account);
+    }
+
+    /**
+     * Listener for changes of the accounts, see {@link #addChangeListener}.
+     */
+    interface AccountChangeListener {
+        /**
+         * Called after a write changed the accounts, on the thread that wrote them. Writes by the
+         * listener are allowed, but run before the other listeners are called.
+         */
+        void onAccountsChanged(AccountChange change);
+    }
+
+    /**
+     * Gets a copy of all accounts that is consistent across accounts and not affected by later
+     * writes.
+     */
+    AccountSnapshot getSnapshot();
+
+    /**
+     * Calls the visitor for every account in display order, without copying the accounts into a
+     * collection. The visitor may write to the store.
+     */
+    void forEachAccount(AccountVisitor visitor);
+
+    /**
+     * Get list of all account names.
+     *
+     * @param result Collection of strings-- account names are appended, without
+     *               clearing this collection on entry.
+     * @return Number of accounts added to the output parameter.
+     */
+    int getNames(Collection<String> result);
+
+    /**
+     * Get all accounts.
+     *
+     * @param result Collection of accounts-- accounts are appended in display order, without
+     *               clearing this collection on entry.
+     * @return Number of accounts added to the output parameter.
+     */
+    int getAccounts(Collection<Account> result);
+
+    /**
+     * Gets an account by its row id. Unlike the email, the id of an account never changes, also
+     * not when the account is renamed.
+     *
+     * @return the account or {@code null} if there is none with the id.
+     */
+    Account getAccount(long id);
+
+    boolean nameExists(String email);
+
+    String getSecret(String email);
+
+    Integer getColor(String email);
+
+    Integer getCounter(String email);
+
+    OtpType getType(String email);
+
+    boolean isGoogleAccount(String email);
+
+    /**
+     * Finds the Google corp account in this store.
+     *
+     * @return the name of the account if it is present or {@code null} if the account does not exist.
+     */
+    String findGoogleCorpAccount();
+
+    /**
+     * Same as {@link AccountDb#getSigningOracle(String)}, but reuses a previously created signer
+     * for the secret if there is one.
+     *
+     * @return the signer or {@code null} if the secret is invalid.
+     */
+    Signer getCachedSigningOracle(String secret);
+
+    /**
+     * Same as {@link #getCachedSigningOracle(String)}, but creates the signer from the decoded
+     * {@link Account#key} instead of decoding the secret again.
+     *
+     * @return the signer or {@code null} if the account has no valid key.
+     */
+    Signer getCachedSigningOracle(Account account);
+
+    /**
+     * Save key to the store, creating a new user entry if necessary.
+     *
+     * @param email    the user email address. When editing, the new user email.
+     * @param secret   the secret key.
+     * @param oldEmail If editing, the original user email, otherwise null.
+     * @param type     hotp vs totp
+     * @param counter  only important for the hotp type
+     */
+    void update(String email, String secret, String oldEmail, OtpType type, Integer counter);
+
+    /**
+     * Save key to the store, creating a new user entry if necessary.
+     *
+     * @param email         the user email address. When editing, the new user email.
+     * @param secret        the secret key.
+     * @param oldEmail      If editing, the original user email, otherwise null.
+     * @param type          hotp vs totp
+     * @param counter       only important for the hotp type
+     * @param googleAccount whether the key is for a Google account or {@code null} to preserve
+     *                      the previous value (or use a default if adding a key).
+     */
+    void update(String email, String secret, String oldEmail, OtpType type, Integer counter,
+                Boolean googleAccount);
+
+    /**
+     * Same as {@link #update(String, String, String, OtpType, Integer, Boolean)}.
+     *
+     * @param color custom color of the account or {@code null} to preserve the previous value.
+     */
+    void update(String email, String secret, String oldEmail, OtpType type, Integer counter,
+                Boolean googleAccount, Integer color);
+
+    /**
+     * Same as {@link #update(String, String, String, OtpType, Integer, Boolean, Integer)}, but
+     * changes the account with the row id and never adds an account. The account keeps its id
+     * when it is renamed.
+     *
+     * @param email the new user email address
+     */
+    void update(long id, String email, String secret, OtpType type, Integer counter,
+                Boolean googleAccount, Integer color);
+
+    void delete(String email);
+
+    /**
+     * Deletes the account with the row id, if there is one.
+     */
+    void delete(long id);
+
+    void incrementCounter(String email);
+
+    /**
+     * Increments the counter of an account and returns the account with the new counter value.
+     * Concurrent callers never get the same counter value.
+     *
+     * @return the account with its incremented counter or {@code null} if it doesn't exist.
+     */
+    Account advanceCounter(String email);
+
+    /**
+     * Same as {@link #advanceCounter(String)} for the account with the row id.
+     */
+    Account advanceCounter(long id);
+
+    /**
+     * Sets the HOTP counter of an account, for example after resynchronizing it with
+     * {@link com.wilco375.onetwoauthenticate.otp.HotpResynchronizer}.
+     */
+    void setCounter(String email, int counter);
+
+    /**
+     * Stores the display order of the accounts.
+     *
+     * @param emails emails of the accounts in their new order
+     */
+    void reorder(String[] emails);
+
+    /**
+     * Same as {@link #reorder(String[])}, but may write on a background thread. If the order
+     * changes again before the previous order has been written, only the latest order is written.
+     *
+     * @param onReordered called once the order or a later one has been written, or {@code null}
+     */
+    void reorderAsync(String[] emails, Runnable onReordered);
+
+    /**
+     * Registers a listener that is called after every write that changed the accounts. A
+     * listener that is already registered is not added again.
+     */
+    void addChangeListener(AccountChangeListener listener);
+
+    void removeChangeListener(AccountChangeListener listener);
+
+    /**
+     * Removes all accounts. Useful for testing.
+     */
+    boolean deleteAllData();
+
+    /**
+     * Releases any system resources held.
+     */
+    void close();
+}
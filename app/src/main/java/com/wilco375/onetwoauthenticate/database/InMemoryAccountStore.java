@@ -0,0 +1,276 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link AccountStore} that keeps the accounts in memory only, for tests and for load tests of
+ * the code using the store on a plain JVM.
+ * <p>
+ * Lookups by email and by id read concurrent maps and never block. Writes are serialized. The snapshot of
+ * all accounts is only rebuilt when it is requested after a write.
+ * <p>
+ * Like the unique index of {@link AccountDb}, emails are unique: adding an account with an
+ * existing email is ignored and renaming an account to an existing email fails.
+ */
+public class InMemoryAccountStore extends AbstractAccountStore {
+    private final ConcurrentHashMap<String, Account> mAccounts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Account> mAccountsById = new ConcurrentHashMap<>();
+
+    final Object mWriteLock = new Object();
+
+    /**
+     * @GuardedBy {@link #mWriteLock}
+     */
+    private long mNextId = 1;
+
+    /**
+     * Snapshot of {@link #mAccounts} or {@code null} if it has changed since the snapshot was
+     * built.
+     */
+    private volatile AccountSnapshot mSnapshot = AccountSnapshot.EMPTY;
+
+    @Override
+    public AccountSnapshot getSnapshot() {
+        AccountSnapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            synchronized (mWriteLock) {
+                snapshot = mSnapshot;
+                if (snapshot == null) {
+                    List<Account> accounts = new ArrayList<>(mAccounts.values());
+                    Collections.sort(accounts, AccountSnapshot.DISPLAY_ORDER);
+                    snapshot = new AccountSnapshot(accounts);
+                    mSnapshot = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    @Override
+    Account getAccount(String email) {
+        return (email == null) ? null : mAccounts.get(email);
+    }
+
+    @Override
+    public Account getAccount(long id) {
+        return mAccountsById.get(id);
+    }
+
+    @Override
+    public void update(String email, String secret, String oldEmail, OtpType type,
+                       Integer counter, Boolean googleAccount, Integer color) {
+        write(() -> {
+            Account old = getAccount(oldEmail);
+            if (old == null) {
+                if (mAccounts.containsKey(email)) {
+                    return null;
+                }
+                int provider = (googleAccount != null && googleAccount)
+                        ? Account.PROVIDER_GOOGLE : Account.PROVIDER_UNKNOWN;
+                put(new Account(mNextId, email, secret, type, toCounter(counter), provider, color,
+                        null));
+                return null;
+            }
+
+            replace(old, email, secret, type, counter, googleAccount, color);
+            return null;
+        });
+    }
+
+    @Override
+    public void update(long id, String email, String secret, OtpType type, Integer counter,
+                       Boolean googleAccount, Integer color) {
+        write(() -> {
+            Account old = getAccount(id);
+            if (old != null) {
+                replace(old, email, secret, type, counter, googleAccount, color);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Replaces an existing account, keeping its id, provider, color and position unless they are
+     * given.
+     */
+    private void replace(Account old, String email, String secret, OtpType type,
+                         Integer counter, Boolean googleAccount, Integer color) {
+        if (!email.equals(old.email) && mAccounts.containsKey(email)) {
+            throw new IllegalStateException("Duplicate email " + email);
+        }
+        if (!old.secret.equals(secret)) {
+            mSignerCache.invalidate(old.secret);
+        }
+        int provider = old.provider;
+        if (googleAccount != null) {
+            provider = googleAccount ? Account.PROVIDER_GOOGLE : Account.PROVIDER_UNKNOWN;
+        }
+        byte[] key = secret.equals(old.secret) ? old.key : Account.decodeKey(secret);
+        put(new Account(old.id, email, secret, key, type, toCounter(counter), provider,
+                (color != null) ? color : old.color, old.sort));
+        if (!email.equals(old.email)) {
+            remove(old.email);
+        }
+    }
+
+    /**
+     * Counters are stored as integers, so like a {@code NULL} value in {@link AccountDb} no
+     * counter reads as zero.
+     */
+    private static Integer toCounter(Integer counter) {
+        return (counter == null) ? 0 : counter;
+    }
+
+    @Override
+    public void delete(String email) {
+        write(() -> deleteAccount(getAccount(email)));
+    }
+
+    @Override
+    public void delete(long id) {
+        write(() -> deleteAccount(getAccount(id)));
+    }
+
+    private Void deleteAccount(Account account) {
+        if (account != null) {
+            mSignerCache.invalidate(account.secret);
+            remove(account.email);
+        }
+        return null;
+    }
+
+    @Override
+    public void incrementCounter(String email) {
+        advanceCounter(email);
+    }
+
+    @Override
+    public Account advanceCounter(String email) {
+        return write(() -> advanceAccount(getAccount(email)));
+    }
+
+    @Override
+    public Account advanceCounter(long id) {
+        return write(() -> advanceAccount(getAccount(id)));
+    }
+
+    private Account advanceAccount(Account account) {
+        if (account == null) {
+            return null;
+        }
+        account = new Account(account.id, account.email, account.secret, account.key,
+                account.type, account.counter + 1, account.provider, account.color, account.sort);
+        put(account);
+        return account;
+    }
+
+    @Override
+    public void setCounter(String email, int counter) {
+        write(() -> {
+            Account account = getAccount(email);
+            if (account != null) {
+                put(new Account(account.id, account.email, account.secret, account.key,
+                        account.type, counter, account.provider, account.color, account.sort));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void reorder(String[] emails) {
+        write(() -> {
+            for (int i = 0; i < emails.length; i++) {
+                Account account = getAccount(emails[i]);
+                if (account != null && (account.sort == null || account.sort != i)) {
+                    put(new Account(account.id, account.email, account.secret, account.key,
+                            account.type, account.counter, account.provider, account.color, i));
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void reorderAsync(String[] emails, Runnable onReordered) {
+        reorder(emails);
+        if (onReordered != null) {
+            onReordered.run();
+        }
+    }
+
+    @Override
+    public boolean deleteAllData() {
+        write(() -> {
+            clear();
+            mSignerCache.clear();
+            return null;
+        });
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * A write of {@link #write(Write)}.
+     */
+    private interface Write<T> {
+        T run();
+    }
+
+    /**
+     * Runs a write while holding the write lock and then tells the change listeners what it
+     * changed.
+     *
+     * @return the result of the write
+     */
+    private <T> T write(Write<T> write) {
+        synchronized (mWriteLock) {
+            // Only build the snapshots to compare if someone is listening
+            AccountSnapshot before = hasChangeListeners() ? getSnapshot() : null;
+            T result = write.run();
+            if (before != null) {
+                notifyChanged(before, getSnapshot());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Adds or replaces the account with the same email. All writes go through this method,
+     * {@link #remove(String)} and {@link #clear()} while holding the write lock.
+     */
+    void put(Account account) {
+        synchronized (mWriteLock) {
+            mAccounts.put(account.email, account);
+            mAccountsById.put(account.id, account);
+            mNextId = Math.max(mNextId, account.id + 1);
+            mSnapshot = null;
+        }
+    }
+
+    void remove(String email) {
+        synchronized (mWriteLock) {
+            Account removed = mAccounts.remove(email);
+            if (removed != null) {
+                // A renamed account is already stored under its id again
+                mAccountsById.remove(removed.id, removed);
+                mSnapshot = null;
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (mWriteLock) {
+            mAccounts.clear();
+            mAccountsById.clear();
+            mSnapshot = AccountSnapshot.EMPTY;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts the secrets of the accounts with AES-GCM under a data key, so that they aren't stored
+ * in plain text. Every secret gets a random IV, which is stored in front of the ciphertext.
+ * <p>
+ * The data key itself is stored wrapped, see {@link #wrapNewKey(int)}. Unwrapping it can take
+ * tens of milliseconds with the Android key store, so the unwrapped key is kept for the lifetime
+ * of the process.
+ * <p>
+ * Instances are thread-safe.
+ */
+final class SecretCipher {
+    /**
+     * The data key is stored as is, protected only by the private storage of the app.
+     */
+    static final int WRAPPING_NONE = 0;
+    /**
+     * The data key is encrypted with an AES-GCM key of the Android key store, which can't be
+     * extracted from the device.
+     */
+    static final int WRAPPING_KEY_STORE = 1;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int KEY_LENGTH_BYTES = 32;
+    private static final int IV_LENGTH_BYTES = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private static final String KEY_STORE = "AndroidKeyStore";
+    private static final String KEY_STORE_ALIAS = "accounts_data_key";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Wrapped data key of {@link #sUnwrapped}.
+     *
+     * @GuardedBy {@code SecretCipher.class}
+     */
+    private static byte[] sWrapped;
+
+    /**
+     * Cipher of the data key that was unwrapped last.
+     *
+     * @GuardedBy {@code SecretCipher.class}
+     */
+    private static SecretCipher sUnwrapped;
+
+    private final SecretKey mKey;
+
+    // @VisibleForTesting
+    SecretCipher(byte[] key) {
+        mKey = new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * Gets the cipher of a wrapped data key. The key is only unwrapped the first time.
+     */
+    static synchronized SecretCipher unwrap(byte[] wrapped, int wrapping)
+            throws GeneralSecurityException {
+        if (sUnwrapped == null || !Arrays.equals(sWrapped, wrapped)) {
+            byte[] key = (wrapping == WRAPPING_KEY_STORE) ? unwrapWithKeyStore(wrapped) : wrapped;
+            sUnwrapped = new SecretCipher(key);
+            sWrapped = wrapped.clone();
+        }
+        return sUnwrapped;
+    }
+
+    /**
+     * Forgets the unwrapped data key, so that the next {@link #unwrap} unwraps it again.
+     */
+    // @VisibleForTesting
+    static synchronized void clearUnwrappedKey() {
+        sWrapped = null;
+        sUnwrapped = null;
+    }
+
+    /**
+     * Gets the strongest wrapping this device supports. The key store only has AES keys since
+     * Android 6.0.
+     */
+    static int defaultWrapping() {
+        return (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) ? WRAPPING_KEY_STORE : WRAPPING_NONE;
+    }
+
+    /**
+     * Generates a random data key.
+     *
+     * @return the wrapped key, to be passed to {@link #unwrap} with the same wrapping.
+     */
+    static byte[] wrapNewKey(int wrapping) throws GeneralSecurityException {
+        byte[] key = new byte[KEY_LENGTH_BYTES];
+        RANDOM.nextBytes(key);
+        return (wrapping == WRAPPING_KEY_STORE) ? wrapWithKeyStore(key) : key;
+    }
+
+    /**
+     * Encrypts a secret.
+     *
+     * @return the IV followed by the ciphertext and the authentication tag.
+     */
+    byte[] seal(String secret) {
+        byte[] iv = new byte[IV_LENGTH_BYTES];
+        RANDOM.nextBytes(iv);
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, mKey, gcmParameters(iv, IV_LENGTH_BYTES));
+            byte[] plaintext = secret.getBytes(UTF_8);
+            byte[] sealed = new byte[IV_LENGTH_BYTES + cipher.getOutputSize(plaintext.length)];
+            System.arraycopy(iv, 0, sealed, 0, IV_LENGTH_BYTES);
+            cipher.doFinal(plaintext, 0, plaintext.length, sealed, IV_LENGTH_BYTES);
+            return sealed;
+        } catch (GeneralSecurityException e) {
+            // AES-GCM is available on all supported versions
+            throw new IllegalStateException("Failed to encrypt secret", e);
+        }
+    }
+
+    /**
+     * Decrypts a secret encrypted by {@link #seal(String)}.
+     *
+     * @throws GeneralSecurityException if it was encrypted with another key or has been modified.
+     */
+    String open(byte[] sealed) throws GeneralSecurityException {
+        if (sealed.length < IV_LENGTH_BYTES + TAG_LENGTH_BITS / 8) {
+            throw new GeneralSecurityException("Sealed secret too short: " + sealed.length);
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, mKey,
+                gcmParameters(Arrays.copyOf(sealed, IV_LENGTH_BYTES), IV_LENGTH_BYTES));
+        byte[] plaintext = cipher.doFinal(sealed, IV_LENGTH_BYTES, sealed.length - IV_LENGTH_BYTES);
+        return new String(plaintext, UTF_8);
+    }
+
+    /**
+     * GCMParameterSpec was only added in Android 4.4. The providers of earlier versions take the
+     * IV as an IvParameterSpec and use a 128 bit tag.
+     */
+    private static AlgorithmParameterSpec gcmParameters(byte[] iv, int length) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return new GCMParameterSpec(TAG_LENGTH_BITS, iv, 0, length);
+        }
+        return new IvParameterSpec(iv, 0, length);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static byte[] wrapWithKeyStore(byte[] key) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        // The key store picks the IV
+        cipher.init(Cipher.ENCRYPT_MODE, getOrCreateWrappingKey());
+        byte[] iv = cipher.getIV();
+        byte[] ciphertext = cipher.doFinal(key);
+        byte[] wrapped = new byte[1 + iv.length + ciphertext.length];
+        wrapped[0] = (byte) iv.length;
+        System.arraycopy(iv, 0, wrapped, 1, iv.length);
+        System.arraycopy(ciphertext, 0, wrapped, 1 + iv.length, ciphertext.length);
+        return wrapped;
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static byte[] unwrapWithKeyStore(byte[] wrapped) throws GeneralSecurityException {
+        int ivLength = wrapped[0];
+        SecretKey wrappingKey = (SecretKey) loadKeyStore().getKey(KEY_STORE_ALIAS, null);
+        if (wrappingKey == null) {
+            throw new GeneralSecurityException("No key " + KEY_STORE_ALIAS + " in the key store");
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, wrappingKey,
+                new GCMParameterSpec(TAG_LENGTH_BITS, wrapped, 1, ivLength));
+        return cipher.doFinal(wrapped, 1 + ivLength, wrapped.length - 1 - ivLength);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static SecretKey getOrCreateWrappingKey() throws GeneralSecurityException {
+        SecretKey key = (SecretKey) loadKeyStore().getKey(KEY_STORE_ALIAS, null);
+        if (key != null) {
+            return key;
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEY_STORE);
+        generator.init(new KeyGenParameterSpec.Builder(KEY_STORE_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .build());
+        return generator.generateKey();
+    }
+
+    /**
+     * Deletes the key that wraps the data keys from the key store, which makes them unreadable.
+     */
+    // @VisibleForTesting
+    static void deleteWrappingKey() throws GeneralSecurityException {
+        loadKeyStore().deleteEntry(KEY_STORE_ALIAS);
+    }
+
+    private static KeyStore loadKeyStore() throws GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance(KEY_STORE);
+        try {
+            keyStore.load(null);
+        } catch (IOException e) {
+            throw new GeneralSecurityException("Failed to load " + KEY_STORE, e);
+        }
+        return keyStore;
+    }
+}
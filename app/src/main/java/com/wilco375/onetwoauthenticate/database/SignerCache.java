@@ -0,0 +1,58 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.Signer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded least-recently-used cache of initialized {@link Signer}s, keyed by secret.
+ * <p>
+ * All methods are thread-safe. The cached signers must be safe to use from several threads too.
+ */
+class SignerCache {
+    private final Map<String, Signer> mSigners;
+
+    /**
+     * @param maxSize maximum number of signers kept in the cache.
+     */
+    SignerCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        mSigners = new LinkedHashMap<String, Signer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Signer> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the signer for the secret or {@code null} if it isn't cached.
+     */
+    synchronized Signer get(String secret) {
+        return mSigners.get(secret);
+    }
+
+    synchronized void put(String secret, Signer signer) {
+        mSigners.put(secret, signer);
+    }
+
+    /**
+     * Removes the signer for the secret, if any.
+     */
+    synchronized void invalidate(String secret) {
+        if (secret != null) {
+            mSigners.remove(secret);
+        }
+    }
+
+    synchronized void clear() {
+        mSigners.clear();
+    }
+
+    synchronized int size() {
+        return mSigners.size();
+    }
+}
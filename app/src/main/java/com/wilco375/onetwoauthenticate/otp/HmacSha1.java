@@ -0,0 +1,231 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+/**
+ * Pure-Java HMAC-SHA1 (RFC 2104, FIPS 180-4) specialized for signing the 8-byte counters used by
+ * HOTP and TOTP.
+ * <p>
+ * The HMAC inner and outer SHA-1 states only depend on the key, so they are computed once and
+ * stored as {@link #STATE_SIZE} ints. Signing an 8-byte message from these states then takes
+ * exactly two compression function calls and no allocations.
+ */
+public final class HmacSha1 {
+    /**
+     * Number of ints taken by the precomputed inner and outer states of a single key.
+     */
+    public static final int STATE_SIZE = 10;
+
+    /**
+     * Number of ints of work space needed by {@link #compress(int[], int, int[])}.
+     */
+    static final int WORK_SIZE = 80;
+
+    /**
+     * Size of a signature in bytes.
+     */
+    static final int MAC_LENGTH = 20;
+
+    private static final int BLOCK_SIZE = 64;
+    private static final int[] IV = {0x67452301, 0xEFCDAB89, 0x98BADCFE, 0x10325476, 0xC3D2E1F0};
+
+    /**
+     * Hidden constructor to prevent instantiation.
+     */
+    private HmacSha1() {
+    }
+
+    /**
+     * Computes the inner and outer states for a key.
+     *
+     * @param key    HMAC key of any length
+     * @param states destination for the {@link #STATE_SIZE} state ints
+     * @param offset index of the first state int in {@code states}
+     */
+    static void precompute(byte[] key, int[] states, int offset) {
+        int[] w = new int[WORK_SIZE];
+        if (key.length > BLOCK_SIZE) {
+            int[] keyHash = IV.clone();
+            hash(keyHash, 0, key, w);
+            key = toBytes(keyHash, 0);
+        }
+
+        byte[] block = new byte[BLOCK_SIZE];
+        for (int pad = 0; pad < 2; pad++) {
+            byte padByte = (pad == 0) ? (byte) 0x36 : (byte) 0x5c;
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                block[i] = (byte) (((i < key.length) ? key[i] : 0) ^ padByte);
+            }
+            int stateOffset = offset + pad * 5;
+            System.arraycopy(IV, 0, states, stateOffset, 5);
+            loadBlock(block, 0, w);
+            compress(states, stateOffset, w);
+        }
+    }
+
+    /**
+     * Computes HMAC-SHA1 of an 8-byte big-endian counter and applies the dynamic truncation of
+     * RFC 4226 section 5.3.
+     *
+     * @param states precomputed states, see {@link #precompute(byte[], int[], int)}
+     * @param offset index of the first state int of the key in {@code states}
+     * @param w      work space of {@link #WORK_SIZE} ints
+     * @param hash   work space of 5 ints
+     * @return the truncated hash, a non-negative 31-bit integer.
+     */
+    static int truncatedHash(int[] states, int offset, long counter, int[] w, int[] hash) {
+        signCounter(states, offset, counter, w, hash);
+
+        // The offset is in the low order bits of the last byte of the hash
+        int truncationOffset = hash[4] & 0xF;
+        int index = truncationOffset >> 2;
+        int shift = (truncationOffset & 3) << 3;
+        int value = (shift == 0)
+                ? hash[index]
+                : (hash[index] << shift) | (hash[index + 1] >>> (32 - shift));
+        return value & 0x7FFFFFFF;
+    }
+
+    /**
+     * Computes HMAC-SHA1 of an 8-byte big-endian counter.
+     *
+     * @param hash destination of the 5 signature ints
+     */
+    static void signCounter(int[] states, int offset, long counter, int[] w, int[] hash) {
+        // Inner hash: a single block holding the counter and the padding for a 72-byte message
+        System.arraycopy(states, offset, hash, 0, 5);
+        w[0] = (int) (counter >>> 32);
+        w[1] = (int) counter;
+        w[2] = 0x80000000;
+        for (int i = 3; i < 15; i++) {
+            w[i] = 0;
+        }
+        w[15] = (BLOCK_SIZE + 8) * 8;
+        compress(hash, 0, w);
+
+        // Outer hash: a single block holding the inner hash and the padding for an 84-byte message
+        System.arraycopy(hash, 0, w, 0, 5);
+        w[5] = 0x80000000;
+        for (int i = 6; i < 15; i++) {
+            w[i] = 0;
+        }
+        w[15] = (BLOCK_SIZE + MAC_LENGTH) * 8;
+        System.arraycopy(states, offset + 5, hash, 0, 5);
+        compress(hash, 0, w);
+    }
+
+    /**
+     * Computes HMAC-SHA1 of a message of any length.
+     */
+    static byte[] sign(int[] states, int offset, byte[] data, int[] w, int[] hash) {
+        System.arraycopy(states, offset, hash, 0, 5);
+        hash(hash, BLOCK_SIZE, data, w);
+        byte[] innerHash = toBytes(hash, 0);
+
+        System.arraycopy(states, offset + 5, hash, 0, 5);
+        hash(hash, BLOCK_SIZE, innerHash, w);
+        return toBytes(hash, 0);
+    }
+
+    /**
+     * Finishes a SHA-1 computation whose first {@code prefixLength} bytes have already been
+     * absorbed into {@code state}.
+     */
+    private static void hash(int[] state, long prefixLength, byte[] data, int[] w) {
+        int remaining = data.length;
+        while (remaining >= BLOCK_SIZE) {
+            loadBlock(data, data.length - remaining, w);
+            compress(state, 0, w);
+            remaining -= BLOCK_SIZE;
+        }
+
+        // Final block(s): remaining data, 0x80, zeros and the message length in bits
+        byte[] block = new byte[remaining < BLOCK_SIZE - 8 ? BLOCK_SIZE : 2 * BLOCK_SIZE];
+        System.arraycopy(data, data.length - remaining, block, 0, remaining);
+        block[remaining] = (byte) 0x80;
+        long bitLength = (prefixLength + data.length) * 8;
+        for (int i = 0; i < 8; i++) {
+            block[block.length - 1 - i] = (byte) (bitLength >>> (8 * i));
+        }
+        for (int blockOffset = 0; blockOffset < block.length; blockOffset += BLOCK_SIZE) {
+            loadBlock(block, blockOffset, w);
+            compress(state, 0, w);
+        }
+    }
+
+    private static void loadBlock(byte[] data, int offset, int[] w) {
+        for (int i = 0; i < 16; i++) {
+            int j = offset + 4 * i;
+            w[i] = (data[j] << 24)
+                    | ((data[j + 1] & 0xFF) << 16)
+                    | ((data[j + 2] & 0xFF) << 8)
+                    | (data[j + 3] & 0xFF);
+        }
+    }
+
+    private static byte[] toBytes(int[] words, int offset) {
+        byte[] result = new byte[MAC_LENGTH];
+        for (int i = 0; i < MAC_LENGTH; i++) {
+            result[i] = (byte) (words[offset + (i >> 2)] >>> (24 - 8 * (i & 3)));
+        }
+        return result;
+    }
+
+    /**
+     * SHA-1 compression function.
+     *
+     * @param state  5 ints of chaining state, updated in place
+     * @param offset index of the first state int in {@code state}
+     * @param w      message schedule; the first 16 ints hold the block, the rest is work space
+     */
+    static void compress(int[] state, int offset, int[] w) {
+        for (int t = 16; t < 80; t++) {
+            int x = w[t - 3] ^ w[t - 8] ^ w[t - 14] ^ w[t - 16];
+            w[t] = (x << 1) | (x >>> 31);
+        }
+
+        int a = state[offset];
+        int b = state[offset + 1];
+        int c = state[offset + 2];
+        int d = state[offset + 3];
+        int e = state[offset + 4];
+
+        for (int t = 0; t < 20; t++) {
+            int temp = ((a << 5) | (a >>> 27)) + ((b & c) | (~b & d)) + e + 0x5A827999 + w[t];
+            e = d;
+            d = c;
+            c = (b << 30) | (b >>> 2);
+            b = a;
+            a = temp;
+        }
+        for (int t = 20; t < 40; t++) {
+            int temp = ((a << 5) | (a >>> 27)) + (b ^ c ^ d) + e + 0x6ED9EBA1 + w[t];
+            e = d;
+            d = c;
+            c = (b << 30) | (b >>> 2);
+            b = a;
+            a = temp;
+        }
+        for (int t = 40; t < 60; t++) {
+            int temp = ((a << 5) | (a >>> 27)) + ((b & c) | (b & d) | (c & d)) + e + 0x8F1BBCDC
+                    + w[t];
+            e = d;
+            d = c;
+            c = (b << 30) | (b >>> 2);
+            b = a;
+            a = temp;
+        }
+        for (int t = 60; t < 80; t++) {
+            int temp = ((a << 5) | (a >>> 27)) + (b ^ c ^ d) + e + 0xCA62C1D6 + w[t];
+            e = d;
+            d = c;
+            c = (b << 30) | (b >>> 2);
+            b = a;
+            a = temp;
+        }
+
+        state[offset] += a;
+        state[offset + 1] += b;
+        state[offset + 2] += c;
+        state[offset + 3] += d;
+        state[offset + 4] += e;
+    }
+}
@@ -0,0 +1,136 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+/**
+ * Computes the HOTP/TOTP codes of many keys for a single counter value. The precomputed HMAC
+ * states of all keys are stored in one flat int array, so a batch is a single loop over primitive
+ * arrays without any per-key objects.
+ * {@link com.wilco375.onetwoauthenticate.otp.totp.TotpCodeIndex} computes its columns of codes
+ * with it.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class HmacSha1BatchEngine {
+    private int[] mStates;
+    private int mSize;
+    private final int[] mWork = new int[HmacSha1.WORK_SIZE];
+    private final int[] mHash = new int[5];
+
+    /**
+     * @param initialCapacity number of keys the engine can hold before it needs to grow.
+     */
+    public HmacSha1BatchEngine(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + initialCapacity);
+        }
+        mStates = new int[initialCapacity * HmacSha1.STATE_SIZE];
+    }
+
+    /**
+     * Adds a key to the engine.
+     *
+     * @return the index of the key in the results of {@link #truncatedHashes(long, int[])}.
+     * @throws IllegalArgumentException if the key is empty
+     */
+    public int add(byte[] key) {
+        checkKey(key);
+        ensureCapacity(mSize + 1);
+        HmacSha1.precompute(key, mStates, mSize * HmacSha1.STATE_SIZE);
+        return mSize++;
+    }
+
+    /**
+     * Replaces the key with the index.
+     *
+     * @throws IllegalArgumentException if the key is empty
+     * @throws IndexOutOfBoundsException if there is no key with the index
+     */
+    public void set(int index, byte[] key) {
+        checkKey(key);
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("No key " + index);
+        }
+        HmacSha1.precompute(key, mStates, index * HmacSha1.STATE_SIZE);
+    }
+
+    /**
+     * @return the number of keys in the engine.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Removes all keys, keeping the allocated capacity.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Signs the 8-byte big-endian counter with every key and applies the dynamic truncation of
+     * RFC 4226.
+     *
+     * @param result receives the truncated hash of the key with index {@code i} at index
+     *               {@code i}; must hold at least {@link #size()} ints
+     */
+    public void truncatedHashes(long counter, int[] result) {
+        checkResultLength(result, mSize);
+        int[] states = mStates;
+        for (int i = 0, offset = 0; i < mSize; i++, offset += HmacSha1.STATE_SIZE) {
+            result[i] = HmacSha1.truncatedHash(states, offset, counter, mWork, mHash);
+        }
+    }
+
+    /**
+     * Computes the decimal response code of every key for the counter.
+     *
+     * @param codeLength number of decimal digits of the codes
+     * @param result     receives the code of the key with index {@code i} at index {@code i};
+     *                   must hold at least {@link #size()} ints
+     * @see PasscodeGenerator#generateResponseCodeInt(long)
+     */
+    public void generateResponseCodes(long counter, int codeLength, int[] result) {
+        generateResponseCodes(counter, codeLength, result, 0, mSize);
+    }
+
+    /**
+     * Same as {@link #generateResponseCodes(long, int, int[])} for the keys with an index in
+     * {@code [fromIndex, toIndex)} only. The other ints of {@code result} are left as they are.
+     */
+    public void generateResponseCodes(long counter, int codeLength, int[] result, int fromIndex,
+                                      int toIndex) {
+        if (fromIndex < 0 || fromIndex > toIndex || toIndex > mSize) {
+            throw new IndexOutOfBoundsException(
+                    "Range [" + fromIndex + ", " + toIndex + ") of " + mSize + " keys");
+        }
+        checkResultLength(result, toIndex);
+        int modulus = PasscodeGenerator.digitsPower(codeLength);
+        int[] states = mStates;
+        for (int i = fromIndex, offset = fromIndex * HmacSha1.STATE_SIZE; i < toIndex;
+             i++, offset += HmacSha1.STATE_SIZE) {
+            result[i] = HmacSha1.truncatedHash(states, offset, counter, mWork, mHash) % modulus;
+        }
+    }
+
+    private static void checkKey(byte[] key) {
+        if (key == null || key.length == 0) {
+            throw new IllegalArgumentException("Empty key");
+        }
+    }
+
+    private static void checkResultLength(int[] result, int length) {
+        if (result.length < length) {
+            throw new IllegalArgumentException(
+                    "Result must hold at least " + length + " ints");
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        int length = size * HmacSha1.STATE_SIZE;
+        if (length > mStates.length) {
+            int[] states = new int[Math.max(length, 2 * mStates.length)];
+            System.arraycopy(mStates, 0, states, 0, mSize * HmacSha1.STATE_SIZE);
+            mStates = states;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.Signer;
+
+/**
+ * Pure-Java HMAC-SHA1 {@link Signer}. The key schedule is computed once in the constructor, after
+ * which signing an 8-byte HOTP/TOTP counter costs two SHA-1 compression function calls on
+ * preallocated state.
+ * <p>
+ * Instances are thread-safe; concurrent calls on the same instance are serialized.
+ */
+public class HmacSha1Signer implements Signer {
+    private final int[] mStates = new int[HmacSha1.STATE_SIZE];
+    private final int[] mWork = new int[HmacSha1.WORK_SIZE];
+    private final int[] mHash = new int[5];
+
+    /**
+     * @param key HMAC key
+     * @throws IllegalArgumentException if the key is empty
+     */
+    public HmacSha1Signer(byte[] key) {
+        if (key == null || key.length == 0) {
+            throw new IllegalArgumentException("Empty key");
+        }
+        HmacSha1.precompute(key, mStates, 0);
+    }
+
+    /**
+     * Creates a signer with the same key as another one without recomputing the key schedule, for
+     * example to sign on several threads without contending for a single signer.
+     */
+    public HmacSha1Signer(HmacSha1Signer other) {
+        other.getStates(mStates, 0);
+    }
+
+    @Override
+    public synchronized byte[] sign(byte[] data) {
+        if (data.length != 8) {
+            return HmacSha1.sign(mStates, 0, data, mWork, mHash);
+        }
+
+        long counter = 0;
+        for (int i = 0; i < 8; i++) {
+            counter = (counter << 8) | (data[i] & 0xFF);
+        }
+        HmacSha1.signCounter(mStates, 0, counter, mWork, mHash);
+        byte[] result = new byte[HmacSha1.MAC_LENGTH];
+        for (int i = 0; i < HmacSha1.MAC_LENGTH; i++) {
+            result[i] = (byte) (mHash[i >> 2] >>> (24 - 8 * (i & 3)));
+        }
+        return result;
+    }
+
+    /**
+     * Signs an 8-byte big-endian counter and applies the dynamic truncation of RFC 4226 without
+     * allocating.
+     *
+     * @return the truncated hash, a non-negative 31-bit integer.
+     */
+    public synchronized int truncatedHash(long counter) {
+        return HmacSha1.truncatedHash(mStates, 0, counter, mWork, mHash);
+    }
+
+    @Override
+    public int truncatedHash(long counter, byte[] counterBuffer) {
+        return truncatedHash(counter);
+    }
+
+    @Override
+    public void truncatedHashes(long firstCounter, int[] result, byte[] counterBuffer) {
+        truncatedHashes(firstCounter, result);
+    }
+
+    /**
+     * Batch variant of {@link #truncatedHash(long)} for consecutive counters.
+     *
+     * @param firstCounter counter of {@code result[0]}
+     * @param result       receives the truncated hash of {@code firstCounter + i} at index
+     *                     {@code i}
+     */
+    public synchronized void truncatedHashes(long firstCounter, int[] result) {
+        for (int i = 0; i < result.length; i++) {
+            result[i] = HmacSha1.truncatedHash(mStates, 0, firstCounter + i, mWork, mHash);
+        }
+    }
+
+    /**
+     * Copies the precomputed inner and outer states of the key.
+     *
+     * @param destination receives {@link HmacSha1#STATE_SIZE} ints
+     * @param offset      index of the first state int in {@code destination}
+     */
+    void getStates(int[] destination, int offset) {
+        // The states never change after construction, so no locking is needed
+        System.arraycopy(mStates, 0, destination, offset, HmacSha1.STATE_SIZE);
+    }
+}
@@ -0,0 +1,165 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Resynchronizes the counter of an HOTP account that has drifted ahead, for example because the
+ * user generated codes without using them. A window of counter values after the stored one is
+ * searched for two consecutive codes entered by the user.
+ * <p>
+ * Codes are compared as ints computed from a precomputed key schedule, so the search doesn't
+ * allocate per counter value. The window can be split over an executor to search it in parallel.
+ * <p>
+ * The stores keep counters as ints, see
+ * {@link com.wilco375.onetwoauthenticate.database.AccountStore#setCounter(String, int)}, so the
+ * window ends at {@link Integer#MAX_VALUE} and a counter value that is found always fits in an
+ * int.
+ */
+public class HotpResynchronizer {
+    /**
+     * Returned by {@code resync} if the codes aren't found in the window.
+     */
+    public static final long NOT_FOUND = -1;
+
+    /**
+     * Number of counter values whose codes are computed at once.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Largest counter value that can be found.
+     */
+    private static final long MAX_COUNTER = Integer.MAX_VALUE;
+
+    private final HmacSha1Signer mSigner;
+    private final PasscodeGenerator mGenerator;
+
+    /**
+     * @param key        HMAC key of the account
+     * @param codeLength number of decimal digits of the codes
+     */
+    public HotpResynchronizer(byte[] key, int codeLength) {
+        mSigner = new HmacSha1Signer(key);
+        mGenerator = new PasscodeGenerator(mSigner, codeLength);
+    }
+
+    /**
+     * Searches the counter values after {@code counter} for two consecutive codes.
+     *
+     * @param counter    counter value of the last code that was used, as stored by
+     *                   {@link com.wilco375.onetwoauthenticate.database.AccountDb}
+     * @param lookAhead  number of counter values to try for the first code
+     * @param firstCode  first code entered by the user
+     * @param secondCode code entered by the user after {@code firstCode}
+     * @return the counter value of {@code secondCode}, which is the new counter value to store,
+     * or {@link #NOT_FOUND}. Also {@link #NOT_FOUND} if the thread is interrupted, which it is
+     * left in.
+     * @throws IllegalArgumentException if {@code lookAhead} is negative
+     */
+    public long resync(long counter, int lookAhead, String firstCode, String secondCode) {
+        checkLookAhead(lookAhead);
+        int first = mGenerator.parseResponseCode(firstCode);
+        int second = mGenerator.parseResponseCode(secondCode);
+        if (first < 0 || second < 0) {
+            return NOT_FOUND;
+        }
+        return search(mSigner, counter + 1, getWindowEnd(counter, lookAhead), first, second);
+    }
+
+    /**
+     * Same as {@link #resync(long, int, String, String)}, but splits the window into
+     * {@code parallelism} ranges that are searched on the executor.
+     *
+     * @throws IllegalArgumentException if {@code lookAhead} is negative or {@code parallelism} is
+     *                                  not positive
+     */
+    public long resync(long counter, int lookAhead, String firstCode, String secondCode,
+                       ExecutorService executor, int parallelism) throws InterruptedException {
+        checkLookAhead(lookAhead);
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        final int first = mGenerator.parseResponseCode(firstCode);
+        final int second = mGenerator.parseResponseCode(secondCode);
+        if (first < 0 || second < 0) {
+            return NOT_FOUND;
+        }
+
+        List<Future<Long>> futures = new ArrayList<>(parallelism);
+        long start = counter + 1;
+        long length = Math.max(getWindowEnd(counter, lookAhead) - start, 0);
+        for (int i = 0; i < parallelism; i++) {
+            final long from = start + length * i / parallelism;
+            final long to = start + length * (i + 1) / parallelism;
+            // Every range gets its own signer so the searches don't contend for a lock
+            final HmacSha1Signer signer = new HmacSha1Signer(mSigner);
+            futures.add(executor.submit(() -> search(signer, from, to, first, second)));
+        }
+
+        // The ranges are in order, so the first range with a match has the earliest match
+        long result = NOT_FOUND;
+        try {
+            for (Future<Long> future : futures) {
+                result = future.get();
+                if (result != NOT_FOUND) {
+                    break;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Resynchronization failed", e.getCause());
+        } finally {
+            // Later ranges aren't needed anymore once a match is found. Their searches check for
+            // the interrupt between batches.
+            for (Future<Long> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return result;
+    }
+
+    private static void checkLookAhead(int lookAhead) {
+        if (lookAhead < 0) {
+            throw new IllegalArgumentException("lookAhead must not be negative: " + lookAhead);
+        }
+    }
+
+    /**
+     * Gets the end of the window of the first code, so that the counter value of the second code
+     * is at most {@link #MAX_COUNTER}.
+     */
+    private static long getWindowEnd(long counter, int lookAhead) {
+        return Math.min(counter + 1 + lookAhead, MAX_COUNTER);
+    }
+
+    /**
+     * Searches counter values in {@code [from, to)} for the first code, followed by the second code.
+     * Stops when the thread is interrupted.
+     *
+     * @return the counter value of the second code or {@link #NOT_FOUND}.
+     */
+    private long search(HmacSha1Signer signer, long from, long to, int firstCode, int secondCode) {
+        int modulus = PasscodeGenerator.digitsPower(mGenerator.getCodeLength());
+        // One more code than counter values to also hold the second code of the last pair
+        int[] codes = new int[(int) Math.min(BATCH_SIZE, Math.max(to - from, 0)) + 1];
+        for (long batchStart = from; batchStart < to; batchStart += BATCH_SIZE) {
+            if (Thread.currentThread().isInterrupted()) {
+                return NOT_FOUND;
+            }
+            int count = (int) Math.min(BATCH_SIZE, to - batchStart);
+            if (count + 1 < codes.length) {
+                codes = new int[count + 1];
+            }
+            signer.truncatedHashes(batchStart, codes);
+            for (int i = 0; i < count; i++) {
+                if (codes[i] % modulus == firstCode && codes[i + 1] % modulus == secondCode) {
+                    return batchStart + i + 1;
+                }
+            }
+        }
+        return NOT_FOUND;
+    }
+}
@@ -0,0 +1,73 @@
+package com.wilco375.onetwoauthenticate.otp;
+
+import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable list of all accounts together with their TOTP codes, all computed at a single TOTP
+ * counter value.
+ */
+public final class OtpCodeSnapshot {
+    private final long mTotpCounterValue;
+    private final List<Entry> mEntries;
+
+    public OtpCodeSnapshot(long totpCounterValue, List<Entry> entries) {
+        mTotpCounterValue = totpCounterValue;
+        mEntries = Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * Gets the value of the TOTP counter at which the codes in this snapshot were computed.
+     */
+    public long getTotpCounterValue() {
+        return mTotpCounterValue;
+    }
+
+    /**
+     * Gets the accounts in display order.
+     */
+    public List<Entry> getEntries() {
+        return mEntries;
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public Entry get(int index) {
+        return mEntries.get(index);
+    }
+
+    /**
+     * A single account and its code.
+     */
+    public static final class Entry {
+        /**
+         * Row id of the account, which unlike its name doesn't change when it is renamed.
+         */
+        public final long accountId;
+        public final String accountName;
+        public final OtpType type;
+        /**
+         * Custom color of the account or {@code null} if the default color should be used.
+         */
+        public final Integer color;
+        /**
+         * Current code of a TOTP account, or {@code null} for HOTP accounts and accounts for which
+         * no code could be generated.
+         */
+        public final String code;
+
+        public Entry(long accountId, String accountName, OtpType type, Integer color,
+                     String code) {
+            this.accountId = accountId;
+            this.accountName = accountName;
+            this.type = type;
+            this.color = color;
+            this.code = code;
+        }
+    }
+}
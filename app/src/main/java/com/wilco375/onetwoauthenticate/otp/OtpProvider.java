@@ -17,7 +17,8 @@
 
 package com.wilco375.onetwoauthenticate.otp;
 
-import com.wilco375.onetwoauthenticate.database.AccountDb;
+import com.wilco375.onetwoauthenticate.database.Account;
+import com.wilco375.onetwoauthenticate.database.AccountStore;
 import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
 import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator.Signer;
 import com.wilco375.onetwoauthenticate.otp.totp.TotpClock;
@@ -26,7 +27,9 @@ import com.wilco375.onetwoauthenticate.util.Utilities;
 
 import java.io.UnsupportedEncodingException;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Class containing implementation of HOTP/TOTP.
@@ -67,6 +70,28 @@ public class OtpProvider implements OtpSource {
         }
     }
 
+    @Override
+    public OtpCodeSnapshot getCurrentCodes() {
+        List<Account> accounts = mAccountDb.getSnapshot().getAccounts();
+
+        long otp_state =
+                mTotpCounter.getValueAtTime(Utilities.millisToSeconds(mTotpClock.currentTimeMillis()));
+        List<OtpCodeSnapshot.Entry> entries = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            String code = null;
+            if (account.type == OtpType.TOTP) {
+                try {
+                    code = computePin(account, otp_state, null);
+                } catch (OtpSourceException ignored) {
+                    // Leave this account without a code rather than failing the whole snapshot
+                }
+            }
+            entries.add(new OtpCodeSnapshot.Entry(
+                    account.id, account.email, account.type, account.color, code));
+        }
+        return new OtpCodeSnapshot(otp_state, entries);
+    }
+
     @Override
     public TotpCounter getTotpCounter() {
         return mTotpCounter;
@@ -84,50 +109,56 @@ public class OtpProvider implements OtpSource {
         }
 
         OtpType type = mAccountDb.getType(username);
-        String secret = getSecret(username);
+        Account account = null;
 
         long otp_state = 0;
 
         if (type == OtpType.TOTP) {
             // For time-based OTP, the state is derived from clock.
+            account = mAccountDb.getSnapshot().get(username);
             otp_state =
                     mTotpCounter.getValueAtTime(Utilities.millisToSeconds(mTotpClock.currentTimeMillis()));
         } else if (type == OtpType.HOTP) {
-            // For counter-based OTP, the state is obtained by incrementing stored counter.
-            mAccountDb.incrementCounter(username);
-            Integer counter = mAccountDb.getCounter(username);
-            otp_state = counter.longValue();
+            // For counter-based OTP, the state is obtained by atomically incrementing the stored
+            // counter, so concurrent callers never compute the same code.
+            account = mAccountDb.advanceCounter(username);
+            if (account != null) {
+                otp_state = account.counter.longValue();
+            }
         }
 
-        return computePin(secret, otp_state, challenge);
+        return computePin(account, otp_state, challenge);
     }
 
-    public OtpProvider(AccountDb accountDb, TotpClock totpClock) {
+    public OtpProvider(AccountStore accountDb, TotpClock totpClock) {
         this(DEFAULT_INTERVAL, accountDb, totpClock);
     }
 
-    public OtpProvider(int interval, AccountDb accountDb, TotpClock totpClock) {
+    public OtpProvider(int interval, AccountStore accountDb, TotpClock totpClock) {
         mAccountDb = accountDb;
         mTotpCounter = new TotpCounter(interval);
         mTotpClock = totpClock;
     }
 
     /**
-     * Computes the one-time PIN given the secret key.
+     * Computes the one-time PIN given the account with the secret key.
      *
-     * @param secret    the secret key
+     * @param account   the account or {@code null} if it doesn't exist
      * @param otp_state current token state (counter or time-interval)
      * @param challenge optional challenge bytes to include when computing passcode.
      * @return the PIN
      */
-    private String computePin(String secret, long otp_state, byte[] challenge)
+    private String computePin(Account account, long otp_state, byte[] challenge)
             throws OtpSourceException {
-        if (secret == null || secret.length() == 0) {
+        if (account == null || account.secret == null || account.secret.length() == 0) {
             throw new OtpSourceException("Null or empty secret");
         }
 
         try {
-            Signer signer = AccountDb.getSigningOracle(secret);
+            Signer signer = mAccountDb.getCachedSigningOracle(account);
+            if (signer == null) {
+                throw new OtpSourceException("Invalid secret");
+            }
             PasscodeGenerator pcg = new PasscodeGenerator(signer,
                     (challenge == null) ? PIN_LENGTH : REFLECTIVE_PIN_LENGTH);
 
@@ -139,22 +170,12 @@ public class OtpProvider implements OtpSource {
         }
     }
 
-    /**
-     * Reads the secret key that was saved on the phone.
-     *
-     * @param user Account name identifying the user.
-     * @return the secret key as base32 encoded string.
-     */
-    String getSecret(String user) {
-        return mAccountDb.getSecret(user);
-    }
-
     /**
      * Default passcode timeout period (in seconds)
      */
     public static final int DEFAULT_INTERVAL = 30;
 
-    private final AccountDb mAccountDb;
+    private final AccountStore mAccountDb;
 
     /**
      * Counter for time-based OTPs (TOTP).
@@ -60,6 +60,15 @@ public interface OtpSource {
      */
     String respondToChallenge(String accountName, String challenge) throws OtpSourceException;
 
+    /**
+     * Computes the current codes of all TOTP accounts in a single pass, at a single TOTP counter
+     * value. HOTP accounts are included without a code because generating one would advance their
+     * counter.
+     *
+     * @return snapshot of all accounts in display order.
+     */
+    OtpCodeSnapshot getCurrentCodes();
+
     /**
      * Gets the counter for generating or verifying TOTP codes.
      */
@@ -19,10 +19,6 @@ package com.wilco375.onetwoauthenticate.otp;
 
 import com.wilco375.onetwoauthenticate.otp.OtpProvider;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInput;
-import java.io.DataInputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 
@@ -65,6 +61,12 @@ public class PasscodeGenerator {
     private final Signer signer;
     private final int codeLength;
 
+    /**
+     * Buffer the default {@link Signer#truncatedHash(long, byte[])} writes counters to, so that
+     * generating a code doesn't allocate.
+     */
+    private final byte[] counterBuffer = new byte[8];
+
     /**
      * Using an interface to allow us to inject different signature
      * implementations.
@@ -76,6 +78,41 @@ public class PasscodeGenerator {
          * @throws GeneralSecurityException
          */
         byte[] sign(byte[] data) throws GeneralSecurityException;
+
+        /**
+         * Signs an 8-byte big-endian counter and applies the dynamic truncation of RFC 4226.
+         * Signers that can sign a counter without a buffer, like {@link HmacSha1Signer}, override
+         * it.
+         *
+         * @param counter       counter to sign
+         * @param counterBuffer 8-byte buffer the counter is written to before signing it
+         * @return the truncated hash, a non-negative 31-bit integer.
+         * @throws GeneralSecurityException
+         */
+        default int truncatedHash(long counter, byte[] counterBuffer)
+                throws GeneralSecurityException {
+            for (int i = 7; i >= 0; i--) {
+                counterBuffer[i] = (byte) counter;
+                counter >>>= 8;
+            }
+            return dynamicTruncation(sign(counterBuffer));
+        }
+
+        /**
+         * Batch variant of {@link #truncatedHash(long, byte[])} for consecutive counters.
+         *
+         * @param firstCounter  counter of {@code result[0]}
+         * @param result        receives the truncated hash of {@code firstCounter + i} at index
+         *                      {@code i}
+         * @param counterBuffer 8-byte buffer the counters are written to before signing them
+         * @throws GeneralSecurityException
+         */
+        default void truncatedHashes(long firstCounter, int[] result, byte[] counterBuffer)
+                throws GeneralSecurityException {
+            for (int i = 0; i < result.length; i++) {
+                result[i] = truncatedHash(firstCounter + i, counterBuffer);
+            }
+        }
     }
 
     /**
@@ -97,6 +134,13 @@ public class PasscodeGenerator {
         this(mac::doFinal, passCodeLength);
     }
 
+    /**
+     * Like a {@link Mac}, a generator must not be used by several threads at once unless its
+     * signer is thread safe and signs counters without the buffer of the generator.
+     *
+     * @param signer         signs the OTP state
+     * @param passCodeLength The length of the decimal passcode
+     */
     public PasscodeGenerator(Signer signer, int passCodeLength) {
         if ((passCodeLength < 0) || (passCodeLength > MAX_PASSCODE_LENGTH)) {
             throw new IllegalArgumentException(
@@ -107,12 +151,19 @@ public class PasscodeGenerator {
         this.codeLength = passCodeLength;
     }
 
-    private String padOutput(int value) {
-        String result = Integer.toString(value);
-        for (int i = result.length(); i < codeLength; i++) {
-            result = "0" + result;
-        }
-        return result;
+    /**
+     * @return 10 to the power of {@code codeLength}, the number of distinct passcodes of that
+     * length.
+     */
+    static int digitsPower(int codeLength) {
+        return DIGITS_POWER[codeLength];
+    }
+
+    /**
+     * @return the number of decimal digits in the passcodes generated by this generator.
+     */
+    public int getCodeLength() {
+        return codeLength;
     }
 
     /**
@@ -122,8 +173,7 @@ public class PasscodeGenerator {
      */
     public String generateResponseCode(long state)
             throws GeneralSecurityException {
-        byte[] value = ByteBuffer.allocate(8).putLong(state).array();
-        return generateResponseCode(value);
+        return formatResponseCode(generateResponseCodeInt(state));
     }
 
 
@@ -154,35 +204,115 @@ public class PasscodeGenerator {
      */
     public String generateResponseCode(byte[] challenge)
             throws GeneralSecurityException {
-        byte[] hash = signer.sign(challenge);
+        return formatResponseCode(generateResponseCodeInt(challenge));
+    }
+
+    /**
+     * Same as {@link #generateResponseCode(long)}, but returns the passcode as a number instead of
+     * a zero-padded string. Use {@link #formatResponseCode(int, char[])} to display it.
+     *
+     * @param state 8-byte integer value representing internal OTP state.
+     * @return A decimal response code in {@code [0, 10^codeLength)}
+     * @throws GeneralSecurityException If a JCE exception occur
+     */
+    public int generateResponseCodeInt(long state)
+            throws GeneralSecurityException {
+        return signer.truncatedHash(state, counterBuffer) % DIGITS_POWER[codeLength];
+    }
+
+    /**
+     * Generates the passcodes for a range of consecutive states, for example to look ahead across
+     * a wide verification window.
+     *
+     * @param firstState 8-byte integer value representing the OTP state of {@code result[0]}.
+     * @param result     receives the decimal response code for state {@code firstState + i} at
+     *                   index {@code i}
+     * @throws GeneralSecurityException If a JCE exception occur
+     */
+    public void generateResponseCodesInt(long firstState, int[] result)
+            throws GeneralSecurityException {
+        signer.truncatedHashes(firstState, result, counterBuffer);
+        for (int i = 0; i < result.length; i++) {
+            result[i] %= DIGITS_POWER[codeLength];
+        }
+    }
+
+    /**
+     * @param challenge An arbitrary byte array used as a challenge
+     * @return A decimal response code in {@code [0, 10^codeLength)}
+     * @throws GeneralSecurityException If a JCE exception occur
+     */
+    public int generateResponseCodeInt(byte[] challenge)
+            throws GeneralSecurityException {
+        return dynamicTruncation(signer.sign(challenge)) % DIGITS_POWER[codeLength];
+    }
 
-        // Dynamically truncate the hash
+    /**
+     * Dynamically truncates the hash as described in RFC 4226 section 5.3.
+     *
+     * @return the truncated hash, a non-negative 31-bit integer.
+     */
+    static int dynamicTruncation(byte[] hash) {
         // OffsetBits are the low order bits of the last byte of the hash
         int offset = hash[hash.length - 1] & 0xF;
         // Grab a positive integer value starting at the given offset.
-        int truncatedHash = hashToInt(hash, offset) & 0x7FFFFFFF;
-        int pinValue = truncatedHash % DIGITS_POWER[codeLength];
-        return padOutput(pinValue);
+        return ((hash[offset] & 0x7F) << 24)
+                | ((hash[offset + 1] & 0xFF) << 16)
+                | ((hash[offset + 2] & 0xFF) << 8)
+                | (hash[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Writes the passcode into the provided buffer as {@link #getCodeLength()} decimal digits,
+     * padded with leading zeros.
+     *
+     * @param code        passcode as returned by {@link #generateResponseCodeInt(long)}
+     * @param destination buffer of at least {@link #getCodeLength()} characters
+     */
+    public void formatResponseCode(int code, char[] destination) {
+        formatResponseCode(code, codeLength, destination);
+    }
+
+    static void formatResponseCode(int code, int codeLength, char[] destination) {
+        if (destination.length < codeLength) {
+            throw new IllegalArgumentException(
+                    "Destination must hold at least " + codeLength + " characters");
+        }
+        for (int i = codeLength - 1; i >= 0; i--) {
+            destination[i] = (char) ('0' + (code % 10));
+            code /= 10;
+        }
     }
 
     /**
-     * Grabs a positive integer value from the input array starting at
-     * the given offset.
+     * @param code passcode as returned by {@link #generateResponseCodeInt(long)}
+     * @return the passcode as a string of {@link #getCodeLength()} decimal digits.
+     */
+    public String formatResponseCode(int code) {
+        char[] result = new char[codeLength];
+        formatResponseCode(code, result);
+        return new String(result);
+    }
+
+    /**
+     * Parses a response as typed by the user.
      *
-     * @param bytes the array of bytes
-     * @param start the index into the array to start grabbing bytes
-     * @return the integer constructed from the four bytes in the array
-     */
-    private int hashToInt(byte[] bytes, int start) {
-        DataInput input = new DataInputStream(
-                new ByteArrayInputStream(bytes, start, bytes.length - start));
-        int val;
-        try {
-            val = input.readInt();
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
+     * @return the numeric value of the response or {@code -1} if it isn't exactly
+     * {@link #getCodeLength()} decimal digits.
+     */
+    public int parseResponseCode(String response) {
+        if (response == null || response.length() != codeLength) {
+            return -1;
         }
-        return val;
+        int value = 0;
+        for (int i = 0; i < codeLength; i++) {
+            char c = response.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
     }
 
     /**
@@ -192,8 +322,8 @@ public class PasscodeGenerator {
      */
     public boolean verifyResponseCode(long challenge, String response)
             throws GeneralSecurityException {
-        String expectedResponse = generateResponseCode(challenge, null);
-        return expectedResponse.equals(response);
+        int actualResponse = parseResponseCode(response);
+        return actualResponse >= 0 && generateResponseCodeInt(challenge) == actualResponse;
     }
 
     /**
@@ -224,14 +354,18 @@ public class PasscodeGenerator {
                                      long currentInterval,
                                      int pastIntervals,
                                      int futureIntervals) throws GeneralSecurityException {
+        int code = parseResponseCode(timeoutCode);
+        if (code < 0) {
+            return false;
+        }
+
         // Ensure that look-ahead and look-back counts are not negative.
         pastIntervals = Math.max(pastIntervals, 0);
         futureIntervals = Math.max(futureIntervals, 0);
 
         // Try upto "pastIntervals" before current time, and upto "futureIntervals" after.
         for (int i = -pastIntervals; i <= futureIntervals; ++i) {
-            String candidate = generateResponseCode(currentInterval - i, null);
-            if (candidate.equals(timeoutCode)) {
+            if (generateResponseCodeInt(currentInterval - i) == code) {
                 return true;
             }
         }
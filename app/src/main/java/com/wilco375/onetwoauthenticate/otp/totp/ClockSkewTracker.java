@@ -0,0 +1,63 @@
+package com.wilco375.onetwoauthenticate.otp.totp;
+
+/**
+ * Learns the clock skew of the devices of many accounts from the interval offsets at which their
+ * codes are accepted, so that verification can start at the interval the device most likely used.
+ * <p>
+ * The estimate of each account is an exponential moving average of the recorded offsets, kept in
+ * fixed point in a lock-free map.
+ * <p>
+ * Thread-safety: all methods are thread-safe and never block.
+ */
+public class ClockSkewTracker {
+    /**
+     * Number of fractional bits of the fixed point estimates.
+     */
+    private static final int FRACTION_BITS = 8;
+
+    /**
+     * Weight of a new offset in the moving average, as a right shift: 1/4.
+     */
+    private static final int SMOOTHING_SHIFT = 2;
+
+    private final ConcurrentLongLongMap mEstimates;
+
+    /**
+     * @param maxAccounts maximum number of distinct accounts that will ever be tracked
+     */
+    public ClockSkewTracker(int maxAccounts) {
+        mEstimates = new ConcurrentLongLongMap(maxAccounts);
+    }
+
+    /**
+     * Records the offset from the current interval at which a code of the account was accepted.
+     *
+     * @param accountId identifier of the account, any value except {@link Long#MIN_VALUE}
+     * @throws IllegalStateException if the account is new and {@code maxAccounts} accounts are
+     *                               already tracked
+     */
+    public void record(long accountId, int offset) {
+        long sample = (long) offset << FRACTION_BITS;
+        while (true) {
+            long current = mEstimates.get(accountId);
+            long updated = (current == ConcurrentLongLongMap.NO_VALUE)
+                    ? sample
+                    : current + ((sample - current) >> SMOOTHING_SHIFT);
+            if (mEstimates.compareAndSet(accountId, current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the estimated offset of the account's clock in intervals, rounded to the nearest
+     * integer, or {@code 0} if nothing has been recorded for it.
+     */
+    public int getEstimatedOffset(long accountId) {
+        long estimate = mEstimates.get(accountId);
+        if (estimate == ConcurrentLongLongMap.NO_VALUE) {
+            return 0;
+        }
+        return (int) ((estimate + (1 << (FRACTION_BITS - 1))) >> FRACTION_BITS);
+    }
+}
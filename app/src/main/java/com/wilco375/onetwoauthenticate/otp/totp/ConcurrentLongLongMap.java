@@ -0,0 +1,135 @@
+package com.wilco375.onetwoauthenticate.otp.totp;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-capacity, lock-free hash map from {@code long} keys to {@code long} values, backed by two
+ * primitive arrays with open addressing and linear probing.
+ * <p>
+ * Keys are never removed once inserted, so the capacity bounds the number of distinct keys ever
+ * stored. {@link #NO_VALUE} is both the value of absent keys and reserved as a key.
+ * <p>
+ * All methods are thread-safe and never block.
+ */
+class ConcurrentLongLongMap {
+    /**
+     * Value of keys that have no value.
+     */
+    static final long NO_VALUE = Long.MIN_VALUE;
+
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+
+    private final AtomicLongArray mKeys;
+    private final AtomicLongArray mValues;
+    private final int mMask;
+
+    /**
+     * @param maxKeys maximum number of distinct keys the map must hold.
+     */
+    ConcurrentLongLongMap(int maxKeys) {
+        if (maxKeys < 1 || maxKeys > (1 << 29)) {
+            throw new IllegalArgumentException("maxKeys out of range: " + maxKeys);
+        }
+        // Keep the load factor at or below 1/2 so probe sequences stay short
+        int capacity = Integer.highestOneBit(maxKeys * 2 - 1) << 1;
+        long[] empty = new long[capacity];
+        Arrays.fill(empty, EMPTY_KEY);
+        mKeys = new AtomicLongArray(empty);
+        mValues = new AtomicLongArray(empty);
+        mMask = capacity - 1;
+    }
+
+    /**
+     * @return the value of the key or {@link #NO_VALUE} if it has none.
+     */
+    long get(long key) {
+        int slot = findSlot(key, false);
+        return (slot < 0) ? NO_VALUE : mValues.get(slot);
+    }
+
+    /**
+     * Atomically sets the value of the key if it is greater than the current value.
+     *
+     * @return {@code true} if the value was set.
+     * @throws IllegalStateException if the key is new and the map is full
+     */
+    boolean setIfGreater(long key, long value) {
+        int slot = findSlot(key, true);
+        while (true) {
+            long current = mValues.get(slot);
+            if (current >= value) {
+                return false;
+            }
+            if (mValues.compareAndSet(slot, current, value)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Atomically replaces the value of the key if it equals {@code expected}. Use
+     * {@link #NO_VALUE} as {@code expected} to set the value of a key that has none.
+     *
+     * @return {@code true} if the value was replaced.
+     * @throws IllegalStateException if the key is new and the map is full
+     */
+    boolean compareAndSet(long key, long expected, long value) {
+        return mValues.compareAndSet(findSlot(key, true), expected, value);
+    }
+
+    /**
+     * @return the number of slots in the backing arrays.
+     */
+    int capacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * Finds the slot of a key.
+     *
+     * @param insert whether to claim a slot for the key if it isn't in the map yet
+     * @return the slot or {@code -1} if the key isn't in the map and {@code insert} is false.
+     */
+    private int findSlot(long key, boolean insert) {
+        if (key == EMPTY_KEY) {
+            throw new IllegalArgumentException("Reserved key: " + key);
+        }
+        int slot = hash(key) & mMask;
+        for (int probes = 0; probes <= mMask; probes++) {
+            long current = mKeys.get(slot);
+            if (current == key) {
+                return slot;
+            }
+            if (current == EMPTY_KEY) {
+                if (!insert) {
+                    return -1;
+                }
+                if (mKeys.compareAndSet(slot, EMPTY_KEY, key)) {
+                    return slot;
+                }
+                // Lost the race for this slot, check whether the winner inserted the same key
+                if (mKeys.get(slot) == key) {
+                    return slot;
+                }
+            }
+            slot = (slot + 1) & mMask;
+        }
+        if (!insert) {
+            return -1;
+        }
+        throw new IllegalStateException("Map is full");
+    }
+
+    /**
+     * Spreads the bits of the key, using the finalizer of MurmurHash3.
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
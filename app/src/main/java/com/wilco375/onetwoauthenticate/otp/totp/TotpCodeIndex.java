@@ -0,0 +1,365 @@
+package com.wilco375.onetwoauthenticate.otp.totp;
+
+import com.wilco375.onetwoauthenticate.otp.HmacSha1;
+import com.wilco375.onetwoauthenticate.otp.HmacSha1BatchEngine;
+import com.wilco375.onetwoauthenticate.util.Utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Table of the expected TOTP codes of all enrolled accounts for the intervals around the current
+ * one, so that verifying a code is an array lookup instead of HMAC computations.
+ * <p>
+ * The table holds one column of codes per interval. When the index is advanced to the next
+ * interval only the column of the newly covered interval is computed, the other columns are
+ * reused and only extended with the codes of accounts enrolled since. Rotating the key of an
+ * account or unenrolling it recomputes just that account's codes. The slots of unenrolled
+ * accounts are reused by later enrollments. Memory is allocated up front for
+ * {@code maxAccounts} accounts, see {@link #getMemoryUsageBytes()}.
+ * <p>
+ * Thread-safety: lookups never block and can run concurrently with enrollment and advancing.
+ */
+public class TotpCodeIndex {
+    /**
+     * Returned by {@link #lookup(int, int)} if the code doesn't match any interval in the table.
+     */
+    public static final int NOT_FOUND = Integer.MIN_VALUE;
+
+    /**
+     * Stored in the columns for unenrolled accounts. Codes are never negative, so nothing matches
+     * it.
+     */
+    private static final int NO_CODE = -1;
+
+    /**
+     * Delay before the next update after an update failed.
+     */
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final int mPastIntervals;
+    private final int mFutureIntervals;
+    private final int mCodeLength;
+    private final int mMaxAccounts;
+
+    /**
+     * @GuardedBy this
+     */
+    private final HmacSha1BatchEngine mEngine;
+
+    /**
+     * Indices of unenrolled accounts, which are reused before the engine grows.
+     *
+     * @GuardedBy this
+     */
+    private final List<Integer> mFreeAccounts = new ArrayList<>();
+
+    /**
+     * Codes currently used for lookups or {@code null} before the first {@link #advanceTo(long)}.
+     */
+    private volatile Table mTable;
+
+    /**
+     * @GuardedBy this
+     */
+    private ScheduledFuture<?> mScheduledUpdate;
+
+    /**
+     * Identifies the updates of the latest {@link #startUpdates} call. Updates of earlier calls
+     * that are still running see a different token and don't schedule another update.
+     *
+     * @GuardedBy this
+     */
+    private Object mUpdateToken;
+
+    /**
+     * Immutable set of columns, indexed by interval offset plus the number of past intervals.
+     */
+    private static final class Table {
+        final long counterValue;
+        final int size;
+        final int[][] columns;
+
+        Table(long counterValue, int size, int[][] columns) {
+            this.counterValue = counterValue;
+            this.size = size;
+            this.columns = columns;
+        }
+    }
+
+    /**
+     * Source of the current time, for example {@link TotpClock#currentTimeMillis()}.
+     */
+    public interface Clock {
+        /**
+         * Gets the number of milliseconds since epoch.
+         */
+        long currentTimeMillis();
+    }
+
+    /**
+     * Told about updates started by {@link #startUpdates} that failed.
+     */
+    public interface UpdateFailureListener {
+        /**
+         * Called on the executor of the updates. The update is retried shortly after.
+         */
+        void onUpdateFailed(RuntimeException e);
+    }
+
+    /**
+     * @param maxAccounts     maximum number of accounts that can be enrolled
+     * @param pastIntervals   number of intervals before the current one to keep codes for
+     * @param futureIntervals number of intervals after the current one to keep codes for
+     * @param codeLength      number of decimal digits of the codes
+     */
+    public TotpCodeIndex(int maxAccounts, int pastIntervals, int futureIntervals, int codeLength) {
+        if (maxAccounts < 0 || pastIntervals < 0 || futureIntervals < 0) {
+            throw new IllegalArgumentException("Arguments must not be negative");
+        }
+        mMaxAccounts = maxAccounts;
+        mPastIntervals = pastIntervals;
+        mFutureIntervals = futureIntervals;
+        mCodeLength = codeLength;
+        mEngine = new HmacSha1BatchEngine(maxAccounts);
+    }
+
+    /**
+     * Adds an account to the index. Its codes are available after the next
+     * {@link #advanceTo(long)} at the latest.
+     *
+     * @param key HMAC key of the account
+     * @return the account's index, to pass to {@link #lookup(int, int)}.
+     * @throws IllegalStateException if {@code maxAccounts} accounts are already enrolled
+     */
+    public synchronized int enroll(byte[] key) {
+        if (!mFreeAccounts.isEmpty()) {
+            int account = mFreeAccounts.get(mFreeAccounts.size() - 1);
+            mEngine.set(account, key);
+            mFreeAccounts.remove(mFreeAccounts.size() - 1);
+            updateAccount(account);
+            return account;
+        }
+        if (mEngine.size() >= mMaxAccounts) {
+            throw new IllegalStateException("Index is full");
+        }
+        return mEngine.add(key);
+    }
+
+    /**
+     * Replaces the key of an account and recomputes its codes.
+     *
+     * @param account index of the account as returned by {@link #enroll(byte[])}
+     * @param key     new HMAC key of the account
+     * @throws IllegalArgumentException if the account isn't enrolled
+     */
+    public synchronized void rotate(int account, byte[] key) {
+        checkEnrolled(account);
+        mEngine.set(account, key);
+        updateAccount(account);
+    }
+
+    /**
+     * Removes an account from the index. Its codes no longer match and its index may be returned
+     * by a later {@link #enroll(byte[])}.
+     *
+     * @param account index of the account as returned by {@link #enroll(byte[])}
+     * @throws IllegalArgumentException if the account isn't enrolled
+     */
+    public synchronized void unenroll(int account) {
+        checkEnrolled(account);
+        mFreeAccounts.add(account);
+        updateAccount(account);
+    }
+
+    private void checkEnrolled(int account) {
+        if (account < 0 || account >= mEngine.size() || mFreeAccounts.contains(account)) {
+            throw new IllegalArgumentException("Account " + account + " isn't enrolled");
+        }
+    }
+
+    /**
+     * Publishes a copy of the table with the codes of one account recomputed, if the table
+     * already holds the account.
+     */
+    private void updateAccount(int account) {
+        Table table = mTable;
+        if (table == null || account >= table.size) {
+            return;
+        }
+        int[][] columns = new int[table.columns.length][];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = table.columns[i].clone();
+            computeCodes(table.counterValue - mPastIntervals + i, columns[i], account,
+                    account + 1);
+        }
+        mTable = new Table(table.counterValue, table.size, columns);
+    }
+
+    /**
+     * Computes the codes of the accounts with an index in {@code [fromIndex, toIndex)} for an
+     * interval, with {@link #NO_CODE} for the unenrolled ones.
+     */
+    private void computeCodes(long counterValue, int[] column, int fromIndex, int toIndex) {
+        mEngine.generateResponseCodes(counterValue, mCodeLength, column, fromIndex, toIndex);
+        for (int account : mFreeAccounts) {
+            if (account >= fromIndex && account < toIndex) {
+                column[account] = NO_CODE;
+            }
+        }
+    }
+
+    /**
+     * Makes {@code counterValue} the current interval. Columns of intervals that were already in
+     * the table are reused, extended with the codes of the accounts enrolled since they were
+     * computed.
+     */
+    public synchronized void advanceTo(long counterValue) {
+        Table old = mTable;
+        int size = mEngine.size();
+        int[][] columns = new int[mPastIntervals + 1 + mFutureIntervals][];
+        for (int i = 0; i < columns.length; i++) {
+            long columnCounterValue = counterValue - mPastIntervals + i;
+            if (old != null) {
+                long oldIndex = columnCounterValue - old.counterValue + mPastIntervals;
+                if (oldIndex >= 0 && oldIndex < columns.length) {
+                    int[] oldColumn = old.columns[(int) oldIndex];
+                    if (old.size == size) {
+                        columns[i] = oldColumn;
+                    } else {
+                        // Lookups may still read the old column, so extend a copy of it
+                        columns[i] = Arrays.copyOf(oldColumn, size);
+                        computeCodes(columnCounterValue, columns[i], old.size, size);
+                    }
+                    continue;
+                }
+            }
+            columns[i] = new int[size];
+            computeCodes(columnCounterValue, columns[i], 0, size);
+        }
+        mTable = new Table(counterValue, size, columns);
+    }
+
+    /**
+     * Looks up a code of an account, trying the current interval first and then the intervals
+     * closest to it.
+     *
+     * @param account index of the account as returned by {@link #enroll(byte[])}
+     * @param code    the code to look up
+     * @return the offset from the current interval of the interval the code belongs to, or
+     * {@link #NOT_FOUND} if it doesn't match any interval in the table.
+     */
+    public int lookup(int account, int code) {
+        Table table = mTable;
+        if (table == null || account < 0 || account >= table.size || code < 0) {
+            return NOT_FOUND;
+        }
+        int[][] columns = table.columns;
+        int maxDistance = Math.max(mPastIntervals, mFutureIntervals);
+        for (int distance = 0; distance <= maxDistance; distance++) {
+            if (distance <= mPastIntervals && columns[mPastIntervals - distance][account] == code) {
+                return -distance;
+            }
+            if (distance > 0 && distance <= mFutureIntervals
+                    && columns[mPastIntervals + distance][account] == code) {
+                return distance;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * @return the current interval of the table or {@code -1} if it hasn't been advanced yet.
+     */
+    public long getCounterValue() {
+        Table table = mTable;
+        return (table == null) ? -1 : table.counterValue;
+    }
+
+    /**
+     * Gets the memory used by the index when it is full: the key states plus the columns of codes,
+     * including one column being computed while the current ones are in use.
+     */
+    public long getMemoryUsageBytes() {
+        int columns = mPastIntervals + 1 + mFutureIntervals + 1;
+        // HMAC state ints and one int per column for every account
+        return 4L * mMaxAccounts * (HmacSha1.STATE_SIZE + columns);
+    }
+
+    /**
+     * Starts advancing the index at the start of every interval of the counter. An update that
+     * fails is reported to the listener and retried shortly after. Replaces the updates of earlier
+     * calls.
+     *
+     * @param executor executor to compute the new columns on
+     * @param listener told about failed updates, or {@code null}
+     */
+    public synchronized void startUpdates(ScheduledExecutorService executor, TotpCounter counter,
+                                          Clock clock, UpdateFailureListener listener) {
+        stopUpdates();
+        mUpdateToken = new Object();
+        mScheduledUpdate = executor.schedule(
+                new UpdateTask(mUpdateToken, executor, counter, clock, listener), 0,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the updates started by {@link #startUpdates}.
+     */
+    public synchronized void stopUpdates() {
+        mUpdateToken = null;
+        if (mScheduledUpdate != null) {
+            mScheduledUpdate.cancel(false);
+            mScheduledUpdate = null;
+        }
+    }
+
+    /**
+     * Advances the index to the current interval and schedules itself for the start of the next
+     * one, for as long as its token is the current {@link #mUpdateToken}.
+     */
+    private final class UpdateTask implements Runnable {
+        private final Object mToken;
+        private final ScheduledExecutorService mExecutor;
+        private final TotpCounter mCounter;
+        private final Clock mClock;
+        private final UpdateFailureListener mListener;
+
+        UpdateTask(Object token, ScheduledExecutorService executor, TotpCounter counter,
+                   Clock clock, UpdateFailureListener listener) {
+            mToken = token;
+            mExecutor = executor;
+            mCounter = counter;
+            mClock = clock;
+            mListener = listener;
+        }
+
+        @Override
+        public void run() {
+            long delayMillis = RETRY_DELAY_MILLIS;
+            try {
+                long nowMillis = mClock.currentTimeMillis();
+                long value = mCounter.getValueAtTime(Utilities.millisToSeconds(nowMillis));
+                advanceTo(value);
+
+                long nextMillis = Utilities.secondsToMillis(mCounter.getValueStartTime(value + 1));
+                delayMillis = Math.max(0, nextMillis - mClock.currentTimeMillis());
+            } catch (RuntimeException e) {
+                if (mListener != null) {
+                    mListener.onUpdateFailed(e);
+                }
+            } finally {
+                synchronized (TotpCodeIndex.this) {
+                    if (mUpdateToken == mToken) {
+                        mScheduledUpdate =
+                                mExecutor.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        }
+    }
+}
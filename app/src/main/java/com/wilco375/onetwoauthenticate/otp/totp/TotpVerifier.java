@@ -0,0 +1,142 @@
+package com.wilco375.onetwoauthenticate.otp.totp;
+
+import com.wilco375.onetwoauthenticate.otp.PasscodeGenerator;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Verifies TOTP codes for many accounts and rejects codes that have already been used, as
+ * required by RFC 6238 section 5.2.
+ * <p>
+ * For each account the verifier remembers the last accepted counter value. A code is only
+ * accepted if it matches a counter within the window that is greater than that value, so a code
+ * can't be replayed for the rest of its window and older codes can't be used after a newer one.
+ * <p>
+ * Optionally the verifier learns the clock skew of each account with a {@link ClockSkewTracker}.
+ * The window is then centered on the estimated offset instead of the current interval, so that a
+ * consistently skewed device usually matches on the first interval tried and devices can be
+ * skewed by up to a configurable number of intervals.
+ * <p>
+ * Thread-safety: the state is kept in lock-free maps, so verifications of any accounts can run
+ * concurrently. Concurrent verifications of the same code accept it at most once.
+ */
+public class TotpVerifier {
+    /**
+     * Returned by {@code verify} if the code doesn't match any counter within the window.
+     */
+    public static final int INVALID = Integer.MIN_VALUE;
+
+    /**
+     * Returned by {@code verify} if the code only matches counters that are not greater than the
+     * last accepted counter of the account.
+     */
+    public static final int REPLAYED = Integer.MAX_VALUE;
+
+    private final ConcurrentLongLongMap mLastAcceptedCounters;
+    private final int mPastIntervals;
+    private final int mFutureIntervals;
+
+    /**
+     * Skew estimates of the accounts or {@code null} if skew isn't tracked.
+     */
+    private final ClockSkewTracker mSkewTracker;
+
+    /**
+     * Maximum distance of the center of the window from the current interval.
+     */
+    private final int mMaxSkew;
+
+    /**
+     * Creates a verifier with a fixed window around the current interval.
+     *
+     * @param maxAccounts     maximum number of distinct accounts that will ever be verified
+     * @param pastIntervals   number of intervals before the current one to accept codes for
+     * @param futureIntervals number of intervals after the current one to accept codes for
+     */
+    public TotpVerifier(int maxAccounts, int pastIntervals, int futureIntervals) {
+        this(maxAccounts, pastIntervals, futureIntervals, 0);
+    }
+
+    /**
+     * Creates a verifier that centers the window on the learned clock skew of each account.
+     *
+     * @param maxAccounts     maximum number of distinct accounts that will ever be verified
+     * @param pastIntervals   number of intervals before the center to accept codes for
+     * @param futureIntervals number of intervals after the center to accept codes for
+     * @param maxSkew         maximum number of intervals the center may be away from the current
+     *                        interval; {@code 0} disables skew tracking
+     */
+    public TotpVerifier(int maxAccounts, int pastIntervals, int futureIntervals, int maxSkew) {
+        if (pastIntervals < 0 || futureIntervals < 0 || maxSkew < 0) {
+            throw new IllegalArgumentException("Intervals must not be negative");
+        }
+        mLastAcceptedCounters = new ConcurrentLongLongMap(maxAccounts);
+        mPastIntervals = pastIntervals;
+        mFutureIntervals = futureIntervals;
+        mSkewTracker = (maxSkew > 0) ? new ClockSkewTracker(maxAccounts) : null;
+        mMaxSkew = maxSkew;
+    }
+
+    /**
+     * Verifies a code as typed by the user.
+     *
+     * @param accountId       identifier of the account, any value except {@link Long#MIN_VALUE}
+     * @param generator       passcode generator holding the account's key; must be thread-safe if
+     *                        it is shared between threads, as it is with an
+     *                        {@link com.wilco375.onetwoauthenticate.otp.HmacSha1Signer}
+     * @param code            the code to verify
+     * @param currentInterval value of the {@link TotpCounter} at the time of verification
+     * @return the offset of the matched counter from {@code currentInterval} if the code is
+     * accepted, otherwise {@link #INVALID} or {@link #REPLAYED}.
+     * @throws IllegalStateException if the account is new and {@code maxAccounts} accounts have
+     *                               already been verified
+     */
+    public int verify(long accountId, PasscodeGenerator generator, String code,
+                      long currentInterval) throws GeneralSecurityException {
+        int value = generator.parseResponseCode(code);
+        return (value < 0) ? INVALID : verify(accountId, generator, value, currentInterval);
+    }
+
+    /**
+     * Same as {@link #verify(long, PasscodeGenerator, String, long)}, but for a code that has
+     * already been parsed.
+     */
+    public int verify(long accountId, PasscodeGenerator generator, int code,
+                      long currentInterval) throws GeneralSecurityException {
+        long lastAccepted = mLastAcceptedCounters.get(accountId);
+        boolean replayed = false;
+
+        int center = 0;
+        if (mSkewTracker != null) {
+            center = Math.max(-mMaxSkew,
+                    Math.min(mMaxSkew, mSkewTracker.getEstimatedOffset(accountId)));
+        }
+
+        // Try the intervals closest to the center first: 0, -1, +1, -2, +2, ...
+        int maxDistance = Math.max(mPastIntervals, mFutureIntervals);
+        for (int distance = 0; distance <= maxDistance; distance++) {
+            for (int i = -distance; i <= distance; i += Math.max(2 * distance, 1)) {
+                if (i < -mPastIntervals || i > mFutureIntervals) {
+                    continue;
+                }
+                int offset = center + i;
+                long counter = currentInterval + offset;
+                if (generator.generateResponseCodeInt(counter) != code) {
+                    continue;
+                }
+                if (counter > lastAccepted) {
+                    if (mLastAcceptedCounters.setIfGreater(accountId, counter)) {
+                        if (mSkewTracker != null) {
+                            mSkewTracker.record(accountId, offset);
+                        }
+                        return offset;
+                    }
+                    // Another verification accepted this or a later counter in the meantime
+                    lastAccepted = mLastAcceptedCounters.get(accountId);
+                }
+                replayed = true;
+            }
+        }
+        return replayed ? REPLAYED : INVALID;
+    }
+}
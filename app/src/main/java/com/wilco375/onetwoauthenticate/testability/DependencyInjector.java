@@ -23,11 +23,13 @@ import android.preference.PreferenceManager;
 import android.test.RenamingDelegatingContext;
 
 import com.wilco375.onetwoauthenticate.database.AccountDb;
+import com.wilco375.onetwoauthenticate.database.AccountStore;
 import com.wilco375.onetwoauthenticate.activity.AuthenticatorActivity;
 import com.wilco375.onetwoauthenticate.MarketBuildOptionalFeatures;
 import com.wilco375.onetwoauthenticate.OptionalFeatures;
 import com.wilco375.onetwoauthenticate.otp.OtpSource;
 import com.wilco375.onetwoauthenticate.otp.totp.TotpClock;
+import com.wilco375.onetwoauthenticate.util.IconCache;
 
 import org.apache.http.client.HttpClient;
 import org.apache.http.conn.ClientConnectionManager;
@@ -54,12 +56,14 @@ public final class DependencyInjector {
     private static Context sContext;
 
     private static AccountDb sAccountDb;
+    private static AccountStore sAccountStore;
     private static OtpSource sOtpProvider;
     private static TotpClock sTotpClock;
     private static PackageManager sPackageManager;
     private static StartActivityListener sStartActivityListener;
     private static HttpClient sHttpClient;
     private static OptionalFeatures sOptionalFeatures;
+    private static IconCache sIconCache;
 
     private enum Mode {
         PRODUCTION,
@@ -92,16 +96,68 @@ public final class DependencyInjector {
         sAccountDb = accountDb;
     }
 
+    /**
+     * Gets the {@link AccountDb}, opening it if needed.
+     *
+     * @throws IllegalStateException if it can't be opened, see {@link #getAccountStoreError()}.
+     */
     public static synchronized AccountDb getAccountDb() {
         if (sAccountDb == null) {
-            sAccountDb = new AccountDb(getContext());
-            if (sMode != Mode.PRODUCTION) {
-                sAccountDb.deleteAllData();
+            try {
+                openAccountDb();
+            } catch (AccountDb.DataKeyException e) {
+                // Callers that can run before the accounts have been read check
+                // getAccountStoreError() first
+                throw new IllegalStateException("Accounts can't be read", e);
             }
         }
         return sAccountDb;
     }
 
+    /**
+     * Opens the store of the accounts if it isn't open yet and tells why it can't be used, so that
+     * the activities can show an error instead of the accounts. Opening is retried on every call.
+     *
+     * @return {@code null} if the store can be used, otherwise why its accounts can't be read.
+     */
+    public static synchronized AccountDb.DataKeyException getAccountStoreError() {
+        if (sAccountStore != null || sAccountDb != null) {
+            return null;
+        }
+        try {
+            openAccountDb();
+            return null;
+        } catch (AccountDb.DataKeyException e) {
+            return e;
+        }
+    }
+
+    private static void openAccountDb() throws AccountDb.DataKeyException {
+        sAccountDb = new AccountDb(getContext());
+        if (sMode != Mode.PRODUCTION) {
+            sAccountDb.deleteAllData();
+        }
+    }
+
+    /**
+     * Sets the {@link AccountStore} instance returned by {@link #getAccountStore()} instead of the
+     * {@link AccountDb}, for example an in-memory store.
+     */
+    public static synchronized void setAccountStore(AccountStore accountStore) {
+        if (sAccountStore != null) {
+            sAccountStore.close();
+        }
+        sAccountStore = accountStore;
+    }
+
+    /**
+     * Gets the store of the accounts, which is the {@link AccountDb} unless another store has been
+     * set with {@link #setAccountStore(AccountStore)}.
+     */
+    public static synchronized AccountStore getAccountStore() {
+        return (sAccountStore != null) ? sAccountStore : getAccountDb();
+    }
+
     /**
      * Sets the {@link OtpSource} instance returned by this injector. This will prevent the injector
      * from creating its own instance.
@@ -112,7 +168,7 @@ public final class DependencyInjector {
 
     public static synchronized OtpSource getOtpProvider() {
         if (sOtpProvider == null) {
-            sOtpProvider = getOptionalFeatures().createOtpSource(getAccountDb(), getTotpClock());
+            sOtpProvider = getOptionalFeatures().createOtpSource(getAccountStore(), getTotpClock());
         }
         return sOtpProvider;
     }
@@ -196,6 +252,31 @@ public final class DependencyInjector {
         return sOptionalFeatures;
     }
 
+    /**
+     * Sets the {@link IconCache} instance returned by this injector. This will prevent the injector
+     * from creating its own instance.
+     */
+    public static synchronized void setIconCache(IconCache iconCache) {
+        sIconCache = iconCache;
+    }
+
+    public static synchronized IconCache getIconCache() {
+        if (sIconCache == null) {
+            sIconCache = new IconCache(getContext());
+        }
+        return sIconCache;
+    }
+
+    /**
+     * Releases memory held by the objects of this injector, see
+     * {@link android.content.ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public static synchronized void trimMemory(int level) {
+        if (sIconCache != null) {
+            sIconCache.trimMemory(level);
+        }
+    }
+
     /**
      * Clears any state and configures this injector for production use. Does nothing if the injector
      * is already configured.
@@ -237,6 +318,9 @@ public final class DependencyInjector {
         if (sAccountDb != null) {
             sAccountDb.close();
         }
+        if (sAccountStore != null) {
+            sAccountStore.close();
+        }
         if (sHttpClient != null) {
             ClientConnectionManager httpClientConnectionManager = sHttpClient.getConnectionManager();
             if (httpClientConnectionManager != null) {
@@ -247,11 +331,13 @@ public final class DependencyInjector {
         sMode = null;
         sContext = null;
         sAccountDb = null;
+        sAccountStore = null;
         sOtpProvider = null;
         sTotpClock = null;
         sPackageManager = null;
         sStartActivityListener = null;
         sHttpClient = null;
         sOptionalFeatures = null;
+        sIconCache = null;
     }
 }
@@ -20,13 +20,11 @@ package com.wilco375.onetwoauthenticate.util;
 import android.content.Context;
 import android.content.ContextWrapper;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Build;
 import android.system.Os;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
@@ -49,9 +47,7 @@ public class FileUtilities {
     }
 
     public static void saveBitmap(Context context, String name, Bitmap bitmap) {
-        ContextWrapper contextWrapper = new ContextWrapper(context);
-        File dir = contextWrapper.getDir(ICONS_DIR, Context.MODE_PRIVATE);
-        File path = new File(dir, getMD5(name) + ".png");
+        File path = getBitmapFile(context, name);
         try (FileOutputStream stream = new FileOutputStream(path)) {
             bitmap.compress(Bitmap.CompressFormat.PNG, 80, stream);
         } catch (IOException e) {
@@ -59,18 +55,13 @@ public class FileUtilities {
         }
     }
 
-    public static Bitmap getBitmap(Context context, String name) {
+    /**
+     * Gets the file a bitmap is stored in by {@link #saveBitmap}, which may not exist.
+     */
+    public static File getBitmapFile(Context context, String name) {
         ContextWrapper contextWrapper = new ContextWrapper(context);
         File dir = contextWrapper.getDir(ICONS_DIR, Context.MODE_PRIVATE);
-        File path = new File(dir, getMD5(name) + ".png");
-        if (path.exists()) {
-            try (FileInputStream stream = new FileInputStream(path)) {
-                return BitmapFactory.decodeStream(stream);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        return null;
+        return new File(dir, getMD5(name) + ".png");
     }
 
     protected static String getMD5(String text) {
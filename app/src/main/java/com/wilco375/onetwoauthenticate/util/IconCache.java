@@ -0,0 +1,214 @@
+package com.wilco375.onetwoauthenticate.util;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+
+/**
+ * Memory-bounded cache of the icons of the accounts, scaled to the sizes they are shown at. Icons
+ * are decoded straight to about the target size with {@code inSampleSize}, into the memory of the
+ * previous decode where possible, so the full stored image is never kept in memory.
+ * <p>
+ * Icons are cached by account id and size. They are stored by account name, so the name is passed
+ * with every lookup and an icon cached under another name is read again. When the icon of an
+ * account is replaced, {@link #invalidate(long)} must be called.
+ * <p>
+ * Thread-safe. The returned bitmaps are shared, so they must not be modified or recycled.
+ */
+public class IconCache {
+    private static final String LOCAL_TAG = "IconCache";
+
+    /**
+     * Part of the maximum heap size used for icons.
+     */
+    private static final int HEAP_FRACTION = 8;
+
+    private final Context mContext;
+    private final LruCache<Key, Entry> mCache;
+
+    /**
+     * Bitmap of the previous decode, which the next decode can reuse.
+     *
+     * @GuardedBy {@link #mDecodeLock}
+     */
+    private Bitmap mDecodeBuffer;
+    private final Object mDecodeLock = new Object();
+
+    public IconCache(Context context) {
+        this(context, (int) (Runtime.getRuntime().maxMemory() / 1024 / HEAP_FRACTION));
+    }
+
+    /**
+     * @param maxSizeKb maximum size of the cached icons in kilobytes.
+     */
+    // @VisibleForTesting
+    public IconCache(Context context, int maxSizeKb) {
+        mContext = context.getApplicationContext();
+        mCache = new LruCache<Key, Entry>(maxSizeKb) {
+            @Override
+            protected int sizeOf(Key key, Entry entry) {
+                return (entry.icon != null) ? Math.max(1, entry.icon.getByteCount() / 1024) : 1;
+            }
+        };
+    }
+
+    /**
+     * Gets the icon of an account, scaled to a square of the size.
+     *
+     * @param size width and height in pixels
+     * @return the icon or {@code null} if the account has no icon.
+     */
+    public Bitmap get(long id, String name, int size) {
+        Key key = new Key(id, size);
+        Entry entry = mCache.get(key);
+        if (entry == null || !entry.name.equals(name)) {
+            entry = new Entry(name, decode(name, size));
+            mCache.put(key, entry);
+        }
+        return entry.icon;
+    }
+
+    /**
+     * Drops the icons of an account in all sizes, after its icon has been replaced.
+     */
+    public void invalidate(long id) {
+        for (Key key : mCache.snapshot().keySet()) {
+            if (key.id == id) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Releases memory, as requested by {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void trimMemory(int level) {
+        synchronized (mDecodeLock) {
+            mDecodeBuffer = null;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
+    }
+
+    private Bitmap decode(String name, int size) {
+        File file = FileUtilities.getBitmapFile(mContext, name);
+        if (!file.exists()) {
+            return null;
+        }
+        String path = file.getPath();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.w(LOCAL_TAG, "Failed to read the size of the icon of " + name);
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, size);
+        options.inMutable = true;
+
+        synchronized (mDecodeLock) {
+            Bitmap decoded = null;
+            if (canReuse(mDecodeBuffer, options)) {
+                options.inBitmap = mDecodeBuffer;
+                try {
+                    decoded = BitmapFactory.decodeFile(path, options);
+                } catch (IllegalArgumentException e) {
+                    // The buffer didn't fit after all
+                    options.inBitmap = null;
+                }
+            }
+            // The buffer is either part of the result now or didn't fit
+            mDecodeBuffer = null;
+            if (decoded == null) {
+                options.inBitmap = null;
+                decoded = BitmapFactory.decodeFile(path, options);
+            }
+            if (decoded == null) {
+                Log.w(LOCAL_TAG, "Failed to decode the icon of " + name);
+                return null;
+            }
+
+            Bitmap icon = Bitmap.createScaledBitmap(decoded, size, size, true);
+            if (icon != decoded) {
+                mDecodeBuffer = decoded;
+            }
+            return icon;
+        }
+    }
+
+    /**
+     * Gets the largest power of two to divide the size of the image by that keeps it at least as
+     * large as the target size, which is what {@code inSampleSize} supports.
+     */
+    // @VisibleForTesting
+    static int getSampleSize(int width, int height, int size) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= size && height / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Whether a bitmap can be decoded into. Before Android 4.4 the bitmap had to have exactly the
+     * size of the image, which stored icons rarely have, so it is only reused since then.
+     */
+    private static boolean canReuse(Bitmap buffer, BitmapFactory.Options options) {
+        if (buffer == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return false;
+        }
+        int width = divideRoundingUp(options.outWidth, options.inSampleSize);
+        int height = divideRoundingUp(options.outHeight, options.inSampleSize);
+        return (long) width * height * 4 <= buffer.getAllocationByteCount();
+    }
+
+    private static int divideRoundingUp(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    private static final class Key {
+        final long id;
+        final int size;
+
+        Key(long id, int size) {
+            this.id = id;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return id == other.id && size == other.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.valueOf(id).hashCode() + size;
+        }
+    }
+
+    private static final class Entry {
+        final String name;
+        final Bitmap icon;
+
+        Entry(String name, Bitmap icon) {
+            this.name = name;
+            this.icon = icon;
+        }
+    }
+}
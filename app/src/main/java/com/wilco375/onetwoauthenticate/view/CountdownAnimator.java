@@ -0,0 +1,119 @@
+package com.wilco375.onetwoauthenticate.view;
+
+import android.view.Choreographer;
+
+import com.wilco375.onetwoauthenticate.otp.totp.TotpClock;
+import com.wilco375.onetwoauthenticate.otp.totp.TotpCounter;
+import com.wilco375.onetwoauthenticate.util.Utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Animates {@link CountdownIndicator}s towards the next value of a TOTP counter. The phase is
+ * computed once per frame from the {@link TotpClock} and set on all indicators, so that they are
+ * all drawn in the same frame.
+ * <p>
+ * Frames are only requested while the animator is started and at least one of its indicators is
+ * on screen. Must only be used on the UI thread.
+ */
+public class CountdownAnimator implements Choreographer.FrameCallback {
+    private final TotpCounter mCounter;
+    private final TotpClock mClock;
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final List<CountdownIndicator> mIndicators = new ArrayList<>();
+
+    private boolean mStarted;
+    private boolean mFrameRequested;
+
+    public CountdownAnimator(TotpCounter counter, TotpClock clock) {
+        mCounter = counter;
+        mClock = clock;
+    }
+
+    /**
+     * Animates an indicator until it is removed. The indicator shows the current phase right away.
+     */
+    public void addIndicator(CountdownIndicator indicator) {
+        if (!mIndicators.contains(indicator)) {
+            mIndicators.add(indicator);
+        }
+        indicator.setPhase(getPhase());
+        requestFrame();
+    }
+
+    public void removeIndicator(CountdownIndicator indicator) {
+        mIndicators.remove(indicator);
+    }
+
+    /**
+     * Starts animating, for example when the indicators become visible.
+     */
+    public void start() {
+        mStarted = true;
+        requestFrame();
+    }
+
+    /**
+     * Stops animating until {@link #start()} is called again.
+     */
+    public void stop() {
+        mStarted = false;
+        if (mFrameRequested) {
+            mChoreographer.removeFrameCallback(this);
+            mFrameRequested = false;
+        }
+    }
+
+    /**
+     * Sets the phase of all indicators.
+     *
+     * @param phase phase {@code [0, 1]}, see {@link CountdownIndicator#setPhase(double)}.
+     */
+    public void setPhase(double phase) {
+        for (int i = 0, len = mIndicators.size(); i < len; i++) {
+            mIndicators.get(i).setPhase(phase);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrameRequested = false;
+        if (!isAnyIndicatorShown()) {
+            // Paused until an indicator is added again, which happens when a row that shows one
+            // is scrolled into view
+            return;
+        }
+        setPhase(getPhase());
+        requestFrame();
+    }
+
+    private boolean isAnyIndicatorShown() {
+        for (int i = 0, len = mIndicators.size(); i < len; i++) {
+            if (mIndicators.get(i).isShown()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void requestFrame() {
+        if (mStarted && !mFrameRequested && !mIndicators.isEmpty()) {
+            mFrameRequested = true;
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Gets the phase at the current time: {@code 1} when the counter has just changed its value,
+     * shrinking to {@code 0} as its next value approaches.
+     */
+    private double getPhase() {
+        long now = mClock.currentTimeMillis();
+        long value = mCounter.getValueAtTime(Utilities.millisToSeconds(now));
+        long nextValueStartTime = Utilities.secondsToMillis(mCounter.getValueStartTime(value + 1));
+        double phase = ((double) (nextValueStartTime - now))
+                / Utilities.secondsToMillis(mCounter.getTimeStep());
+        return Math.max(0, Math.min(1, phase));
+    }
+}
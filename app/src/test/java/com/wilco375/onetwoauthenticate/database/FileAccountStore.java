@@ -0,0 +1,271 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * {@link AccountStore} that keeps the accounts in memory and persists every change by appending
+ * it to a log file, so that it runs without Android.
+ * <p>
+ * Opening the store replays the log. A record that was cut off by a crash while it was written is
+ * dropped. When the log has grown to more than twice the size needed for the current accounts,
+ * it is rewritten on open or by {@link #compact()}.
+ * <p>
+ * Records are flushed to the operating system after every write, so they survive a crash of the
+ * process. {@link #close()} also syncs them to the disk.
+ * <p>
+ * The log holds the secrets in plain text, so this store is only for tests and benchmarks on a
+ * desktop JVM. The app stores its accounts in {@link AccountDb}, which seals the secrets.
+ */
+public class FileAccountStore extends InMemoryAccountStore {
+    private static final int RECORD_PUT = 1;
+    private static final int RECORD_REMOVE = 2;
+    private static final int RECORD_CLEAR = 3;
+
+    /**
+     * Logs with at most this many records are never compacted on open.
+     */
+    private static final int MIN_RECORDS_TO_COMPACT = 64;
+
+    private final File mFile;
+
+    /**
+     * Stream appending to the log or {@code null} while replaying it and after closing.
+     *
+     * @GuardedBy {@link #mWriteLock}
+     */
+    private DataOutputStream mLog;
+
+    /**
+     * @GuardedBy {@link #mWriteLock}
+     */
+    private FileOutputStream mLogFile;
+
+    /**
+     * Number of records in the log.
+     *
+     * @GuardedBy {@link #mWriteLock}
+     */
+    private int mRecordCount;
+
+    /**
+     * Opens the store, creating the log file if it doesn't exist.
+     */
+    public FileAccountStore(File file) throws IOException {
+        mFile = file;
+        synchronized (mWriteLock) {
+            if (file.exists()) {
+                replay();
+            }
+            if (mRecordCount > MIN_RECORDS_TO_COMPACT
+                    && mRecordCount > 2 * getSnapshot().size()) {
+                compact();
+            } else {
+                openLog();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the log with one record per account.
+     */
+    public void compact() throws IOException {
+        synchronized (mWriteLock) {
+            closeLog();
+            File temporary = new File(mFile.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(temporary);
+            try {
+                DataOutputStream log = new DataOutputStream(new BufferedOutputStream(out));
+                AccountSnapshot snapshot = getSnapshot();
+                for (int i = 0; i < snapshot.size(); i++) {
+                    writePut(log, snapshot.get(i));
+                }
+                log.flush();
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!temporary.renameTo(mFile)) {
+                throw new IOException("Failed to replace " + mFile);
+            }
+            mRecordCount = getSnapshot().size();
+            openLog();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (mWriteLock) {
+            try {
+                if (mLog != null) {
+                    mLog.flush();
+                    mLogFile.getFD().sync();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to write " + mFile, e);
+            } finally {
+                closeLog();
+            }
+        }
+    }
+
+    @Override
+    void put(Account account) {
+        synchronized (mWriteLock) {
+            try {
+                writePut(checkOpen(), account);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to write " + mFile, e);
+            }
+            super.put(account);
+            onRecordWritten();
+        }
+    }
+
+    @Override
+    void remove(String email) {
+        synchronized (mWriteLock) {
+            try {
+                DataOutputStream log = checkOpen();
+                log.writeByte(RECORD_REMOVE);
+                log.writeUTF(email);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to write " + mFile, e);
+            }
+            super.remove(email);
+            onRecordWritten();
+        }
+    }
+
+    @Override
+    void clear() {
+        synchronized (mWriteLock) {
+            try {
+                checkOpen().writeByte(RECORD_CLEAR);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to write " + mFile, e);
+            }
+            super.clear();
+            onRecordWritten();
+        }
+    }
+
+    private DataOutputStream checkOpen() {
+        if (mLog == null) {
+            throw new IllegalStateException("Store is closed");
+        }
+        return mLog;
+    }
+
+    private void onRecordWritten() {
+        try {
+            mLog.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write " + mFile, e);
+        }
+        mRecordCount++;
+    }
+
+    private static void writePut(DataOutputStream log, Account account) throws IOException {
+        log.writeByte(RECORD_PUT);
+        log.writeLong(account.id);
+        log.writeUTF(account.email);
+        log.writeUTF(account.secret);
+        log.writeInt((account.type == null) ? -1 : account.type.value);
+        log.writeInt(account.counter);
+        log.writeInt(account.provider);
+        writeNullableInt(log, account.color);
+        writeNullableInt(log, account.sort);
+    }
+
+    private static void writeNullableInt(DataOutputStream log, Integer value) throws IOException {
+        log.writeBoolean(value != null);
+        if (value != null) {
+            log.writeInt(value);
+        }
+    }
+
+    private static Integer readNullableInt(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    /**
+     * Applies the records of the log and truncates it after the last complete record.
+     */
+    private void replay() throws IOException {
+        byte[] data = new byte[(int) mFile.length()];
+        DataInputStream file = new DataInputStream(new FileInputStream(mFile));
+        try {
+            file.readFully(data);
+        } finally {
+            file.close();
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int validLength = 0;
+        try {
+            while (validLength < data.length) {
+                int record = in.readUnsignedByte();
+                switch (record) {
+                    case RECORD_PUT:
+                        super.put(new Account(
+                                in.readLong(),
+                                in.readUTF(),
+                                in.readUTF(),
+                                OtpType.getEnum(in.readInt()),
+                                in.readInt(),
+                                in.readInt(),
+                                readNullableInt(in),
+                                readNullableInt(in)));
+                        break;
+                    case RECORD_REMOVE:
+                        super.remove(in.readUTF());
+                        break;
+                    case RECORD_CLEAR:
+                        super.clear();
+                        break;
+                    default:
+                        throw new IOException("Unknown record " + record + " at " + validLength
+                                + " in " + mFile);
+                }
+                mRecordCount++;
+                validLength = data.length - in.available();
+            }
+        } catch (EOFException e) {
+            // The last record was cut off
+            RandomAccessFile truncated = new RandomAccessFile(mFile, "rw");
+            try {
+                truncated.setLength(validLength);
+            } finally {
+                truncated.close();
+            }
+        }
+    }
+
+    private void openLog() throws IOException {
+        mLogFile = new FileOutputStream(mFile, true);
+        mLog = new DataOutputStream(new BufferedOutputStream(mLogFile));
+    }
+
+    private void closeLog() {
+        if (mLog != null) {
+            try {
+                mLog.close();
+            } catch (IOException e) {
+                // Everything written has been flushed already
+            }
+            mLog = null;
+            mLogFile = null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Unit tests for {@link FileAccountStore}.
+ */
+public class FileAccountStoreTest extends TestCase {
+    private static final String SECRET = "7777777777777777";
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("accounts", ".log");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testReopen() throws IOException {
+        FileAccountStore store = new FileAccountStore(mFile);
+        store.update("a@b.c", SECRET, null, OtpType.HOTP, 0, true, 0xff0000);
+        store.update("b@b.c", SECRET, null, OtpType.TOTP, null);
+        store.update("c@b.c", SECRET, null, OtpType.TOTP, null);
+        store.advanceCounter("a@b.c");
+        store.reorder(new String[]{"c@b.c", "a@b.c", "b@b.c"});
+        store.delete("b@b.c");
+        store.close();
+
+        store = new FileAccountStore(mFile);
+        AccountSnapshot snapshot = store.getSnapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals("c@b.c", snapshot.get(0).email);
+        Account account = snapshot.get(1);
+        assertEquals("a@b.c", account.email);
+        assertEquals(SECRET, account.secret);
+        assertEquals(OtpType.HOTP, account.type);
+        assertEquals(1, (int) account.counter);
+        assertEquals(0xff0000, (int) account.color);
+        assertTrue(account.googleAccount);
+
+        // New accounts don't reuse ids
+        store.update("d@b.c", SECRET, null, OtpType.TOTP, null);
+        assertFalse(store.getSnapshot().get("d@b.c").id == account.id);
+        store.close();
+    }
+
+    public void testDropsIncompleteRecord() throws IOException {
+        FileAccountStore store = new FileAccountStore(mFile);
+        store.update("a@b.c", SECRET, null, OtpType.TOTP, null);
+        store.update("b@b.c", SECRET, null, OtpType.TOTP, null);
+        store.close();
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(file.length() - 1);
+        file.close();
+
+        store = new FileAccountStore(mFile);
+        assertTrue(store.nameExists("a@b.c"));
+        assertFalse(store.nameExists("b@b.c"));
+        store.update("c@b.c", SECRET, null, OtpType.TOTP, null);
+        store.close();
+
+        store = new FileAccountStore(mFile);
+        assertTrue(store.nameExists("c@b.c"));
+        store.close();
+    }
+
+    public void testCompact() throws IOException {
+        FileAccountStore store = new FileAccountStore(mFile);
+        store.update("a@b.c", SECRET, null, OtpType.HOTP, 0);
+        for (int i = 0; i < 100; i++) {
+            store.incrementCounter("a@b.c");
+        }
+        long length = mFile.length();
+        store.compact();
+        assertTrue(mFile.length() < length);
+        store.incrementCounter("a@b.c");
+        store.close();
+
+        store = new FileAccountStore(mFile);
+        assertEquals(101, (int) store.getCounter("a@b.c"));
+        store.close();
+    }
+
+    public void testDeleteAllData() throws IOException {
+        FileAccountStore store = new FileAccountStore(mFile);
+        store.update("a@b.c", SECRET, null, OtpType.TOTP, null);
+        store.deleteAllData();
+        store.close();
+
+        store = new FileAccountStore(mFile);
+        assertEquals(0, store.getSnapshot().size());
+        store.close();
+    }
+}
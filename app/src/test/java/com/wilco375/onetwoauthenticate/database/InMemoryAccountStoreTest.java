@@ -0,0 +1,160 @@
+package com.wilco375.onetwoauthenticate.database;
+
+import com.wilco375.onetwoauthenticate.database.AccountDb.OtpType;
+import com.wilco375.onetwoauthenticate.util.Base32String;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link InMemoryAccountStore}.
+ */
+public class InMemoryAccountStoreTest extends TestCase {
+    private static final String SECRET = "7777777777777777";
+    private static final String SECRET2 = "2222222222222222";
+
+    private final InMemoryAccountStore mStore = new InMemoryAccountStore();
+
+    public void testUpdateAndGet() {
+        mStore.update("a@gmail.com", SECRET, null, OtpType.TOTP, null);
+        mStore.update("b@b.c", SECRET2, "b@b.c", OtpType.HOTP, 3, null, 0xff0000);
+        assertEquals(SECRET, mStore.getSecret("a@gmail.com"));
+        assertEquals(0, (int) mStore.getCounter("a@gmail.com"));
+        assertTrue(mStore.isGoogleAccount("a@gmail.com"));
+        assertEquals(OtpType.HOTP, mStore.getType("b@b.c"));
+        assertEquals(3, (int) mStore.getCounter("b@b.c"));
+        assertEquals(0xff0000, (int) mStore.getColor("b@b.c"));
+        assertFalse(mStore.isGoogleAccount("b@b.c"));
+        assertNull(mStore.getSecret("c@b.c"));
+
+        // Existing emails are unique
+        mStore.update("a@gmail.com", SECRET2, null, OtpType.TOTP, null);
+        assertEquals(SECRET, mStore.getSecret("a@gmail.com"));
+        try {
+            mStore.update("a@gmail.com", SECRET2, "b@b.c", OtpType.TOTP, null);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testRenameKeepsPositionAndColor() {
+        mStore.update("a@b.c", SECRET, null, OtpType.TOTP, null, null, 0xff0000);
+        mStore.update("b@b.c", SECRET, null, OtpType.TOTP, null);
+        mStore.reorder(new String[]{"b@b.c", "a@b.c"});
+        mStore.update("c@b.c", SECRET2, "a@b.c", OtpType.TOTP, null, true);
+
+        assertFalse(mStore.nameExists("a@b.c"));
+        AccountSnapshot snapshot = mStore.getSnapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals("b@b.c", snapshot.get(0).email);
+        assertEquals("c@b.c", snapshot.get(1).email);
+        assertEquals(0xff0000, (int) snapshot.get(1).color);
+        assertTrue(snapshot.get(1).googleAccount);
+    }
+
+    public void testDisplayOrder() {
+        mStore.update("a@b.c", SECRET, null, OtpType.TOTP, null);
+        mStore.update("b@b.c", SECRET, null, OtpType.TOTP, null);
+        mStore.update("c@b.c", SECRET, null, OtpType.TOTP, null);
+        assertEquals("a@b.c", mStore.getSnapshot().get(0).email);
+
+        mStore.reorder(new String[]{"c@b.c", "a@b.c", "b@b.c"});
+        AccountSnapshot snapshot = mStore.getSnapshot();
+        assertEquals("c@b.c", snapshot.get(0).email);
+        assertEquals("a@b.c", snapshot.get(1).email);
+        assertEquals("b@b.c", snapshot.get(2).email);
+        assertSame(snapshot, mStore.getSnapshot());
+    }
+
+    public void testCounters() {
+        mStore.update("a@b.c", SECRET, null, OtpType.HOTP, 0);
+        assertEquals(1, (int) mStore.advanceCounter("a@b.c").counter);
+        mStore.incrementCounter("a@b.c");
+        assertEquals(2, (int) mStore.getCounter("a@b.c"));
+        mStore.setCounter("a@b.c", 10);
+        assertEquals(10, (int) mStore.getCounter("a@b.c"));
+        assertNull(mStore.advanceCounter("b@b.c"));
+    }
+
+    public void testDelete() {
+        mStore.update("a@b.c", SECRET, null, OtpType.TOTP, null);
+        mStore.update("b@b.c", SECRET, null, OtpType.TOTP, null);
+        mStore.delete("a@b.c");
+        assertFalse(mStore.nameExists("a@b.c"));
+        assertEquals(1, mStore.getSnapshot().size());
+        mStore.deleteAllData();
+        assertEquals(0, mStore.getSnapshot().size());
+    }
+
+    public void testIdKeyedMethods() {
+        mStore.update("a@b.c", SECRET, null, OtpType.HOTP, 0);
+        mStore.update("b@b.c", SECRET, null, OtpType.TOTP, null);
+        long id = mStore.getSnapshot().get("a@b.c").id;
+        assertEquals("a@b.c", mStore.getAccount(id).email);
+
+        // Renaming keeps the id
+        mStore.update(id, "c@b.c", SECRET2, OtpType.HOTP, 0, null, null);
+        assertEquals("c@b.c", mStore.getAccount(id).email);
+        assertEquals(SECRET2, mStore.getAccount(id).secret);
+        assertFalse(mStore.nameExists("a@b.c"));
+        assertEquals(id, mStore.getSnapshot().get("c@b.c").id);
+
+        assertEquals(1, (int) mStore.advanceCounter(id).counter);
+        mStore.delete(id);
+        assertNull(mStore.getAccount(id));
+        assertFalse(mStore.nameExists("c@b.c"));
+        assertNull(mStore.advanceCounter(id));
+        assertEquals(1, mStore.getSnapshot().size());
+    }
+
+    public void testKeyIsDecodedOnce() throws Exception {
+        mStore.update("a@b.c", SECRET, null, OtpType.HOTP, 0);
+        Account account = mStore.getSnapshot().get("a@b.c");
+        assertTrue(Arrays.equals(Base32String.decode(SECRET), account.key));
+        assertSame(account.key, mStore.advanceCounter("a@b.c").key);
+        assertNotNull(mStore.getCachedSigningOracle(account));
+
+        mStore.update("a@b.c", SECRET2, "a@b.c", OtpType.HOTP, 0);
+        assertTrue(Arrays.equals(Base32String.decode(SECRET2),
+                mStore.getSnapshot().get("a@b.c").key));
+
+        mStore.update("b@b.c", "1", null, OtpType.TOTP, null);
+        assertNull(mStore.getSnapshot().get("b@b.c").key);
+        assertNull(mStore.getCachedSigningOracle(mStore.getSnapshot().get("b@b.c")));
+    }
+
+    public void testChangeListener() {
+        mStore.update("a@b.c", SECRET, null, OtpType.HOTP, 0);
+        long id = mStore.getSnapshot().get("a@b.c").id;
+        List<AccountChange> changes = new ArrayList<>();
+        AccountStore.AccountChangeListener listener = changes::add;
+        mStore.addChangeListener(listener);
+        mStore.addChangeListener(listener);
+
+        mStore.update("b@b.c", SECRET, null, OtpType.TOTP, null);
+        long id2 = mStore.getSnapshot().get("b@b.c").id;
+        assertEquals(1, changes.size());
+        assertEquals(Arrays.asList(id2), Arrays.asList(changes.get(0).insertedIds.toArray()));
+
+        mStore.advanceCounter(id);
+        assertEquals(Arrays.asList(id), Arrays.asList(changes.get(1).updatedIds.toArray()));
+
+        mStore.reorder(new String[]{"b@b.c", "a@b.c"});
+        assertTrue(changes.get(2).reordered);
+
+        // Writes that change nothing aren't reported
+        mStore.reorder(new String[]{"b@b.c", "a@b.c"});
+        mStore.delete("x@b.c");
+        assertEquals(3, changes.size());
+
+        mStore.delete(id);
+        assertEquals(Arrays.asList(id), Arrays.asList(changes.get(3).deletedIds.toArray()));
+
+        mStore.removeChangeListener(listener);
+        mStore.delete(id2);
+        assertEquals(4, changes.size());
+    }
+}